@@ -15,16 +15,41 @@
  */
 package ac.simons.reactive.chains;
 
+import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.BAD_GATEWAY;
 import static org.springframework.http.HttpStatus.CREATED;
+import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
+import static org.springframework.http.HttpStatus.UNSUPPORTED_MEDIA_TYPE;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_STREAM_JSON;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM;
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
 import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
 import static org.springframework.web.reactive.function.server.ServerResponse.created;
+import static org.springframework.web.reactive.function.server.ServerResponse.notFound;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 import static org.springframework.web.reactive.function.server.ServerResponse.status;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import java.util.logging.Logger;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.core.instrument.FunctionCounter;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -32,23 +57,128 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 @SpringBootApplication
+@EnableConfigurationProperties(ChainProperties.class)
 public class Application {
 
+	private static final Logger LOGGER = Logger.getLogger(Application.class.getName());
+
+	/**
+	 * Newline delimited JSON, which Spring doesn't know about yet.
+	 */
+	static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+	/**
+	 * Reads the payloads of a bulk upload one after another, either from a JSON array or from one JSON value per line.
+	 */
+	private static final ObjectMapper OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+	private static final Jackson2JsonDecoder PAYLOAD_DECODER = new Jackson2JsonDecoder(
+			OBJECT_MAPPER, APPLICATION_JSON, APPLICATION_STREAM_JSON, APPLICATION_NDJSON);
+
+	private static final DataBufferFactory DATA_BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+	/**
+	 * Number of blocks written into one buffer when streaming blocks.
+	 */
+	private static final int BLOCKS_PER_BUFFER = 64;
+
+	private static final ResolvableType PAYLOAD_TYPE = ResolvableType.forClass(JsonNode.class);
+
+	/**
+	 * Header of the key under which a client queues a transaction at most once.
+	 */
+	static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+	private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+	/**
+	 * Header of the id of the last event a client has seen.
+	 */
+	static final String LAST_EVENT_ID = "Last-Event-ID";
+
+	/**
+	 * Name of the transaction log inside the data directory.
+	 */
+	private static final String TRANSACTION_LOG = "transactions.wal";
+
+	private static final ParameterizedTypeReference<Event<?>> EVENT_TYPE = new ParameterizedTypeReference<>() {
+	};
+
+	private static final ParameterizedTypeReference<ServerSentEvent<Event<?>>> SERVER_SENT_EVENT_TYPE = new ParameterizedTypeReference<>() {
+	};
+
+	private static final ParameterizedTypeReference<Map<String, String>> ID_TYPE = new ParameterizedTypeReference<>() {
+	};
+
 	@Bean
 	public MeterRegistryCustomizer<?> commonTagsCustomizer(@Value("${spring.application.name}") final String applicationName) {
 		return registry -> registry.config().commonTags("application", applicationName);
 	}
 
 	@Bean
-	public Chain chain(final MeterRegistry meterRegistry) {
-		var chain = Chain.defaultChain();
+	public Chain chain(final ChainProperties chainProperties, final MeterRegistry meterRegistry) {
+		var builder = Chain.builder()
+				.withBlockEncoding(chainProperties.getBlockEncoding() == ChainProperties.Encoding.BINARY ?
+						BlockEncoding.binary() : BlockEncoding.json())
+				.withDigestProvider(DigestProvider.of(chainProperties.getDigestProvider()))
+				.withDifficulty(Difficulty.ofLeadingZeroBits(chainProperties.getDifficultyBits()))
+				.withDifficultyAdjustment(difficultyAdjustment(chainProperties))
+				.withNumberOfMiningThreads(chainProperties.getMiningThreads())
+				.withMeterRegistry(meterRegistry)
+				.withMiningPipelineDepth(chainProperties.getMiningPipelineDepth())
+				.withMempoolCapacity(chainProperties.getMaxPendingTransactions(), chainProperties.getMaxPendingPayloadBytes(),
+						chainProperties.getMempoolOverflowPolicy())
+				.withFeeAging(chainProperties.getFeeAgingPerSecond())
+				.withBlockCapacity(chainProperties.getBlockMaxTransactions(), chainProperties.getBlockMaxPayloadBytes())
+				.withTransactionIdGenerator(TransactionIdGenerator.of(chainProperties.getTransactionIdGenerator(),
+						chainProperties.getNodeId()))
+				.withIdempotencyKeys(chainProperties.getMaxIdempotencyKeys(), chainProperties.getIdempotencyWindow())
+				.withValidationParallelism(chainProperties.getValidationParallelism());
+		if (chainProperties.getDataDirectory() != null) {
+			builder.withBlockStorage(Paths.get(chainProperties.getDataDirectory()), chainProperties.getSegmentSize(),
+					chainProperties.getHotBlocks(), chainProperties.getSyncEveryBlocks(), chainProperties.getSyncInterval());
+			if (chainProperties.getSnapshotEveryBlocks() > 0) {
+				builder.withSnapshots(Paths.get(chainProperties.getDataDirectory()), chainProperties.getSnapshotEveryBlocks());
+			}
+		}
+		if (chainProperties.isTransactionLog()) {
+			if (chainProperties.getDataDirectory() == null) {
+				throw new IllegalStateException("The transaction log requires a data directory.");
+			}
+			builder.withTransactionLog(Paths.get(chainProperties.getDataDirectory(), TRANSACTION_LOG),
+					chainProperties.getTransactionLogMaxGroupSize());
+		}
+		var chain = builder.build();
+		if (chainProperties.isValidateOnStart()) {
+			validate(chain, chainProperties.getValidationProgressInterval(), meterRegistry);
+		}
 
 		FunctionCounter.builder("chain.blocks.computed", chain, Chain::getLength)
 			.baseUnit("block")
@@ -58,22 +188,385 @@ public class Application {
 			.baseUnit("transaction")
 			.register(meterRegistry);
 
+		Gauge.builder("chain.transactions.pending.payload", chain, Chain::getPendingPayloadBytes)
+			.baseUnit("byte")
+			.register(meterRegistry);
+
+		Gauge.builder("chain.blocks.pending", chain, Chain::getNumberOfPendingBlocks)
+			.baseUnit("block")
+			.register(meterRegistry);
+
+		Gauge.builder("chain.difficulty", chain, c -> c.getDifficulty().getLeadingZeroBits())
+			.baseUnit("bit")
+			.register(meterRegistry);
+
 		return chain;
 	}
 
+	/**
+	 * Validates a chain before it is used.
+	 *
+	 * @throws IllegalStateException if the chain is invalid
+	 */
+	private static void validate(final Chain chain, final Duration progressInterval, final MeterRegistry meterRegistry) {
+		var result = meterRegistry.timer(Chain.STARTUP_TIMER, "phase", "validate")
+				.record(() -> chain.validate(progressInterval).blockLast());
+		if (result.getState() != ValidationProgress.State.VALID) {
+			throw new IllegalStateException("The chain is invalid at block " + result.getFirstInvalidIndex() + ": " + result.getReason());
+		}
+	}
+
+	@Bean
+	ValidationEndpoint validationEndpoint(final Chain chain, final ChainProperties chainProperties) {
+		return new ValidationEndpoint(chain, chainProperties.getValidationProgressInterval());
+	}
+
+	private static DifficultyAdjustment difficultyAdjustment(final ChainProperties chainProperties) {
+		if (chainProperties.getTargetBlockTime() == null) {
+			return DifficultyAdjustment.fixed();
+		}
+		return DifficultyAdjustment.towards(chainProperties.getTargetBlockTime(), chainProperties.getDifficultyWindow())
+				.withMaxStep(chainProperties.getMaxDifficultyStep())
+				.withBounds(Difficulty.ofLeadingZeroBits(chainProperties.getMinDifficultyBits()),
+						Difficulty.ofLeadingZeroBits(chainProperties.getMaxDifficultyBits()));
+	}
+
+	@Bean
+	EventPublisher eventPublisher(final Chain chain, final ChainProperties chainProperties,
+			final MeterRegistry meterRegistry) {
+		var eventPublisher = new EventPublisher(chainProperties.getEventReplayCapacity(), chainProperties.getEventBufferSize(),
+				chainProperties.getEventOverflowStrategy(), Schedulers.parallel(), meterRegistry);
+		chain.onNewBlock(eventPublisher::publish);
+		chain.onNewTransaction(eventPublisher::publish);
+		return eventPublisher;
+	}
+
+	@Bean
+	NodeRegistry nodeRegistry(final WebClient.Builder webClientBuilder) {
+		return new NodeRegistry(UUID.randomUUID().toString(),
+				host -> NodeClient.of(webClientBuilder.clone().baseUrl(host).build()));
+	}
+
 	@Bean
-	RouterFunction<?> router(final Chain chain) {
-		return route(GET("/mine"), request -> status(CREATED).body(chain.mine(), Block.class))
-				.and(route(POST("/transactions"), request ->
-						request.bodyToMono(String.class)
-								.flatMap(chain::queue)
-								.flatMap(p -> created(
-										UriComponentsBuilder.fromUri(request.uri())
-												.pathSegment("{id}").buildAndExpand(Map.of("id", p.getId())).encode().
-												toUri())
-										.body(Mono.just(p), Transaction.class))))
-				.and(route(GET("/blocks"), request -> ok().body(
-						chain.getBlocks().map(blocks -> Map.of("blocks", blocks, "blockHeight", blocks.size())), Map.class)));
+	BlockSync blockSync(final Chain chain, final NodeRegistry nodeRegistry, final ChainProperties chainProperties,
+			final MeterRegistry meterRegistry) {
+		return new BlockSync(chain, nodeRegistry, chainProperties.getPeerSyncBatchSize(), chainProperties.getPeerSyncConcurrency(),
+				meterRegistry);
+	}
+
+	/**
+	 * Registers the configured peers until they are reachable and syncs with all registered nodes periodically.
+	 */
+	@Bean(destroyMethod = "dispose")
+	Disposable peerSync(final NodeRegistry nodeRegistry, final BlockSync blockSync, final EventPublisher eventPublisher,
+			final ChainProperties chainProperties) {
+		var interval = chainProperties.getPeerSyncInterval();
+		if (interval == null || interval.isZero()) {
+			return () -> {
+			};
+		}
+		return Flux.interval(interval, interval)
+				.onBackpressureDrop()
+				.concatMap(tick -> Flux.fromIterable(chainProperties.getPeers())
+						.flatMap(host -> register(nodeRegistry, eventPublisher, host))
+						.then(blockSync.syncAll()))
+				.subscribe();
+	}
+
+	private static Mono<Node> register(final NodeRegistry nodeRegistry, final EventPublisher eventPublisher, final String host) {
+		return nodeRegistry.register(host)
+				.doOnNext(node -> {
+					LOGGER.info(() -> "Registered new node " + node);
+					eventPublisher.publish(node);
+				})
+				.onErrorResume(e -> {
+					LOGGER.fine(() -> "Could not register " + host + ": " + e.getMessage());
+					return Mono.empty();
+				});
+	}
+
+	/**
+	 * @return The scheduler running the blocking handlers of /transactions, /transactions/batch and /blocks in
+	 * {@link ChainProperties.ExecutionMode#VIRTUAL_THREADS}. Falls back to platform threads on JDKs without virtual
+	 * threads.
+	 */
+	@Bean(destroyMethod = "dispose")
+	Scheduler requestScheduler(final ChainProperties chainProperties) {
+		if (chainProperties.getExecutionMode() != ChainProperties.ExecutionMode.VIRTUAL_THREADS) {
+			return Schedulers.immediate();
+		}
+		try {
+			return Schedulers.fromExecutorService(VirtualThreads.newVirtualThreadPerTaskExecutor());
+		} catch (IllegalStateException e) {
+			LOGGER.warning(() -> e.getMessage() + " Handling requests on platform threads.");
+			return Schedulers.newElastic("request");
+		}
+	}
+
+	@Bean
+	RouterFunction<?> router(final Chain chain, final ChainProperties chainProperties, final Scheduler requestScheduler,
+			final EventPublisher eventPublisher) {
+		final boolean blocking = chainProperties.getExecutionMode() == ChainProperties.ExecutionMode.VIRTUAL_THREADS;
+		return route(GET("/mine").and(queryParam("wait", "false"::equalsIgnoreCase)), request -> {
+					// Don't wait for the block, just tell which one it is going to be
+					var futureBlock = chain.scheduleBlock();
+					return status(ACCEPTED).body(Mono.just(Map.of("index", futureBlock.getIndex())), Map.class);
+				})
+				.and(route(GET("/mine"), request -> status(CREATED).body(chain.mine(), Block.class)))
+				.and(route(POST("/transactions/batch"), request -> {
+					var fee = feeOf(request);
+					if (fee < 0) {
+						return badRequest().build();
+					}
+					// Payloads are JSON values, strings are taken as they are, everything else as JSON
+					var contentType = request.headers().contentType().orElse(APPLICATION_JSON);
+					if (!PAYLOAD_DECODER.canDecode(PAYLOAD_TYPE, contentType)) {
+						return status(UNSUPPORTED_MEDIA_TYPE).build();
+					}
+					var payloads = PAYLOAD_DECODER
+							.decode(request.body(BodyExtractors.toDataBuffers()), PAYLOAD_TYPE, contentType, Collections.emptyMap())
+							.cast(JsonNode.class)
+							.map(payload -> payload.isTextual() ? payload.textValue() : payload.toString());
+					if (blocking) {
+						return onRequestThread(requestScheduler, () -> {
+							final List<Map<String, String>> ids = new ArrayList<>();
+							try {
+								// Read the next batch only after the previous one has been queued
+								for (List<String> batch : payloads.buffer(chainProperties.getTransactionBatchSize()).toIterable(1)) {
+									for (Transaction transaction : chain.queueAll(batch, fee).block()) {
+										ids.add(Map.of("id", transaction.getId()));
+									}
+								}
+							} catch (MempoolFullException e) {
+								ids.add(Map.of("error", e.getMessage()));
+							}
+							return ok().contentType(APPLICATION_STREAM_JSON).body(Flux.fromIterable(ids), ID_TYPE);
+						});
+					}
+					// Read the next batch only after the previous one has been queued
+					var ids = payloads
+							.buffer(chainProperties.getTransactionBatchSize())
+							.concatMap(batch -> chain.queueAll(batch, fee), 1)
+							.flatMapIterable(Function.identity())
+							.map(transaction -> Map.of("id", transaction.getId()))
+							// The response has already been started, so the rejection is the last element
+							.onErrorResume(MempoolFullException.class, e -> Mono.just(Map.of("error", e.getMessage())));
+					return ok().contentType(APPLICATION_STREAM_JSON).body(ids, ID_TYPE);
+				}))
+				.and(route(POST("/transactions"), request -> {
+					var fee = feeOf(request);
+					var idempotencyKey = request.headers().asHttpHeaders().getFirst(IDEMPOTENCY_KEY);
+					if (fee < 0 || idempotencyKey != null && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+						return badRequest().build();
+					}
+					if (blocking) {
+						return onRequestThread(requestScheduler, () -> {
+							final String payload = request.bodyToMono(String.class).block();
+							if (payload == null) {
+								return Mono.empty();
+							}
+							try {
+								return queued(request, chain.queue(payload, fee, idempotencyKey).block());
+							} catch (MempoolFullException e) {
+								return mempoolFull(chainProperties);
+							} catch (IllegalArgumentException e) {
+								return status(UNPROCESSABLE_ENTITY).build();
+							}
+						});
+					}
+					return request.bodyToMono(String.class)
+							.flatMap(payload -> chain.queue(payload, fee, idempotencyKey))
+							.flatMap(transaction -> queued(request, transaction))
+							.onErrorResume(MempoolFullException.class, e -> mempoolFull(chainProperties))
+							.onErrorResume(IllegalArgumentException.class, e -> status(UNPROCESSABLE_ENTITY).build());
+				}))
+				.and(route(GET("/transactions/{id}"), request -> chain.getTransactionStatus(request.pathVariable("id"))
+						.map(status -> ok().body(Mono.just(status), TransactionStatus.class))
+						.orElseGet(() -> notFound().build())))
+				.and(route(GET("/events"), request -> {
+					var events = eventPublisher.events(lastEventIdOf(request));
+					if (request.headers().accept().contains(TEXT_EVENT_STREAM)) {
+						return ok().contentType(TEXT_EVENT_STREAM).body(events.map(event -> ServerSentEvent.<Event<?>>builder(event)
+								.id(Long.toString(event.getId()))
+								.event(event.getName())
+								.build()), SERVER_SENT_EVENT_TYPE);
+					}
+					// The Kotlin node reads events as JSON stream
+					return ok().contentType(APPLICATION_STREAM_JSON).body(events, EVENT_TYPE);
+				}))
+				.and(route(GET("/blocks/{index}"), request -> {
+					final int index;
+					try {
+						index = Integer.parseInt(request.pathVariable("index"));
+					} catch (NumberFormatException e) {
+						return badRequest().build();
+					}
+					return chain.getBlockAt(index)
+							.map(block -> ok().body(Mono.just(block), Block.class))
+							.orElseGet(() -> notFound().build());
+				}))
+				.and(route(GET("/blocks"), request -> blocking ?
+						onRequestThread(requestScheduler, () -> blocks(chain, chainProperties, true, request)) :
+						blocks(chain, chainProperties, false, request)));
+	}
+
+	/**
+	 * Runs a handler that blocks on the given scheduler, as the event loop must never block.
+	 */
+	private static Mono<ServerResponse> onRequestThread(final Scheduler requestScheduler,
+			final Callable<Mono<ServerResponse>> handler) {
+		return Mono.fromCallable(handler).subscribeOn(requestScheduler).flatMap(Function.identity());
+	}
+
+	private static Mono<ServerResponse> queued(final ServerRequest request, final Transaction transaction) {
+		return created(UriComponentsBuilder.fromUri(request.uri())
+				.pathSegment("{id}").buildAndExpand(Map.of("id", transaction.getId())).encode().toUri())
+				.body(Mono.just(transaction), Transaction.class);
+	}
+
+	private static Mono<ServerResponse> mempoolFull(final ChainProperties chainProperties) {
+		return status(chainProperties.getMempoolFullStatus())
+				.header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, chainProperties.getMempoolRetryAfter().getSeconds())))
+				.build();
+	}
+
+	/**
+	 * The routes shared with the Kotlin node for joining a cluster.
+	 */
+	@Bean
+	RouterFunction<?> nodeRouter(final Chain chain, final NodeRegistry nodeRegistry, final BlockSync blockSync,
+			final EventPublisher eventPublisher) {
+		return route(GET("/"), request -> ok().body(Mono.fromSupplier(() -> new Status(nodeRegistry.getNodeId(), chain.getLength())), Status.class))
+				.and(route(GET("/nodes"), request -> ok().body(Flux.fromIterable(nodeRegistry.getNodes()), Node.class)))
+				.and(route(POST("/nodes/register"), request -> request.bodyToMono(String.class)
+						.map(String::trim)
+						.flatMap(host -> nodeRegistry.register(host).doOnNext(eventPublisher::publish))
+						// Catch up with the new node right away
+						.doOnNext(node -> blockSync.syncAll().subscribe())
+						.flatMap(node -> ok().body(Mono.just(node), Node.class))
+						.switchIfEmpty(ok().build())
+						.onErrorResume(e -> status(BAD_GATEWAY).build())));
+	}
+
+	/**
+	 * Serves a range of blocks, which is cut at the latest block when the request arrives. Without any parameter, all
+	 * blocks are returned as before, otherwise pages of at most {@code limit} blocks, each pointing to the next one
+	 * of the same range. Blocks are read and written in chunks, the response is never built in memory as a whole.
+	 * When blocking, the range is cut right away instead of when the response is written.
+	 */
+	private static Mono<ServerResponse> blocks(final Chain chain, final ChainProperties chainProperties,
+			final boolean blocking, final ServerRequest request) {
+		final int blockHeight = chain.getLength();
+		final int genesisIndex = chain.getGenesisIndex();
+		final int lastIndex = genesisIndex + blockHeight - 1;
+		final Optional<String> limitParameter = request.queryParam("limit");
+		final boolean paged = request.queryParam("from").isPresent() || request.queryParam("to").isPresent()
+				|| limitParameter.isPresent();
+		final int from;
+		final int to;
+		final int limit;
+		try {
+			from = request.queryParam("from").map(Integer::parseInt).orElse(genesisIndex);
+			to = Math.min(lastIndex, request.queryParam("to").map(Integer::parseInt).orElse(lastIndex));
+			limit = limitParameter.map(Integer::parseInt)
+					.orElse(Math.min(chainProperties.getBlocksPageSize(), chainProperties.getMaxBlocksPageSize()));
+		} catch (NumberFormatException e) {
+			return badRequest().build();
+		}
+		if (from < genesisIndex || limit < 1 || limit > chainProperties.getMaxBlocksPageSize()) {
+			return badRequest().build();
+		}
+
+		if (request.headers().accept().contains(APPLICATION_STREAM_JSON)) {
+			final int last = limitParameter.isPresent() ? (int) Math.min(to, (long) from + limit - 1) : to;
+			return ok().contentType(APPLICATION_STREAM_JSON).body(blocks(chain, from, last, blocking), Block.class);
+		}
+
+		final Map<String, Object> head = new LinkedHashMap<>();
+		head.put("blockHeight", blockHeight);
+		final int last;
+		if (paged) {
+			last = (int) Math.min(to, (long) from + limit - 1);
+			if (last < to) {
+				final String next = UriComponentsBuilder.fromPath(request.path())
+						.queryParam("from", last + 1)
+						.queryParam("to", to)
+						.queryParam("limit", limit)
+						.toUriString();
+				head.put("next", next);
+			}
+		} else {
+			last = to;
+		}
+		final ServerResponse.BodyBuilder response = ok().contentType(APPLICATION_JSON);
+		if (head.containsKey("next")) {
+			response.header("Link", "<" + head.get("next") + ">; rel=\"next\"");
+		}
+		return response.body(BodyInserters.fromDataBuffers(writeBlocks(head, blocks(chain, from, last, blocking))));
+	}
+
+	private static Flux<Block> blocks(final Chain chain, final int fromIndex, final int toIndex, final boolean blocking) {
+		return blocking ? Flux.fromIterable(chain.getBlocks(fromIndex, toIndex)) : chain.streamBlocks(fromIndex, toIndex);
+	}
+
+	/**
+	 * Writes a JSON object made of the entries of {@code head} and all {@code blocks} under "blocks", one chunk of
+	 * blocks after another.
+	 */
+	private static Flux<DataBuffer> writeBlocks(final Map<String, Object> head, final Flux<Block> blocks) {
+		final StringBuilder prefix = new StringBuilder("{");
+		head.forEach((key, value) -> prefix.append(toJson(key)).append(':').append(toJson(value)).append(','));
+		prefix.append("\"blocks\":[");
+
+		return Flux.concat(
+				Mono.just(prefix.toString()),
+				blocks.buffer(BLOCKS_PER_BUFFER).index().map(chunk -> {
+					final StringBuilder json = new StringBuilder();
+					for (Block block : chunk.getT2()) {
+						if (json.length() > 0 || chunk.getT1() > 0) {
+							json.append(',');
+						}
+						json.append(toJson(block));
+					}
+					return json.toString();
+				}),
+				Mono.just("]}"))
+				.map(json -> DATA_BUFFER_FACTORY.wrap(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String toJson(final Object value) {
+		try {
+			return OBJECT_MAPPER.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @param request A request to queue transactions
+	 * @return The fee given as query parameter, {@literal 0} if there is none and negative if it is invalid
+	 */
+	private static long feeOf(final ServerRequest request) {
+		try {
+			return request.queryParam("fee").map(Long::parseLong).orElse(0L);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param request A request for events
+	 * @return The id of the last event seen by the client, either from the header of server-sent events or the query
+	 * parameter {@code lastEventId}, null if there is none or it is invalid
+	 */
+	private static Long lastEventIdOf(final ServerRequest request) {
+		var lastEventId = Optional.ofNullable(request.headers().asHttpHeaders().getFirst(LAST_EVENT_ID))
+				.or(() -> request.queryParam("lastEventId"));
+		try {
+			return lastEventId.map(Long::valueOf).orElse(null);
+		} catch (NumberFormatException e) {
+			return null;
+		}
 	}
 
 	public static void main(String[] args) {
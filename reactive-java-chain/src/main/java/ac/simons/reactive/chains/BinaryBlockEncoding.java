@@ -0,0 +1,286 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A canonical binary encoding of blocks. All values are written in a fixed order, big endian, strings as UTF-8
+ * prefixed with their length in bytes ({@code -1} for {@literal null}):
+ *
+ * <pre>
+ * block       := version:byte index:int timestamp:long proof:long difficulty:int
+ *                transactionCount:int transaction* previousBlockHash:string
+ * transaction := id:string timestamp:long fee:long payload:string
+ * string      := length:int utf8:byte[length]
+ * </pre>
+ *
+ * A difficulty of {@code -1} stands for blocks without difficulty. Version 1 of the layout had no difficulty at
+ * all, versions 1 and 2 had no fees. Both can still be decoded.
+ *
+ * Blocks are written straight into a buffer owned by the encoding thread, which is reused for every block.
+ */
+final class BinaryBlockEncoding implements BlockEncoding {
+
+	/**
+	 * The version of the layout, written as the first byte of each block.
+	 */
+	static final byte VERSION = 3;
+
+	private static final byte VERSION_WITHOUT_DIFFICULTY = 1;
+
+	private static final byte VERSION_WITHOUT_FEES = 2;
+
+	private static final int PROOF_LENGTH = Long.BYTES;
+
+	private static final int INITIAL_CAPACITY = 4096;
+
+	private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_CAPACITY));
+
+	@Override
+	public byte[] encode(final Block block) {
+		final ByteBuffer encoded = encodeIntoReusableBuffer(block);
+		final byte[] result = new byte[encoded.remaining()];
+		encoded.get(result);
+		return result;
+	}
+
+	/**
+	 * Encodes a block into the buffer of the calling thread. The buffer is only valid until the same thread
+	 * encodes the next block.
+	 *
+	 * @param block The block to encode
+	 * @return A buffer ready to be read, containing exactly the encoded block
+	 */
+	ByteBuffer encodeIntoReusableBuffer(final Block block) {
+		ByteBuffer buffer = buffers.get();
+		while (true) {
+			buffer.clear();
+			if (write(block, buffer)) {
+				return buffer.flip();
+			}
+			// Grow and start over
+			buffer = ByteBuffer.allocate(2 * buffer.capacity());
+			buffers.set(buffer);
+		}
+	}
+
+	@Override
+	public int writeProof(final long proof, final byte[] buffer) {
+		return writeBigEndian(proof, PROOF_LENGTH, buffer);
+	}
+
+	@Override
+	public int writeTimestamp(final long timestamp, final byte[] buffer) {
+		return writeBigEndian(timestamp, Long.BYTES, buffer);
+	}
+
+	@Override
+	public int writeDifficulty(final int difficulty, final byte[] buffer) {
+		return writeBigEndian(difficulty, Integer.BYTES, buffer);
+	}
+
+	private static int writeBigEndian(final long value, final int length, final byte[] buffer) {
+		final int offset = buffer.length - length;
+		for (int i = 0; i < length; ++i) {
+			buffer[offset + i] = (byte) (value >>> (8 * (length - 1 - i)));
+		}
+		return offset;
+	}
+
+	Block decode(final byte[] encoded) {
+		return decode(ByteBuffer.wrap(encoded));
+	}
+
+	Block decode(final ByteBuffer buffer) {
+		try {
+			final byte version = buffer.get();
+			if (version < VERSION_WITHOUT_DIFFICULTY || version > VERSION) {
+				throw new IllegalArgumentException("Unsupported version of the binary block encoding: " + version);
+			}
+			final int index = buffer.getInt();
+			final long timestamp = buffer.getLong();
+			final long proof = buffer.getLong();
+			final int difficulty = version == VERSION_WITHOUT_DIFFICULTY ? -1 : buffer.getInt();
+			if (difficulty < -1) {
+				throw new IllegalArgumentException("Invalid difficulty: " + difficulty);
+			}
+			final int numberOfTransactions = buffer.getInt();
+			if (numberOfTransactions < 0) {
+				throw new IllegalArgumentException("Invalid number of transactions: " + numberOfTransactions);
+			}
+			final List<Transaction> transactions = new ArrayList<>(numberOfTransactions);
+			for (int i = 0; i < numberOfTransactions; ++i) {
+				transactions.add(readTransaction(version, buffer));
+			}
+			return new Block(index, timestamp, proof, Collections.unmodifiableList(transactions), getString(buffer),
+					difficulty < 0 ? null : difficulty);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated block.", e);
+		}
+	}
+
+	private static boolean write(final Block block, final ByteBuffer buffer) {
+		try {
+			buffer
+					.put(VERSION)
+					.putInt(block.getIndex())
+					.putLong(block.getTimestamp())
+					.putLong(block.getProof())
+					.putInt(block.getDifficulty() == null ? -1 : block.getDifficulty());
+			final List<Transaction> transactions = block.getTransactions();
+			buffer.putInt(transactions.size());
+			for (Transaction transaction : transactions) {
+				if (!writeTransaction(transaction, buffer)) {
+					return false;
+				}
+			}
+			return putString(block.getPreviousBlockHash(), buffer);
+		} catch (BufferOverflowException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Encodes a single transaction the same way as inside a block of the current version.
+	 *
+	 * @param transaction The transaction to encode
+	 * @return The encoded transaction
+	 */
+	byte[] encode(final Transaction transaction) {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		while (true) {
+			try {
+				if (writeTransaction(transaction, buffer)) {
+					buffer.flip();
+					final byte[] result = new byte[buffer.remaining()];
+					buffer.get(result);
+					return result;
+				}
+			} catch (BufferOverflowException e) {
+				// Grow below
+			}
+			buffer = ByteBuffer.allocate(2 * buffer.capacity());
+		}
+	}
+
+	/**
+	 * @param buffer Contains a transaction encoded by {@link #encode(Transaction)}
+	 * @return The decoded transaction
+	 */
+	Transaction decodeTransaction(final ByteBuffer buffer) {
+		try {
+			return readTransaction(VERSION, buffer);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated transaction.", e);
+		}
+	}
+
+	private static boolean writeTransaction(final Transaction transaction, final ByteBuffer buffer) {
+		if (!putString(transaction.getId(), buffer)) {
+			return false;
+		}
+		buffer.putLong(transaction.getTimestamp()).putLong(transaction.getFee());
+		return putString(transaction.getPayload(), buffer);
+	}
+
+	private static Transaction readTransaction(final byte version, final ByteBuffer buffer) {
+		final String id = getString(buffer);
+		final long timestamp = buffer.getLong();
+		final long fee = version <= VERSION_WITHOUT_FEES ? 0 : buffer.getLong();
+		return new Transaction(id, timestamp, getString(buffer), fee);
+	}
+
+	/**
+	 * Writes UTF-8 directly into the backing array. Unpaired surrogates are replaced by {@code ?}, the same way
+	 * {@link String#getBytes(java.nio.charset.Charset)} does.
+	 */
+	private static boolean putString(final String value, final ByteBuffer buffer) {
+		if (value == null) {
+			buffer.putInt(-1);
+			return true;
+		}
+
+		final int lengthPosition = buffer.position();
+		buffer.putInt(0);
+		final byte[] array = buffer.array();
+		final int start = buffer.arrayOffset() + buffer.position();
+		final int limit = buffer.arrayOffset() + buffer.limit();
+		int position = start;
+		for (int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				if (position >= limit) {
+					return false;
+				}
+				array[position++] = (byte) c;
+			} else if (c < 0x800) {
+				if (position + 2 > limit) {
+					return false;
+				}
+				array[position++] = (byte) (0xc0 | (c >> 6));
+				array[position++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				final int codePoint = Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)) ?
+						Character.toCodePoint(c, value.charAt(++i)) : -1;
+				if (codePoint < 0) {
+					if (position >= limit) {
+						return false;
+					}
+					array[position++] = '?';
+				} else {
+					if (position + 4 > limit) {
+						return false;
+					}
+					array[position++] = (byte) (0xf0 | (codePoint >> 18));
+					array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+					array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+					array[position++] = (byte) (0x80 | (codePoint & 0x3f));
+				}
+			} else {
+				if (position + 3 > limit) {
+					return false;
+				}
+				array[position++] = (byte) (0xe0 | (c >> 12));
+				array[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				array[position++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		buffer.position(position - buffer.arrayOffset());
+		buffer.putInt(lengthPosition, position - start);
+		return true;
+	}
+
+	private static String getString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid length of string: " + length);
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
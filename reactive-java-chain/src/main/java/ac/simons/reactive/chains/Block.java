@@ -17,6 +17,10 @@ package ac.simons.reactive.chains;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 /**
  * A block. A building block of a block chain, so to speak.
  */
@@ -31,16 +35,61 @@ public class Block {
 
 	private final String previousBlockHash;
 
+	/**
+	 * The number of leading zero bits the hash of this block has to have. Blocks mined before difficulties have
+	 * been retargeted don't carry it and are not encoded with it, so that their hashes stay the same.
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private final Integer difficulty;
+
+	/**
+	 * The hash of this block, only present on blocks that have been accepted into a chain. It is not part of the
+	 * data that is hashed.
+	 */
+	private final String hash;
+
 	public Block(int index, long timestamp, long proof, List<Transaction> transactions, String previousBlockHash) {
+		this(index, timestamp, proof, transactions, previousBlockHash, null, null);
+	}
+
+	public Block(int index, long timestamp, long proof, List<Transaction> transactions, String previousBlockHash, Integer difficulty) {
+		this(index, timestamp, proof, transactions, previousBlockHash, difficulty, null);
+	}
+
+	/**
+	 * Used when reading blocks of other nodes. Their hash is taken as it is.
+	 */
+	@JsonCreator
+	private Block(@JsonProperty("index") int index, @JsonProperty("timestamp") long timestamp, @JsonProperty("proof") long proof,
+			@JsonProperty("transactions") List<Transaction> transactions, @JsonProperty("previousBlockHash") String previousBlockHash,
+			@JsonProperty("difficulty") Integer difficulty, @JsonProperty("hash") String hash) {
 		this.index = index;
 		this.timestamp = timestamp;
 		this.proof = proof;
 		this.transactions = transactions;
 		this.previousBlockHash = previousBlockHash;
+		this.difficulty = difficulty;
+		this.hash = hash;
 	}
 
 	public Block newCandidateOf(final long newProof) {
-		return new Block(index, timestamp, newProof, transactions, previousBlockHash);
+		return new Block(index, timestamp, newProof, transactions, previousBlockHash, difficulty);
+	}
+
+	/**
+	 * @param newPreviousBlockHash The hash of the parent
+	 * @return A copy of this block pointing to the given parent
+	 */
+	Block withPreviousBlockHash(final String newPreviousBlockHash) {
+		return new Block(index, timestamp, proof, transactions, newPreviousBlockHash, difficulty);
+	}
+
+	/**
+	 * @param newHash The hash computed for this block
+	 * @return A copy of this block carrying its hash
+	 */
+	Block withHash(final String newHash) {
+		return new Block(index, timestamp, proof, transactions, previousBlockHash, difficulty, newHash);
 	}
 
 	public int getIndex() {
@@ -62,4 +111,12 @@ public class Block {
 	public String getPreviousBlockHash() {
 		return previousBlockHash;
 	}
+
+	public Integer getDifficulty() {
+		return difficulty;
+	}
+
+	public String getHash() {
+		return hash;
+	}
 }
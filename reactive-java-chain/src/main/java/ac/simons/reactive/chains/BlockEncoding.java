@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Turns blocks into the bytes that get hashed. The encoding must be deterministic: The same block always has to
+ * be encoded to the same bytes, otherwise hashes and proofs are meaningless.
+ */
+public interface BlockEncoding {
+
+	/**
+	 * Size of the buffer passed to {@link #writeProof(long, byte[])} and the other methods writing single values.
+	 */
+	int MAX_PROOF_LENGTH = 20;
+
+	/**
+	 * @param block The block to encode
+	 * @return The encoded block
+	 */
+	byte[] encode(Block block);
+
+	/**
+	 * Writes a proof exactly as it appears inside an encoded block, right aligned into {@code buffer}. This allows
+	 * patching the proof of an encoded template without encoding the whole block again.
+	 *
+	 * @param proof  The proof to write
+	 * @param buffer A buffer with a length of {@link #MAX_PROOF_LENGTH}
+	 * @return The offset of the first byte written
+	 */
+	int writeProof(long proof, byte[] buffer);
+
+	/**
+	 * Writes the timestamp of a block like {@link #writeProof(long, byte[])} writes the proof, so that templates
+	 * can be stamped without encoding them again.
+	 *
+	 * @param timestamp The timestamp to write
+	 * @param buffer    A buffer with a length of {@link #MAX_PROOF_LENGTH}
+	 * @return The offset of the first byte written or {@literal -1} if the encoding doesn't support it
+	 */
+	default int writeTimestamp(final long timestamp, final byte[] buffer) {
+		return -1;
+	}
+
+	/**
+	 * Writes the difficulty of a block like {@link #writeProof(long, byte[])} writes the proof.
+	 *
+	 * @param difficulty The difficulty to write in bits
+	 * @param buffer     A buffer with a length of {@link #MAX_PROOF_LENGTH}
+	 * @return The offset of the first byte written or {@literal -1} if the encoding doesn't support it
+	 */
+	default int writeDifficulty(final int difficulty, final byte[] buffer) {
+		return -1;
+	}
+
+	/**
+	 * The encoding used from the beginning, compatible with the Kotlin node and all existing hashes.
+	 *
+	 * @return An encoding rendering blocks as JSON
+	 */
+	static BlockEncoding json() {
+		return new JsonBlockEncoding(new ObjectMapper());
+	}
+
+	/**
+	 * @return The current version of the canonical binary encoding
+	 */
+	static BlockEncoding binary() {
+		return new BinaryBlockEncoding();
+	}
+}
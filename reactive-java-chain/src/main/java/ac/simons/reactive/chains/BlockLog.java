@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The append-only log of the blocks of a chain, kept on the heap. There is a single writer at a time, readers never
+ * lock nor copy.
+ * <p>
+ * Blocks are stored in chunks of fixed size that never move once allocated. The writer stores a block first and
+ * publishes the chunks together with the new length afterwards through a single volatile write, so a reader that has
+ * read them sees all blocks below that length. A snapshot is nothing but such a pair: it keeps reading the same blocks
+ * while new ones are appended.
+ * <p>
+ * Truncating copies the chunks from the new end on and publishes them with the shorter length, so that snapshots
+ * taken before keep seeing the removed blocks, and no snapshot sees blocks of both forks.
+ */
+final class BlockLog implements BlockStore {
+
+	static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	private final int chunkShift;
+
+	private final int chunkMask;
+
+	/**
+	 * The published blocks.
+	 */
+	private volatile State state;
+
+	BlockLog() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize The number of blocks per chunk, a power of two
+	 */
+	BlockLog(final int chunkSize) {
+		if (chunkSize < 1 || Integer.bitCount(chunkSize) != 1) {
+			throw new IllegalArgumentException("Chunk size must be a power of two.");
+		}
+		this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+		this.chunkMask = chunkSize - 1;
+		this.state = new State(new Block[1][chunkSize], 0);
+	}
+
+	@Override
+	public void append(final Block block) {
+		final State currentState = state;
+		final int position = currentState.length;
+		if (position == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Block log is full.");
+		}
+		Block[][] currentChunks = currentState.chunks;
+		final int chunk = position >>> chunkShift;
+		if (chunk == currentChunks.length) {
+			currentChunks = Arrays.copyOf(currentChunks, 2 * currentChunks.length);
+		}
+		if (currentChunks[chunk] == null) {
+			currentChunks[chunk] = new Block[chunkMask + 1];
+		}
+		currentChunks[chunk][position & chunkMask] = block;
+		state = new State(currentChunks, position + 1);
+	}
+
+	@Override
+	public void truncate(final int size) {
+		final State currentState = state;
+		if (size < 1 || size > currentState.length) {
+			throw new IllegalArgumentException("Cannot truncate " + currentState.length + " blocks to " + size + ".");
+		}
+		final Block[][] newChunks = Arrays.copyOf(currentState.chunks, currentState.chunks.length);
+		for (int chunk = size >>> chunkShift; chunk < newChunks.length && newChunks[chunk] != null; ++chunk) {
+			newChunks[chunk] = newChunks[chunk].clone();
+		}
+		state = new State(newChunks, size);
+	}
+
+	@Override
+	public int size() {
+		return state.length;
+	}
+
+	@Override
+	public Block get(final int position) {
+		return state.get(position);
+	}
+
+	@Override
+	public Block last() {
+		final State currentState = state;
+		return currentState.get(currentState.length - 1);
+	}
+
+	@Override
+	public List<Block> snapshot() {
+		return state;
+	}
+
+	/**
+	 * The chunks and the number of blocks published in them, never changed once published.
+	 */
+	private final class State extends AbstractList<Block> implements RandomAccess {
+		private final Block[][] chunks;
+
+		private final int length;
+
+		State(final Block[][] chunks, final int length) {
+			this.chunks = chunks;
+			this.length = length;
+		}
+
+		@Override
+		public Block get(final int position) {
+			if (position < 0 || position >= length) {
+				throw new IndexOutOfBoundsException("No block at position " + position + ".");
+			}
+			return chunks[position >>> chunkShift][position & chunkMask];
+		}
+
+		@Override
+		public int size() {
+			return length;
+		}
+	}
+}
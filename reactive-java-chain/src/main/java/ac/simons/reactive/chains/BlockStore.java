@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Where the blocks of a chain live. Blocks are appended, by a single writer at a time, and addressed by their
+ * position, starting at 0 with the genesis block. Only when the chain switches to a fork with more work, the blocks after the
+ * common ancestor are removed. Readers don't lock.
+ */
+interface BlockStore extends Closeable {
+
+	/**
+	 * Appends a block that carries its hash. Must not be called by more than one thread at a time.
+	 *
+	 * @param block The new block
+	 */
+	void append(Block block);
+
+	/**
+	 * Removes all blocks from the given position on, so that blocks of another fork can be appended. Must not be
+	 * called by more than one thread at a time, nor concurrently with {@link #append(Block)}. Readers that got the
+	 * length of the store before may still get removed blocks.
+	 *
+	 * @param size The number of blocks to keep, at least 1
+	 */
+	void truncate(int size);
+
+	/**
+	 * @return The number of blocks
+	 */
+	int size();
+
+	/**
+	 * @param position The position of a block, starting at 0
+	 * @return The block at the given position
+	 */
+	Block get(int position);
+
+	/**
+	 * @return The latest block
+	 */
+	default Block last() {
+		return get(size() - 1);
+	}
+
+	/**
+	 * @return An unmodifiable view on the blocks appended so far, which doesn't change when more blocks are appended
+	 * or the store is truncated
+	 */
+	List<Block> snapshot();
+
+	@Override
+	default void close() {
+	}
+}
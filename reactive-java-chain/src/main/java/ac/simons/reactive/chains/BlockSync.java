@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Pulls the blocks of other nodes into a chain, so that all nodes end up with the valid chain containing the most work.
+ * <p>
+ * The latest block both chains share is searched backwards from the latest block both chains could share, first on
+ * its own, then a batch at a time. Only if the node has blocks after it, which may be fewer but harder than the
+ * blocks of this chain, they are requested in batches, some of them in parallel, and handed to
+ * {@link Chain#switchTo(List)} in order, which validates them and switches to them if they contain more work than
+ * the blocks they replace. Blocks of nodes that don't send hashes, like the Kotlin
+ * node, are hashed on arrival.
+ */
+final class BlockSync {
+
+	private static final Logger LOGGER = Logger.getLogger(BlockSync.class.getName());
+
+	private final Chain chain;
+
+	private final NodeRegistry nodeRegistry;
+
+	private final int batchSize;
+
+	private final int concurrency;
+
+	private final AtomicBoolean syncing = new AtomicBoolean();
+
+	private final Counter switches;
+
+	/**
+	 * @param chain        The chain to sync
+	 * @param nodeRegistry The nodes to sync with
+	 * @param batchSize    The number of blocks requested at once
+	 * @param concurrency  The number of batches requested in parallel
+	 */
+	BlockSync(final Chain chain, final NodeRegistry nodeRegistry, final int batchSize, final int concurrency,
+			final MeterRegistry meterRegistry) {
+		if (batchSize < 1 || concurrency < 1) {
+			throw new IllegalArgumentException("Syncing requires a batch size and a concurrency of at least 1.");
+		}
+		this.chain = chain;
+		this.nodeRegistry = nodeRegistry;
+		this.batchSize = batchSize;
+		this.concurrency = concurrency;
+		this.switches = meterRegistry.counter("chain.sync.switches");
+	}
+
+	/**
+	 * Syncs with all registered nodes, one after another, unless a sync is running already. Nodes that can't be
+	 * synced with are skipped and unregistered.
+	 *
+	 * @return Whether the chain has switched to the blocks of any node
+	 */
+	Mono<Boolean> syncAll() {
+		return Mono.defer(() -> {
+			if (!syncing.compareAndSet(false, true)) {
+				return Mono.just(false);
+			}
+			return Flux.fromIterable(nodeRegistry.getNodes())
+					.concatMap(node -> sync(node).onErrorResume(e -> {
+						// Like the Kotlin node, forget nodes that fail, configured peers are registered again once
+						// they are back
+						LOGGER.log(Level.WARNING, e, () -> "Could not sync with " + node + ", unregistering it.");
+						nodeRegistry.unregister(node);
+						return Mono.just(false);
+					}))
+					.reduce(false, Boolean::logicalOr)
+					.doFinally(signal -> syncing.set(false));
+		});
+	}
+
+	/**
+	 * @param node A registered node
+	 * @return Whether the chain has switched to the blocks of the given node
+	 */
+	Mono<Boolean> sync(final Node node) {
+		final NodeClient client = nodeRegistry.getClient(node).forSync();
+		return client.getStatus().flatMap(status -> {
+			final int genesisIndex = chain.getGenesisIndex();
+			final int lastIndex = genesisIndex + status.getCurrentBlockHeight() - 1;
+			if (lastIndex < genesisIndex) {
+				return Mono.just(false);
+			}
+			return findLatestCommonBlock(client, Math.min(lastIndex, genesisIndex + chain.getLength() - 1), 1)
+					.filter(common -> common < lastIndex)
+					.flatMapMany(common -> getBlocks(client, common + 1, lastIndex))
+					.collectList()
+					.flatMap(chain::switchTo)
+					.doOnNext(switched -> {
+						if (switched) {
+							switches.increment();
+							LOGGER.info(() -> "Switched to the chain of " + node + " with " + chain.getLength() + " blocks.");
+						}
+					});
+		});
+	}
+
+	/**
+	 * @return The index of the latest block the node shares with the chain, searching from {@code toIndex} back
+	 */
+	private Mono<Integer> findLatestCommonBlock(final NodeClient client, final int toIndex, final int count) {
+		final int genesisIndex = chain.getGenesisIndex();
+		final int fromIndex = Math.max(genesisIndex, toIndex - count + 1);
+		return client.getBlocks(fromIndex, toIndex).map(this::withHash).collectList().flatMap(theirs -> {
+			for (int i = theirs.size() - 1; i >= 0; --i) {
+				final Block block = theirs.get(i);
+				if (chain.getBlockAt(block.getIndex()).filter(ours -> ours.getHash().equals(block.getHash())).isPresent()) {
+					return Mono.just(block.getIndex());
+				}
+			}
+			if (fromIndex == genesisIndex) {
+				return Mono.error(new IllegalStateException("The node doesn't share the genesis block."));
+			}
+			return findLatestCommonBlock(client, fromIndex - 1, batchSize);
+		});
+	}
+
+	/**
+	 * @return The blocks in the given range, requested in batches that are merged in order
+	 */
+	private Flux<Block> getBlocks(final NodeClient client, final int fromIndex, final int toIndex) {
+		final int batches = (toIndex - fromIndex) / batchSize + 1;
+		return Flux.range(0, batches)
+				.flatMapSequential(batch -> {
+					final int from = fromIndex + batch * batchSize;
+					return client.getBlocks(from, Math.min(toIndex, from + batchSize - 1));
+				}, concurrency)
+				.map(this::withHash);
+	}
+
+	private Block withHash(final Block block) {
+		return block.getHash() == null ? block.withHash(chain.hash(block)) : block;
+	}
+}
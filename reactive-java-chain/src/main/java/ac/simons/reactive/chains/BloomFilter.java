@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings that can be read and written without locking. It never forgets a string it has been told
+ * about, but may claim to know strings it hasn't seen.
+ */
+final class BloomFilter {
+
+	private final AtomicLongArray bits;
+
+	private final long numberOfBits;
+
+	private final int numberOfHashes;
+
+	/**
+	 * @param expectedInsertions      The number of strings after which the filter should still meet the given false
+	 *                                positive probability
+	 * @param falsePositiveProbability The probability of claiming to know a string that hasn't been added
+	 */
+	BloomFilter(final long expectedInsertions, final double falsePositiveProbability) {
+		if (expectedInsertions < 1 || falsePositiveProbability <= 0.0 || falsePositiveProbability >= 1.0) {
+			throw new IllegalArgumentException("Invalid dimensions of a Bloom filter.");
+		}
+		final double ln2 = Math.log(2);
+		final long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (ln2 * ln2));
+		final int words = (int) Math.min(Integer.MAX_VALUE - 8, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+		this.bits = new AtomicLongArray(words);
+		this.numberOfBits = (long) words * Long.SIZE;
+		this.numberOfHashes = Math.max(1, (int) Math.round((double) numberOfBits / expectedInsertions * ln2));
+	}
+
+	void add(final String value) {
+		final long hash1 = hash(value);
+		final long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < numberOfHashes; ++i) {
+			final long bit = Math.floorMod(hash1 + i * hash2, numberOfBits);
+			final int word = (int) (bit >>> 6);
+			final long mask = 1L << bit;
+			long current;
+			while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+				// Someone else set another bit of this word
+			}
+		}
+	}
+
+	/**
+	 * @param value The value to check
+	 * @return False if the value has definitely not been added, true if it might have been added
+	 */
+	boolean mightContain(final String value) {
+		final long hash1 = hash(value);
+		final long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+		for (int i = 0; i < numberOfHashes; ++i) {
+			final long bit = Math.floorMod(hash1 + i * hash2, numberOfBits);
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int getNumberOfHashes() {
+		return numberOfHashes;
+	}
+
+	/**
+	 * 64 bit FNV-1a over the characters of the value, followed by a finalizer spreading all of them.
+	 */
+	static long hash(final String value) {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < value.length(); ++i) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+		}
+		return mix(hash);
+	}
+
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+		value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return value ^ (value >>> 33);
+	}
+}
@@ -15,34 +15,40 @@
  */
 package ac.simons.reactive.chains;
 
-import static java.util.stream.Collectors.toList;
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Stream;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 public class Chain {
 
@@ -52,15 +58,9 @@ public class Chain {
 	static Supplier<Block> DEFAULT_GENESIS_BLOCK = () -> new Block(1, 0, 1917336, List.of(new Transaction("b3c973e2-db05-4eb5-9668-3e81c7389a6d", 0, "I am Heribert Innoq")), "0");
 
 	/**
-	 * Digester wrapping a MessageDigest, which is not thread safe.
+	 * Name of the timers of the phases of starting a chain.
 	 */
-	private static final Function<byte[], byte[]> DIGEST = bytes -> {
-		try {
-			return MessageDigest.getInstance("SHA-256").digest(bytes);
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		}
-	};
+	static final String STARTUP_TIMER = "chain.startup";
 
 	/**
 	 * Creates a base64 string from a byte array.
@@ -68,108 +68,1133 @@ public class Chain {
 	private static final Function<byte[], String> ENCODE = HashUtils.ENCODE_WITH_GUAVA_ALGORITHM;
 
 	/**
-	 * A function to generate JSON from a block.
+	 * The encoding of blocks used for hashing.
+	 */
+	private final BlockEncoding blockEncoding;
+
+	/**
+	 * Digests encoded blocks.
+	 */
+	private final DigestProvider digestProvider;
+
+	/**
+	 * The difficulty of blocks that don't carry one, that is the genesis block and the first blocks mined.
+	 */
+	private final Difficulty initialDifficulty;
+
+	/**
+	 * Chooses the difficulty of new blocks.
 	 */
-	private final Function<Block, byte[]> blockToJson;
+	private final DifficultyAdjustment difficultyAdjustment;
+
+	/**
+	 * The difficulty of the block being mined or, if there is none, of the next block.
+	 */
+	private volatile Difficulty difficulty;
+
+	/**
+	 * Searches the proofs of new blocks.
+	 */
+	private final Miner miner;
 
 	/**
 	 * Can be injected to compute blocks in different timezones.
 	 */
 	private final Clock clock = Clock.systemUTC();
 
-	private final Queue<Mono<Block>> pendingBlocks = new ConcurrentLinkedQueue<>();
+	/**
+	 * Number of pending blocks whose templates are prepared ahead, including the one being mined.
+	 */
+	private final int miningPipelineDepth;
+
+	/**
+	 * Blocks scheduled for mining in order of their index, the head is being mined. Guarded by itself.
+	 */
+	private final Deque<FutureBlock> pendingBlocks = new ArrayDeque<>();
 
 	/**
-	 * The actual chain.
+	 * The search for the proof of the head of {@link #pendingBlocks}, guarded by it.
 	 */
-	private final List<Block> blocks = Collections.synchronizedList(new ArrayList<>());
+	private Disposable mining;
+
+	/**
+	 * The index of the next block to be scheduled. Guarded by {@link #pendingBlocks}.
+	 */
+	private int nextIndex;
+
+	/**
+	 * The index of the first block.
+	 */
+	private final int genesisIndex;
+
+	/**
+	 * The actual chain. Appended to and truncated only while holding the lock on {@link #pendingBlocks} or during
+	 * construction.
+	 */
+	private final BlockStore blocks;
+
+	/**
+	 * The positions of the blocks of the chain by their hash, as far as they are not covered by {@link #snapshot}.
+	 */
+	private final Map<String, Integer> blocksByHash = new ConcurrentHashMap<>();
+
+	/**
+	 * The pending transactions.
+	 */
+	private final Mempool pendingTransactions;
+
+	/**
+	 * The maximum number of transactions in a new block.
+	 */
+	private final int blockMaxTransactions;
+
+	/**
+	 * The maximum number of UTF-8 bytes of all payloads in a new block.
+	 */
+	private final long blockMaxPayloadBytes;
+
+	private final TransactionIdGenerator transactionIdGenerator;
 
 	/**
-	 * A queue with pending transactions.
+	 * The directory snapshots of the chain are written to, null if there are none.
 	 */
-	private final Queue<Transaction> pendingTransactions =
-		new PriorityBlockingQueue<>(64, Comparator.comparingLong(Transaction::getTimestamp));
+	private final Path snapshotDirectory;
+
+	/**
+	 * Number of blocks after which a new snapshot is written.
+	 */
+	private final int snapshotEveryBlocks;
+
+	/**
+	 * The snapshot the chain has been started from, may be null. The indexes of the blocks it covers are looked up
+	 * in the snapshot.
+	 */
+	private final ChainSnapshot snapshot;
+
+	/**
+	 * Writes snapshots one at a time, in the background.
+	 */
+	private final ExecutorService snapshotWriter;
+
+	private final AtomicBoolean writingSnapshot = new AtomicBoolean();
+
+	/**
+	 * Checks the hashes and proofs of all blocks.
+	 */
+	private final ChainValidator validator;
+
+	/**
+	 * Makes queued transactions durable, null if they are kept in memory only.
+	 */
+	private final TransactionLog transactionLog;
+
+	/**
+	 * Transactions queued recently under idempotency keys.
+	 */
+	private final IdempotencyKeys idempotencyKeys;
+
+	/**
+	 * The positions of the blocks of all confirmed transactions by the id of the transaction, as far as they are not
+	 * covered by {@link #snapshot}.
+	 */
+	private final Map<String, Integer> blocksByTransactionId = new ConcurrentHashMap<>();
+
+	private final List<Consumer<Block>> blockListeners = new CopyOnWriteArrayList<>();
+
+	private final List<Consumer<Transaction>> transactionListeners = new CopyOnWriteArrayList<>();
 
 	/**
 	 * A meter timing the computation of hashes.
 	 */
-	private final Timer hashTimer = Metrics.timer("chain.hashes");
+	private final Timer hashTimer;
+
+	/**
+	 * A meter timing writing snapshots.
+	 */
+	private final Timer snapshotTimer;
 
 	public static Chain defaultChain() {
-		final ObjectMapper objectMapper = new ObjectMapper();
-		return new Chain(DEFAULT_GENESIS_BLOCK.get(), block -> {
-			try {
-				return objectMapper.writeValueAsBytes(block);
-			} catch (JsonProcessingException e) {
-				throw new RuntimeException(e);
+		return builder().build();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	private Chain(Block genesisBlock, final BlockEncoding blockEncoding, final DigestProvider digestProvider,
+			final Difficulty initialDifficulty, final DifficultyAdjustment difficultyAdjustment, final Miner miner,
+			final int miningPipelineDepth, final Mempool pendingTransactions, final int blockMaxTransactions,
+			final long blockMaxPayloadBytes, final TransactionIdGenerator transactionIdGenerator,
+			final long maxIdempotencyKeys, final Duration idempotencyWindow, final BlockStore blocks,
+			final TransactionLog transactionLog, final Path snapshotDirectory, final int snapshotEveryBlocks,
+			final int validationParallelism, final MeterRegistry meterRegistry) {
+		this.hashTimer = meterRegistry.timer("chain.hashes");
+		this.snapshotTimer = meterRegistry.timer("chain.snapshots");
+		this.blockEncoding = blockEncoding;
+		this.digestProvider = digestProvider;
+		this.initialDifficulty = initialDifficulty;
+		this.difficultyAdjustment = difficultyAdjustment;
+		this.difficulty = initialDifficulty;
+		this.miner = miner;
+		this.miningPipelineDepth = miningPipelineDepth;
+		this.pendingTransactions = pendingTransactions;
+		this.blockMaxTransactions = blockMaxTransactions;
+		this.blockMaxPayloadBytes = blockMaxPayloadBytes;
+		this.transactionIdGenerator = transactionIdGenerator;
+		this.genesisIndex = genesisBlock.getIndex();
+		this.idempotencyKeys = new IdempotencyKeys(maxIdempotencyKeys, idempotencyWindow, clock);
+		// A retry after the transaction has been evicted queues it again
+		pendingTransactions.onEvicted(idempotencyKeys::remove);
+		this.blocks = blocks;
+		// A fixed difficulty never drops below the configured one
+		final Difficulty minimumDifficulty = difficultyAdjustment.getWindow() == 0 ? initialDifficulty : difficultyAdjustment.getMinimum();
+		this.validator = new ChainValidator(this::digest, ENCODE, initialDifficulty, difficultyAdjustment, minimumDifficulty,
+				validationParallelism);
+		final String genesisHash = hash(genesisBlock);
+		this.snapshotDirectory = snapshotDirectory;
+		this.snapshotEveryBlocks = snapshotEveryBlocks;
+		if (blocks.size() == 0) {
+			this.snapshot = null;
+			this.append(genesisBlock.withHash(genesisHash));
+		} else {
+			if (!blocks.get(0).getHash().equals(genesisHash)) {
+				throw new IllegalStateException("The stored chain doesn't start with the genesis block of this chain.");
 			}
+			this.snapshot = snapshotDirectory == null ? null : meterRegistry.timer(STARTUP_TIMER, "phase", "load-snapshot")
+					.record(() -> ChainSnapshot.latest(snapshotDirectory, blocks));
+			// Only the blocks after the snapshot have to be read
+			meterRegistry.timer(STARTUP_TIMER, "phase", "index-blocks").record(() -> {
+				for (int position = snapshot == null ? 0 : snapshot.getPosition(); position < blocks.size(); ++position) {
+					index(blocks.get(position), position);
+				}
+			});
+			this.difficulty = nextDifficulty();
+		}
+		this.nextIndex = genesisIndex + blocks.size();
+		this.transactionLog = transactionLog;
+		meterRegistry.timer(STARTUP_TIMER, "phase", "recover-transactions").record(this::recoverTransactions);
+		this.snapshotWriter = snapshotDirectory == null ? null : Executors.newSingleThreadExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "chain-snapshot");
+			thread.setDaemon(true);
+			return thread;
 		});
 	}
 
-	private Chain(Block genesisBlock, final Function<Block, byte[]> blockToJson) {
-		this.blocks.add(genesisBlock);
-		this.blockToJson = blockToJson;
+	/**
+	 * @return The difficulty of the block being mined or, if there is none, of the next block
+	 */
+	public Difficulty getDifficulty() {
+		return difficulty;
+	}
+
+	public DifficultyAdjustment getDifficultyAdjustment() {
+		return difficultyAdjustment;
 	}
 
 	public int getLength() {
 		return this.blocks.size();
 	}
 
+	/**
+	 * @return The index of the first block
+	 */
+	int getGenesisIndex() {
+		return genesisIndex;
+	}
+
 	public int getNumberOfPendingTransactions() {
 		return this.pendingTransactions.size();
 	}
 
+	/**
+	 * @return The number of UTF-8 bytes of the payloads of all pending transactions
+	 */
+	public long getPendingPayloadBytes() {
+		return this.pendingTransactions.getPayloadBytes();
+	}
+
 	public Mono<Transaction> queue(final String payload) {
-		return Mono.fromSupplier(() -> {
-			var pendingTransaction = new Transaction(UUID.randomUUID().toString(), clock.millis(), payload);
-			pendingTransactions.add(pendingTransaction);
-			return pendingTransaction;
+		return queue(payload, 0);
+	}
+
+	/**
+	 * Queues a new transaction. The returned {@link Mono} fails with a {@link MempoolFullException} if there's no
+	 * room for it.
+	 *
+	 * @param payload The payload of the new transaction
+	 * @param fee     The fee offered for the new transaction
+	 * @return The queued transaction
+	 */
+	public Mono<Transaction> queue(final String payload, final long fee) {
+		return queue(payload, fee, null);
+	}
+
+	/**
+	 * Queues a new transaction at most once per idempotency key. As long as the key is remembered, queuing again
+	 * under the same key returns the original transaction, whether it is still pending or already confirmed.
+	 * The returned {@link Mono} fails with a {@link MempoolFullException} if there's no room for a new transaction
+	 * and with an {@link IllegalArgumentException} if the key has been used for another payload.
+	 * With a transaction log, a new transaction is returned once it has been written to disk. If writing fails, the
+	 * returned {@link Mono} fails, but the transaction stays pending and may still be confirmed: a retry without
+	 * idempotency key may queue the payload twice, so delivery is at least once.
+	 *
+	 * @param payload        The payload of the new transaction
+	 * @param fee            The fee offered for the new transaction
+	 * @param idempotencyKey A key chosen by the client, may be null
+	 * @return The queued transaction
+	 */
+	public Mono<Transaction> queue(final String payload, final long fee, final String idempotencyKey) {
+		return Mono.defer(() -> {
+			if (idempotencyKey != null) {
+				final Transaction knownTransaction = idempotencyKeys.get(idempotencyKey);
+				if (knownTransaction != null) {
+					return Mono.just(replay(knownTransaction, payload));
+				}
+			}
+			var pendingTransaction = new Transaction(transactionIdGenerator.nextId(), clock.millis(), payload, fee);
+			if (idempotencyKey != null) {
+				final Transaction knownTransaction = idempotencyKeys.putIfAbsent(idempotencyKey, pendingTransaction);
+				if (knownTransaction != null) {
+					return Mono.just(replay(knownTransaction, payload));
+				}
+			}
+			if (!pendingTransactions.offer(pendingTransaction)) {
+				if (idempotencyKey != null) {
+					idempotencyKeys.remove(idempotencyKey, pendingTransaction);
+				}
+				throw new MempoolFullException(1);
+			}
+			return log(List.of(pendingTransaction)).thenReturn(pendingTransaction);
+		});
+	}
+
+	private static Transaction replay(final Transaction knownTransaction, final String payload) {
+		if (!Objects.equals(knownTransaction.getPayload(), payload)) {
+			throw new IllegalArgumentException("Idempotency key has already been used for another payload.");
+		}
+		return knownTransaction;
+	}
+
+	/**
+	 * Queues a batch of transactions at once. All transactions of the batch share the same timestamp. Either all
+	 * of them are queued or the returned {@link Mono} fails with a {@link MempoolFullException}.
+	 *
+	 * @param payloads The payloads of the new transactions
+	 * @param fee      The fee offered for each of the new transactions
+	 * @return The queued transactions in order of their payloads
+	 */
+	public Mono<List<Transaction>> queueAll(final List<String> payloads, final long fee) {
+		return Mono.defer(() -> {
+			final long timestamp = clock.millis();
+			final List<Transaction> batch = new ArrayList<>(payloads.size());
+			for (String payload : payloads) {
+				batch.add(new Transaction(transactionIdGenerator.nextId(), timestamp, payload, fee));
+			}
+			if (!pendingTransactions.offerAll(batch)) {
+				throw new MempoolFullException(batch.size());
+			}
+			return log(batch).thenReturn(batch);
 		});
 	}
 
+	/**
+	 * Writes queued transactions to the transaction log, if any, and notifies the listeners once they are durable.
+	 * The transactions are already pending, so they may be confirmed even if logging them fails.
+	 */
+	private Mono<Void> log(final List<Transaction> transactions) {
+		final Mono<Void> logged = transactionLog == null ? Mono.empty() : transactionLog.append(transactions);
+		return logged.doOnSuccess(ignored -> {
+			for (Transaction transaction : transactions) {
+				transactionListeners.forEach(listener -> listener.accept(transaction));
+			}
+		});
+	}
+
+	/**
+	 * Queues the pending transactions of the snapshot and of the transaction log that are not part of the stored
+	 * blocks yet and compacts the log to them. Transactions that don't fit into the mempool anymore are dropped, as
+	 * if they had been rejected.
+	 */
+	private void recoverTransactions() {
+		final Map<String, Transaction> candidates = new LinkedHashMap<>();
+		if (snapshot != null) {
+			snapshot.getPendingTransactions().forEach(transaction -> candidates.putIfAbsent(transaction.getId(), transaction));
+		}
+		if (transactionLog != null) {
+			transactionLog.getRecoveredTransactions().forEach(transaction -> candidates.putIfAbsent(transaction.getId(), transaction));
+		}
+		final List<Transaction> recovered = new ArrayList<>();
+		for (Transaction transaction : candidates.values()) {
+			if (positionOfTransaction(transaction.getId()) < 0 && pendingTransactions.offer(transaction)) {
+				recovered.add(transaction);
+			}
+		}
+		if (transactionLog != null) {
+			transactionLog.compact(recovered);
+		}
+	}
+
+	public int getNumberOfPendingBlocks() {
+		synchronized (pendingBlocks) {
+			return this.pendingBlocks.size();
+		}
+	}
+
+	/**
+	 * @param listener Called with every new block in order after it has been appended, on the thread that found it.
+	 *                 Must not block.
+	 */
+	public void onNewBlock(final Consumer<Block> listener) {
+		blockListeners.add(Objects.requireNonNull(listener, "Listener is required."));
+	}
+
+	/**
+	 * @param listener Called with every new transaction after it has been queued, on the thread that queued it
+	 */
+	public void onNewTransaction(final Consumer<Transaction> listener) {
+		transactionListeners.add(Objects.requireNonNull(listener, "Listener is required."));
+	}
+
 	public Mono<Block> mine() {
-		final Function<Block, Block> toTemplate = previousBlock ->
-				new Block(previousBlock.getIndex() + 1, clock.millis(), -1, selectTransactions(5), hash(previousBlock));
+		return scheduleBlock().getBlock();
+	}
+
+	/**
+	 * Schedules a new block. Blocks are mined one after another, but the templates of the next blocks are prepared
+	 * while their parents are mined, so that mining continues right after a parent has been found.
+	 *
+	 * @return A handle to the scheduled block
+	 */
+	public FutureBlock scheduleBlock() {
+		synchronized (pendingBlocks) {
+			final FutureBlock futureBlock = new FutureBlock(nextIndex++);
+			pendingBlocks.add(futureBlock);
+			prepareTemplates();
+			if (pendingBlocks.size() == 1) {
+				startMining(futureBlock, blocks.last().getHash());
+			}
+			return futureBlock;
+		}
+	}
+
+	/**
+	 * Selects the transactions and encodes the templates of all pending blocks inside the pipeline.
+	 * Must be called while holding the lock on {@link #pendingBlocks}.
+	 */
+	private void prepareTemplates() {
+		final Iterator<FutureBlock> it = pendingBlocks.iterator();
+		for (int i = 0; i < miningPipelineDepth && it.hasNext(); ++i) {
+			final FutureBlock futureBlock = it.next();
+			if (!futureBlock.isPrepared()) {
+				// Timestamp and difficulty are stamped once the parent has been found
+				final Block template = new Block(futureBlock.getIndex(), clock.millis(), -1, selectTransactions(blockMaxTransactions), null,
+						difficulty.getLeadingZeroBits());
+				futureBlock.prepare(NonceSearch.prepare(template, blockEncoding, digestProvider));
+			}
+		}
+	}
+
+	/**
+	 * Starts mining a block on top of the latest block of the chain, stamped with the current time and the
+	 * difficulty following the accepted blocks. Must be called while holding the lock on {@link #pendingBlocks}.
+	 */
+	private void startMining(final FutureBlock futureBlock, final String previousBlockHash) {
+		this.difficulty = nextDifficulty();
+		final NonceSearch nonceSearch = futureBlock.getTemplate()
+				.complete(clock.millis(), difficulty.getLeadingZeroBits(), previousBlockHash);
+		mining = miner.mine(nonceSearch, difficulty)
+				.subscribe(block -> onFound(futureBlock, block), e -> onFailed(futureBlock, e));
+	}
 
-		final Function<Block, Mono<Block>> toNextBlock = template -> Flux.fromStream(Stream.iterate(0L, i -> i + 1))
-				.parallel().runOn(Schedulers.parallel())
-				.map(proof -> template.newCandidateOf(proof))
-				.filter(newCandidate -> hash(newCandidate).startsWith("000000"))
-				.sequential()
-				.next();
+	/**
+	 * @return The difficulty of the block following the latest block of the chain, as {@link ChainValidator} expects it
+	 */
+	private Difficulty nextDifficulty() {
+		final List<Block> snapshot = blocks.snapshot();
+		return difficultyAdjustment.nextAt(snapshot, snapshot.size(), initialDifficulty);
+	}
 
-		final Supplier<Mono<Block>> latestBlock = () -> Mono.just(blocks.get(this.blocks.size() - 1));
+	private void onFound(final FutureBlock futureBlock, final Block block) {
+		synchronized (pendingBlocks) {
+			// Mined on top of blocks the chain has switched away from
+			if (pendingBlocks.peek() != futureBlock) {
+				return;
+			}
+			append(block);
+			// Still holding the lock, so that listeners see the blocks in order
+			blockListeners.forEach(listener -> listener.accept(block));
+			pendingBlocks.remove(futureBlock);
+			// The transactions of the block are not pending anymore
+			if (snapshotDirectory != null && blocks.size() % snapshotEveryBlocks == 0) {
+				writeSnapshot();
+			}
+			// Start right away on the thread that found the parent
+			final FutureBlock next = pendingBlocks.peek();
+			if (next != null) {
+				prepareTemplates();
+				startMining(next, block.getHash());
+			}
+		}
+		futureBlock.complete(block);
+	}
 
+	private void onFailed(final FutureBlock futureBlock, final Throwable e) {
+		final List<FutureBlock> failed;
 		synchronized (pendingBlocks) {
-			// Check first if there's a pending block, otherwise use the latest
-			var miner = Optional.ofNullable(pendingBlocks.poll()).orElseGet(latestBlock)
-					.map(toTemplate)
-					.flatMap(toNextBlock)
-					.doOnSuccess(blocks::add)
-					// This is paramount. The mono gets replayed on each subscription
-					.cache();
-			// Add it to the pending blocks in any case.
-			pendingBlocks.add(miner);
-			return miner;
+			if (pendingBlocks.peek() != futureBlock) {
+				return;
+			}
+			// Without this block, none of the following can be mined
+			failed = new ArrayList<>(pendingBlocks);
+			pendingBlocks.clear();
+			nextIndex = futureBlock.getIndex();
+			difficulty = nextDifficulty();
 		}
+		failed.forEach(f -> f.fail(e));
 	}
 
+	/**
+	 * @return A snapshot of all blocks of this chain
+	 */
 	public Mono<List<Block>> getBlocks() {
-		return Mono.just(Collections.unmodifiableList(this.blocks));
+		return Mono.fromSupplier(() -> getBlocks(genesisIndex, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * @param fromIndex The index of the first block
+	 * @param toIndex   The index of the last block, inclusive
+	 * @return The blocks in the given range that are part of the chain right now, in order, without copying them
+	 */
+	public List<Block> getBlocks(final int fromIndex, final int toIndex) {
+		final List<Block> snapshot = blocks.snapshot();
+		final int from = Math.max(0, fromIndex - genesisIndex);
+		final int to = (int) Math.min(snapshot.size(), (long) toIndex - genesisIndex + 1);
+		return from >= to ? List.of() : snapshot.subList(from, to);
+	}
+
+	/**
+	 * Streams a range of blocks without copying them. The range is cut at the latest block on subscription, so that
+	 * blocks appended while streaming are not part of it.
+	 *
+	 * @param fromIndex The index of the first block
+	 * @param toIndex   The index of the last block, inclusive
+	 * @return The blocks in the given range, in order
+	 */
+	public Flux<Block> streamBlocks(final int fromIndex, final int toIndex) {
+		return Flux.defer(() -> Flux.fromIterable(getBlocks(fromIndex, toIndex)));
+	}
+
+	/**
+	 * Validates all blocks of the chain in parallel: whether their hashes and the links between them are right and
+	 * whether their proofs meet their difficulty. The validation starts on subscription and stops on cancellation.
+	 * Blocks appended meanwhile are not validated.
+	 *
+	 * @param progressInterval Interval in which the progress is reported
+	 * @return The progress of the validation, ending with its result
+	 */
+	public Flux<ValidationProgress> validate(final Duration progressInterval) {
+		return Flux.defer(() -> {
+			final ChainValidator.Validation validation = validator.start(blocks.snapshot(), genesisIndex);
+			final Mono<ValidationProgress> result = Mono.fromFuture(validation.getResult());
+			return Flux.interval(progressInterval)
+					.map(tick -> validation.getProgress())
+					.takeUntilOther(result)
+					.concatWith(result)
+					.doOnCancel(validation::cancel);
+		});
+	}
+
+	/**
+	 * @param index The index of a block
+	 * @return The block of this chain with the given index
+	 */
+	public Optional<Block> getBlockAt(final int index) {
+		final List<Block> snapshot = blocks.snapshot();
+		final int position = index - genesisIndex;
+		return position < 0 || position >= snapshot.size() ? Optional.empty() : Optional.of(snapshot.get(position));
+	}
+
+	/**
+	 * @param hash The hash of a block
+	 * @return The block of this chain with the given hash
+	 */
+	public Optional<Block> getBlock(final String hash) {
+		// The block may have been removed by switching to another fork meanwhile
+		return getBlockAt(genesisIndex + positionOfBlock(hash)).filter(block -> block.getHash().equals(hash));
+	}
+
+	/**
+	 * @param transactionId The id of a transaction
+	 * @return The block of this chain containing the transaction with the given id
+	 */
+	public Optional<Block> getBlockOfTransaction(final String transactionId) {
+		return getBlockAt(genesisIndex + positionOfTransaction(transactionId))
+				.filter(block -> contains(block, transactionId));
+	}
+
+	private static boolean contains(final Block block, final String transactionId) {
+		return block.getTransactions().stream().anyMatch(transaction -> transaction.getId().equals(transactionId));
+	}
+
+	/**
+	 * Looks up a transaction by its id in the index of confirmed transactions, the mempool and the templates of the
+	 * pending blocks, without scanning the chain.
+	 *
+	 * @param transactionId The id of a transaction
+	 * @return The status of the transaction with the given id, empty if it is unknown
+	 */
+	public Optional<TransactionStatus> getTransactionStatus(final String transactionId) {
+		Optional<TransactionStatus> status = getConfirmedStatus(transactionId);
+		if (status.isPresent()) {
+			return status;
+		}
+		final Transaction pendingTransaction = pendingTransactions.get(transactionId);
+		if (pendingTransaction != null) {
+			return Optional.of(TransactionStatus.pending(pendingTransaction));
+		}
+		// Transactions move from the mempool to templates and from templates into the chain under this lock
+		synchronized (pendingBlocks) {
+			for (FutureBlock futureBlock : pendingBlocks) {
+				if (!futureBlock.isPrepared()) {
+					break;
+				}
+				for (Transaction transaction : futureBlock.getTemplate().getTemplate().getTransactions()) {
+					if (transaction.getId().equals(transactionId)) {
+						return Optional.of(TransactionStatus.pending(transaction));
+					}
+				}
+			}
+			return getConfirmedStatus(transactionId);
+		}
+	}
+
+	private Optional<TransactionStatus> getConfirmedStatus(final String transactionId) {
+		return getBlockOfTransaction(transactionId).flatMap(block -> block.getTransactions().stream()
+				.filter(transaction -> transaction.getId().equals(transactionId))
+				.findFirst()
+				.map(transaction -> TransactionStatus.confirmed(transaction, block)));
+	}
+
+	/**
+	 * Appends an accepted block that already carries its hash.
+	 *
+	 * @param block The new block
+	 */
+	private void append(final Block block) {
+		// Store first, so that the indexes never point to a missing block
+		this.blocks.append(block);
+		index(block, blocks.size() - 1);
+	}
+
+	/**
+	 * @return The position of the block with the given hash, -1 if there's none
+	 */
+	private int positionOfBlock(final String hash) {
+		final Integer position = blocksByHash.get(hash);
+		if (position != null || snapshot == null) {
+			return position == null ? -1 : position;
+		}
+		return snapshot.findBlock(hash, candidate -> getBlockAt(genesisIndex + candidate)
+				.filter(block -> block.getHash().equals(hash)).isPresent());
+	}
+
+	/**
+	 * @return The position of the block containing the transaction with the given id, -1 if there's none
+	 */
+	private int positionOfTransaction(final String transactionId) {
+		final Integer position = blocksByTransactionId.get(transactionId);
+		if (position != null || snapshot == null) {
+			return position == null ? -1 : position;
+		}
+		return snapshot.findTransaction(transactionId, candidate -> getBlockAt(genesisIndex + candidate)
+				.filter(block -> contains(block, transactionId)).isPresent());
+	}
+
+	private void index(final Block block, final int position) {
+		this.blocksByHash.put(block.getHash(), position);
+		for (Transaction transaction : block.getTransactions()) {
+			this.blocksByTransactionId.putIfAbsent(transaction.getId(), position);
+		}
+	}
+
+	private void unindex(final Block block, final int position) {
+		this.blocksByHash.remove(block.getHash(), position);
+		for (Transaction transaction : block.getTransactions()) {
+			this.blocksByTransactionId.remove(transaction.getId(), position);
+		}
+	}
+
+	/**
+	 * Switches to a fork of this chain if the fork is valid and contains more work than the blocks it replaces, as
+	 * computed by {@link DifficultyAdjustment#work(List, Difficulty)}. The blocks of the fork, including their
+	 * difficulties, are validated in parallel without holding up mining, and swapped in afterwards: the blocks after the latest common
+	 * block are removed and the blocks of the fork appended, while readers continue to read without locking. Blocks
+	 * being mined fail, as their parents are gone. The transactions of removed blocks and of failed blocks are
+	 * pending again, unless they are part of the fork.
+	 *
+	 * @param fork Blocks continuing a block of this chain, in order. Blocks this chain already has are skipped.
+	 * @return Whether the chain has switched to the fork, failing with an {@link IllegalArgumentException} if the
+	 * fork doesn't continue this chain or is invalid
+	 */
+	public Mono<Boolean> switchTo(final List<Block> fork) {
+		return Mono.defer(() -> {
+			if (fork.isEmpty()) {
+				return Mono.just(false);
+			}
+			final Block first = fork.get(0);
+			final String previousBlockHash = first.getPreviousBlockHash();
+			if (!getBlockAt(first.getIndex() - 1).filter(block -> block.getHash().equals(previousBlockHash)).isPresent()) {
+				return Mono.error(new IllegalArgumentException("Block " + first.getIndex() + " doesn't continue this chain."));
+			}
+			final int position = first.getIndex() - genesisIndex;
+			final List<Block> snapshot = blocks.snapshot();
+			if (!hasMoreWork(fork, snapshot.subList(position, snapshot.size()))) {
+				return Mono.just(false);
+			}
+			final ChainValidator.Validation validation = validator.start(fork, first.getIndex(), snapshot.subList(0, position));
+			return Mono.fromFuture(validation.getResult()).map(result -> {
+				if (result.getState() != ValidationProgress.State.VALID) {
+					throw new IllegalArgumentException("The fork is invalid at block " + result.getFirstInvalidIndex() + ": " + result.getReason());
+				}
+				return replaceBlocks(position, previousBlockHash, fork);
+			});
+		});
+	}
+
+	/**
+	 * Replaces the blocks from the given position on with a validated fork, if it still contains more work.
+	 */
+	private boolean replaceBlocks(final int position, final String previousBlockHash, final List<Block> fork) {
+		final List<FutureBlock> failed;
+		synchronized (pendingBlocks) {
+			// Blocks may have been found or other forks taken while the fork was validated
+			final List<Block> snapshot = blocks.snapshot();
+			final int size = snapshot.size();
+			if (position > size || !snapshot.get(position - 1).getHash().equals(previousBlockHash)
+					|| !hasMoreWork(fork, snapshot.subList(position, size))) {
+				return false;
+			}
+			int common = 0;
+			while (position + common < size && blocks.get(position + common).getHash().equals(fork.get(common).getHash())) {
+				++common;
+			}
+			final int forkPosition = position + common;
+			// Stored blocks can't be read anymore once they have been removed
+			final List<Block> removed = new ArrayList<>(snapshot.subList(forkPosition, size));
+
+			if (mining != null) {
+				mining.dispose();
+			}
+			failed = new ArrayList<>(pendingBlocks);
+			pendingBlocks.clear();
+			for (int i = 0; i < removed.size(); ++i) {
+				unindex(removed.get(i), forkPosition + i);
+			}
+			blocks.truncate(forkPosition);
+			for (Block block : fork.subList(common, fork.size())) {
+				append(block);
+				blockListeners.forEach(listener -> listener.accept(block));
+			}
+			nextIndex = genesisIndex + blocks.size();
+			difficulty = nextDifficulty();
+
+			final List<Transaction> orphaned = new ArrayList<>();
+			removed.forEach(block -> orphaned.addAll(block.getTransactions()));
+			for (FutureBlock futureBlock : failed) {
+				if (futureBlock.isPrepared()) {
+					orphaned.addAll(futureBlock.getTemplate().getTemplate().getTransactions());
+				}
+			}
+			for (Transaction transaction : orphaned) {
+				if (positionOfTransaction(transaction.getId()) < 0) {
+					pendingTransactions.offer(transaction);
+				}
+			}
+			if (snapshotDirectory != null && blocks.size() / snapshotEveryBlocks > size / snapshotEveryBlocks) {
+				writeSnapshot();
+			}
+		}
+		final IllegalStateException e = new IllegalStateException("The chain has switched to another fork.");
+		failed.forEach(f -> f.fail(e));
+		return true;
+	}
+
+	private boolean hasMoreWork(final List<Block> fork, final List<Block> replaced) {
+		return DifficultyAdjustment.work(fork, initialDifficulty) > DifficultyAdjustment.work(replaced, initialDifficulty);
+	}
+
+	/**
+	 * Stops mining and appending blocks and releases the storage of this chain. Blocks mined and transactions queued
+	 * afterwards are not stored.
+	 */
+	public void close() {
+		synchronized (pendingBlocks) {
+			if (mining != null) {
+				mining.dispose();
+			}
+			miner.shutdown();
+		}
+		if (transactionLog != null) {
+			transactionLog.close();
+		}
+		if (snapshotWriter != null) {
+			snapshotWriter.shutdown();
+			try {
+				snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (pendingBlocks) {
+			if (snapshotDirectory != null && blocks.size() > (snapshot == null ? 0 : snapshot.getPosition())) {
+				// So that the next start doesn't have to read any block
+				takeSnapshot().run();
+			}
+			blocks.close();
+		}
 	}
 
+	/**
+	 * Captures the state of the chain for a new snapshot. Must be called while holding the lock on
+	 * {@link #pendingBlocks}.
+	 *
+	 * @return Writes the snapshot and compacts the transaction log to the transactions pending at the snapshot
+	 */
+	private Runnable takeSnapshot() {
+		// Transactions are pending before they are logged, so every record in front of the mark is captured below
+		final long logMark = transactionLog == null ? 0 : transactionLog.getMark();
+		final int position = blocks.size();
+		final String tipHash = blocks.last().getHash();
+		final List<Transaction> pending = pendingTransactions.getTransactions();
+		// Transactions of blocks being mined are neither in the mempool nor in the chain
+		for (FutureBlock futureBlock : pendingBlocks) {
+			if (futureBlock.isPrepared()) {
+				pending.addAll(futureBlock.getTemplate().getTemplate().getTransactions());
+			}
+		}
+		return () -> {
+			snapshotTimer.record(() -> ChainSnapshot.write(snapshotDirectory, position, tipHash, pending,
+					snapshot, blocksByHash, blocksByTransactionId));
+			if (transactionLog != null) {
+				transactionLog.compact(pending, logMark);
+			}
+		};
+	}
+
+	/**
+	 * Writes a snapshot in the background, unless one is being written already. Must be called while holding the
+	 * lock on {@link #pendingBlocks}.
+	 */
+	private void writeSnapshot() {
+		if (!writingSnapshot.compareAndSet(false, true)) {
+			return;
+		}
+		final Runnable write = takeSnapshot();
+		try {
+			snapshotWriter.execute(() -> {
+				try {
+					write.run();
+				} finally {
+					writingSnapshot.set(false);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Closing
+			writingSnapshot.set(false);
+		}
+	}
+
+	/**
+	 * Takes out the pending transactions with the highest priority fitting into a block.
+	 *
+	 * @param maxNumberOfTransactions The maximum number of transactions to select
+	 * @return The selected transactions, highest priority first
+	 */
 	List<Transaction> selectTransactions(final int maxNumberOfTransactions) {
-		return Stream.iterate(1, i -> i + 1)
-				.limit(maxNumberOfTransactions)
-				.map(i -> pendingTransactions.poll())
-				.takeWhile(t -> t != null).collect(toList());
+		final List<Transaction> selected = pendingTransactions.poll(maxNumberOfTransactions, blockMaxPayloadBytes);
+		// Never confirm a transaction twice
+		selected.removeIf(transaction -> positionOfTransaction(transaction.getId()) >= 0);
+		return selected;
 	}
 
 	String hash(final Block block) {
-		return hashTimer.record(() ->
-				blockToJson
-						.andThen(DIGEST)
-						.andThen(ENCODE)
-						.apply(block));
+		return hashTimer.record(() -> ENCODE.apply(digest(block)));
+	}
+
+	/**
+	 * @param block The block to digest
+	 * @return The raw hash of the given block
+	 */
+	byte[] digest(final Block block) {
+		return digestProvider.digest(blockEncoding.encode(block));
+	}
+
+	public static final class Builder {
+		private BlockEncoding blockEncoding = BlockEncoding.json();
+
+		private DigestProvider digestProvider = DigestProvider.threadLocal(null);
+
+		private Difficulty difficulty = Difficulty.DEFAULT;
+
+		private DifficultyAdjustment difficultyAdjustment = DifficultyAdjustment.fixed();
+
+		private int numberOfMiningThreads = Runtime.getRuntime().availableProcessors();
+
+		private int miningPipelineDepth = 2;
+
+		private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+		private long maxPendingTransactions = Long.MAX_VALUE;
+
+		private long maxPendingPayloadBytes = Long.MAX_VALUE;
+
+		private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+
+		private double feeAgingPerSecond = 0.0;
+
+		private int blockMaxTransactions = 5;
+
+		private long blockMaxPayloadBytes = Long.MAX_VALUE;
+
+		private TransactionIdGenerator transactionIdGenerator;
+
+		private long maxIdempotencyKeys = 100_000;
+
+		private Duration idempotencyWindow = Duration.ofMinutes(10);
+
+		private Supplier<BlockStore> blockStore = BlockLog::new;
+
+		private Function<MeterRegistry, TransactionLog> transactionLog = registry -> null;
+
+		private Path snapshotDirectory;
+
+		private int snapshotEveryBlocks;
+
+		private int validationParallelism = Runtime.getRuntime().availableProcessors();
+
+		private Builder() {
+		}
+
+		/**
+		 * Selects the encoding of blocks for hashing. Note that the genesis block has only been mined for
+		 * {@link BlockEncoding#json()}, other encodings still accept it as it is.
+		 *
+		 * @param blockEncoding The new encoding
+		 * @return This builder
+		 */
+		public Builder withBlockEncoding(final BlockEncoding blockEncoding) {
+			this.blockEncoding = Objects.requireNonNull(blockEncoding, "Block encoding is required.");
+			return this;
+		}
+
+		public Builder withDigestProvider(final DigestProvider digestProvider) {
+			this.digestProvider = Objects.requireNonNull(digestProvider, "Digest provider is required.");
+			return this;
+		}
+
+		public Builder withDifficulty(final Difficulty difficulty) {
+			this.difficulty = Objects.requireNonNull(difficulty, "Difficulty is required.");
+			return this;
+		}
+
+		/**
+		 * @param difficultyAdjustment Chooses the difficulty of new blocks, starting with {@link #withDifficulty(Difficulty)}
+		 * @return This builder
+		 */
+		public Builder withDifficultyAdjustment(final DifficultyAdjustment difficultyAdjustment) {
+			this.difficultyAdjustment = Objects.requireNonNull(difficultyAdjustment, "Difficulty adjustment is required.");
+			return this;
+		}
+
+		public Builder withNumberOfMiningThreads(final int numberOfMiningThreads) {
+			this.numberOfMiningThreads = numberOfMiningThreads;
+			return this;
+		}
+
+		/**
+		 * @param meterRegistry The registry the meters of the chain and its parts are registered with, defaults to the
+		 *                      global registry
+		 * @return This builder
+		 */
+		public Builder withMeterRegistry(final MeterRegistry meterRegistry) {
+			this.meterRegistry = Objects.requireNonNull(meterRegistry, "Meter registry is required.");
+			return this;
+		}
+
+		/**
+		 * @param miningPipelineDepth Number of pending blocks whose templates are prepared ahead, including the one
+		 *                            being mined
+		 * @return This builder
+		 */
+		public Builder withMiningPipelineDepth(final int miningPipelineDepth) {
+			if (miningPipelineDepth < 1) {
+				throw new IllegalArgumentException("The depth of the mining pipeline must be at least 1.");
+			}
+			this.miningPipelineDepth = miningPipelineDepth;
+			return this;
+		}
+
+		/**
+		 * Bounds the pending transactions, which are unbounded by default.
+		 *
+		 * @param maxTransactions The maximum number of pending transactions
+		 * @param maxPayloadBytes The maximum number of UTF-8 bytes of all pending payloads
+		 * @param overflowPolicy  What happens to new transactions when the pending transactions are at capacity
+		 * @return This builder
+		 */
+		public Builder withMempoolCapacity(final long maxTransactions, final long maxPayloadBytes,
+				final OverflowPolicy overflowPolicy) {
+			if (maxTransactions < 1 || maxPayloadBytes < 0) {
+				throw new IllegalArgumentException("Capacity must allow at least one transaction.");
+			}
+			this.maxPendingTransactions = maxTransactions;
+			this.maxPendingPayloadBytes = maxPayloadBytes;
+			this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "Overflow policy is required.");
+			return this;
+		}
+
+		/**
+		 * @param feeAgingPerSecond The increase of priority of pending transactions per second of waiting, in units
+		 *                          of the fee, so that transactions with low fees are not starved
+		 * @return This builder
+		 */
+		public Builder withFeeAging(final double feeAgingPerSecond) {
+			if (feeAgingPerSecond < 0.0) {
+				throw new IllegalArgumentException("Aging must not be negative.");
+			}
+			this.feeAgingPerSecond = feeAgingPerSecond;
+			return this;
+		}
+
+		/**
+		 * @param maxTransactions The maximum number of transactions in a new block, defaults to 5
+		 * @param maxPayloadBytes The maximum number of UTF-8 bytes of all payloads in a new block, unbounded by default
+		 * @return This builder
+		 */
+		public Builder withBlockCapacity(final int maxTransactions, final long maxPayloadBytes) {
+			if (maxTransactions < 0 || maxPayloadBytes < 0) {
+				throw new IllegalArgumentException("Capacity of blocks must not be negative.");
+			}
+			this.blockMaxTransactions = maxTransactions;
+			this.blockMaxPayloadBytes = maxPayloadBytes;
+			return this;
+		}
+
+		/**
+		 * @param transactionIdGenerator Generates the ids of new transactions, defaults to time ordered ids of a
+		 *                               random node
+		 * @return This builder
+		 */
+		public Builder withTransactionIdGenerator(final TransactionIdGenerator transactionIdGenerator) {
+			this.transactionIdGenerator = Objects.requireNonNull(transactionIdGenerator, "Transaction id generator is required.");
+			return this;
+		}
+
+		/**
+		 * @param maxKeys The maximum number of idempotency keys remembered, defaults to 100000
+		 * @param window  How long idempotency keys are remembered at most, defaults to 10 minutes
+		 * @return This builder
+		 */
+		public Builder withIdempotencyKeys(final long maxKeys, final Duration window) {
+			if (maxKeys < 1 || window.isNegative() || window.isZero()) {
+				throw new IllegalArgumentException("Idempotency keys require a capacity and a window.");
+			}
+			this.maxIdempotencyKeys = maxKeys;
+			this.idempotencyWindow = window;
+			return this;
+		}
+
+		/**
+		 * Persists the blocks in segment files in the given directory, so that the chain continues where it left off
+		 * after a restart. Blocks are kept in memory only by default.
+		 *
+		 * @param directory       The directory of the segment files, created if necessary
+		 * @param segmentSize     The maximum size of a segment file in bytes
+		 * @param hotBlocks       The number of latest blocks kept on the heap
+		 * @param syncEveryBlocks Force the blocks to disk after that many blocks, 0 to only use the interval
+		 * @param syncInterval    Force the blocks to disk when a block is appended at least that long after the last
+		 *                        time, null to only use the number of blocks
+		 * @return This builder
+		 */
+		public Builder withBlockStorage(final Path directory, final long segmentSize, final int hotBlocks,
+				final int syncEveryBlocks, final Duration syncInterval) {
+			Objects.requireNonNull(directory, "Directory is required.");
+			if (segmentSize < 1 || hotBlocks < 1 || syncEveryBlocks < 0) {
+				throw new IllegalArgumentException("Block storage requires a segment size, hot blocks and a valid sync.");
+			}
+			this.blockStore = () -> FileBlockStore.open(directory, segmentSize, hotBlocks, syncEveryBlocks, syncInterval);
+			return this;
+		}
+
+		/**
+		 * Writes queued transactions to a log before acknowledging them and queues them again after a restart,
+		 * unless they have been stored in a block. Concurrently queued transactions share a sync. The log is compacted
+		 * on startup and with every {@link #withSnapshots(Path, int) snapshot}. Transactions are kept in memory only by
+		 * default.
+		 *
+		 * @param file         The file of the log
+		 * @param maxGroupSize The maximum number of queued transactions or batches sharing a sync
+		 * @return This builder
+		 */
+		public Builder withTransactionLog(final Path file, final int maxGroupSize) {
+			Objects.requireNonNull(file, "File is required.");
+			if (maxGroupSize < 1) {
+				throw new IllegalArgumentException("Groups must contain at least one transaction.");
+			}
+			this.transactionLog = registry -> TransactionLog.open(file, maxGroupSize, registry);
+			return this;
+		}
+
+		/**
+		 * Writes snapshots of the state of the chain, so that a restart doesn't have to read all stored blocks.
+		 * Requires {@link #withBlockStorage(Path, long, int, int, Duration)}.
+		 *
+		 * @param directory   The directory of the snapshots, created if necessary
+		 * @param everyBlocks Number of blocks after which a new snapshot is written, one is always written on closing
+		 * @return This builder
+		 */
+		public Builder withSnapshots(final Path directory, final int everyBlocks) {
+			Objects.requireNonNull(directory, "Directory is required.");
+			if (everyBlocks < 1) {
+				throw new IllegalArgumentException("Snapshots must be at least one block apart.");
+			}
+			this.snapshotDirectory = directory;
+			this.snapshotEveryBlocks = everyBlocks;
+			return this;
+		}
+
+		/**
+		 * @param validationParallelism Number of threads validating the chain, defaults to the number of available
+		 *                              processors
+		 * @return This builder
+		 */
+		public Builder withValidationParallelism(final int validationParallelism) {
+			if (validationParallelism < 1) {
+				throw new IllegalArgumentException("At least one validation thread is required.");
+			}
+			this.validationParallelism = validationParallelism;
+			return this;
+		}
+
+		public Chain build() {
+			final BlockStore blocks = meterRegistry.timer(STARTUP_TIMER, "phase", "open-blocks").record(blockStore::get);
+			if (snapshotDirectory != null) {
+				if (!(blocks instanceof FileBlockStore)) {
+					throw new IllegalStateException("Snapshots require block storage.");
+				}
+				try {
+					Files.createDirectories(snapshotDirectory);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Could not create snapshot directory " + snapshotDirectory, e);
+				}
+			}
+			return new Chain(DEFAULT_GENESIS_BLOCK.get(), blockEncoding, digestProvider, difficulty,
+					difficultyAdjustment, new Miner(numberOfMiningThreads, meterRegistry), miningPipelineDepth,
+					new Mempool(Runtime.getRuntime().availableProcessors(), maxPendingTransactions, maxPendingPayloadBytes,
+							overflowPolicy, feeAgingPerSecond, meterRegistry), blockMaxTransactions, blockMaxPayloadBytes,
+					transactionIdGenerator == null ? TransactionIdGenerator.timeOrdered() : transactionIdGenerator,
+					maxIdempotencyKeys, idempotencyWindow, blocks, transactionLog.apply(meterRegistry), snapshotDirectory,
+					snapshotEveryBlocks, validationParallelism, meterRegistry);
+		}
 	}
 }
\ No newline at end of file
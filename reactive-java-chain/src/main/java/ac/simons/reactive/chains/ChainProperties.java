@@ -0,0 +1,638 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.http.HttpStatus;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+
+/**
+ * Configuration of the chain run by this node.
+ */
+@ConfigurationProperties("chain")
+public class ChainProperties {
+
+	/**
+	 * How requests to /transactions, /transactions/batch and /blocks are executed.
+	 */
+	private ExecutionMode executionMode = ExecutionMode.REACTIVE;
+
+	/**
+	 * Encoding of blocks used for hashing.
+	 */
+	private Encoding blockEncoding = Encoding.JSON;
+
+	/**
+	 * Name of the security provider used for SHA-256 digests, "plain-java" for the built-in implementation or
+	 * "multi-buffer" for the built-in one hashing several proofs at once, empty for the JDKs preferred provider.
+	 */
+	private String digestProvider;
+
+	/**
+	 * Number of leading zero bits the hash of a new block must have.
+	 */
+	private int difficultyBits = Difficulty.DEFAULT.getLeadingZeroBits();
+
+	/**
+	 * Interval in which new blocks should be found. The difficulty is retargeted towards it if set, starting with
+	 * difficulty-bits, otherwise the difficulty stays fixed.
+	 */
+	private Duration targetBlockTime;
+
+	/**
+	 * Number of recent block intervals the hash rate is estimated from when retargeting the difficulty.
+	 */
+	private int difficultyWindow = 16;
+
+	/**
+	 * Maximum number of bits the difficulty changes from one block to the next.
+	 */
+	private int maxDifficultyStep = 1;
+
+	/**
+	 * Lowest number of leading zero bits the difficulty is retargeted to.
+	 */
+	private int minDifficultyBits = 1;
+
+	/**
+	 * Highest number of leading zero bits the difficulty is retargeted to.
+	 */
+	private int maxDifficultyBits = 64;
+
+	/**
+	 * Number of transactions of a bulk upload that are read and queued at once.
+	 */
+	private int transactionBatchSize = 1000;
+
+	/**
+	 * Maximum number of pending transactions.
+	 */
+	private long maxPendingTransactions = 100_000;
+
+	/**
+	 * Maximum number of UTF-8 bytes of the payloads of all pending transactions.
+	 */
+	private long maxPendingPayloadBytes = 64 * 1024 * 1024;
+
+	/**
+	 * What happens to new transactions when the pending transactions are at capacity.
+	 */
+	private OverflowPolicy mempoolOverflowPolicy = OverflowPolicy.REJECT;
+
+	/**
+	 * Status of responses to rejected transactions, usually 503 or 429.
+	 */
+	private HttpStatus mempoolFullStatus = HttpStatus.SERVICE_UNAVAILABLE;
+
+	/**
+	 * Time after which clients should retry rejected transactions, sent as Retry-After.
+	 */
+	private Duration mempoolRetryAfter = Duration.ofSeconds(1);
+
+	/**
+	 * Increase of the priority of pending transactions per second of waiting, in units of the fee, so that
+	 * transactions with low fees are not starved.
+	 */
+	private double feeAgingPerSecond = 1.0;
+
+	/**
+	 * Maximum number of transactions in a new block.
+	 */
+	private int blockMaxTransactions = 5;
+
+	/**
+	 * Maximum number of UTF-8 bytes of all payloads in a new block. Note that the hash of every candidate covers all
+	 * of them.
+	 */
+	private long blockMaxPayloadBytes = 16 * 1024;
+
+	/**
+	 * Generator of the ids of new transactions, "time-ordered" or "random-uuid".
+	 */
+	private String transactionIdGenerator = TransactionIdGenerator.TIME_ORDERED;
+
+	/**
+	 * Node between 0 and 65535 that is part of time ordered transaction ids, random if not set. Must be unique
+	 * among nodes sharing transactions.
+	 */
+	private Integer nodeId;
+
+	/**
+	 * Maximum number of idempotency keys of POST /transactions remembered.
+	 */
+	private long maxIdempotencyKeys = 100_000;
+
+	/**
+	 * How long idempotency keys of POST /transactions are remembered at most.
+	 */
+	private Duration idempotencyWindow = Duration.ofMinutes(10);
+
+	/**
+	 * Number of latest events kept for subscribers of /events resuming with Last-Event-ID.
+	 */
+	private int eventReplayCapacity = 1024;
+
+	/**
+	 * Number of events buffered for each subscriber of /events.
+	 */
+	private int eventBufferSize = 256;
+
+	/**
+	 * What happens when the buffer of a subscriber of /events is full. ERROR ends the stream, so that the
+	 * subscriber can resume with Last-Event-ID.
+	 */
+	private BufferOverflowStrategy eventOverflowStrategy = BufferOverflowStrategy.ERROR;
+
+	/**
+	 * Number of blocks on a page of /blocks if the limit is not given.
+	 */
+	private int blocksPageSize = 100;
+
+	/**
+	 * Maximum number of blocks on a page of /blocks.
+	 */
+	private int maxBlocksPageSize = 1000;
+
+	/**
+	 * Directory the blocks are stored in, so that the chain survives restarts. Blocks are kept in memory only if
+	 * not set.
+	 */
+	private String dataDirectory;
+
+	/**
+	 * Maximum size of a segment file of the stored blocks in bytes.
+	 */
+	private long segmentSize = FileBlockStore.DEFAULT_SEGMENT_SIZE;
+
+	/**
+	 * Number of latest blocks kept in memory when the blocks are stored.
+	 */
+	private int hotBlocks = 1024;
+
+	/**
+	 * Number of stored blocks after which they are forced to disk, 0 to only use sync-interval.
+	 */
+	private int syncEveryBlocks = 1;
+
+	/**
+	 * Time after which stored blocks are forced to disk with the next block.
+	 */
+	private Duration syncInterval = Duration.ofSeconds(1);
+
+	/**
+	 * Number of blocks after which a snapshot of the chain is written to data-directory, so that a restart only has
+	 * to read the blocks after it. 0 disables snapshots.
+	 */
+	private int snapshotEveryBlocks = 1000;
+
+	/**
+	 * Whether queued transactions are written to a log in data-directory before being acknowledged, so that they
+	 * survive a restart.
+	 */
+	private boolean transactionLog;
+
+	/**
+	 * Maximum number of queued transactions or batches written to the transaction log with a single sync.
+	 */
+	private int transactionLogMaxGroupSize = 1024;
+
+	/**
+	 * Whether all blocks are validated before the node starts, which fails if the chain is invalid.
+	 */
+	private boolean validateOnStart;
+
+	/**
+	 * Number of threads validating the chain, defaults to the number of available processors.
+	 */
+	private int validationParallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Interval in which the progress of validating the chain is reported.
+	 */
+	private Duration validationProgressInterval = Duration.ofSeconds(1);
+
+	/**
+	 * Base URLs of other nodes, like http://reactive-kotlin-chain:8090, registered and synced with periodically.
+	 */
+	private List<String> peers = new ArrayList<>();
+
+	/**
+	 * Interval in which the chain is synced with all registered nodes. Syncing is disabled if not set.
+	 */
+	private Duration peerSyncInterval = Duration.ofSeconds(10);
+
+	/**
+	 * Number of blocks requested from another node at once when syncing, at most its max-blocks-page-size.
+	 */
+	private int peerSyncBatchSize = 100;
+
+	/**
+	 * Number of batches of blocks requested from another node in parallel when syncing.
+	 */
+	private int peerSyncConcurrency = 4;
+
+	/**
+	 * Number of dedicated threads searching proofs, defaults to the number of available processors.
+	 */
+	private int miningThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Number of pending blocks whose templates are prepared ahead, including the one being mined.
+	 */
+	private int miningPipelineDepth = 2;
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	public void setExecutionMode(ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+	}
+
+	public Encoding getBlockEncoding() {
+		return blockEncoding;
+	}
+
+	public void setBlockEncoding(Encoding blockEncoding) {
+		this.blockEncoding = blockEncoding;
+	}
+
+	public String getDigestProvider() {
+		return digestProvider;
+	}
+
+	public void setDigestProvider(String digestProvider) {
+		this.digestProvider = digestProvider;
+	}
+
+	public int getDifficultyBits() {
+		return difficultyBits;
+	}
+
+	public void setDifficultyBits(int difficultyBits) {
+		this.difficultyBits = difficultyBits;
+	}
+
+	public Duration getTargetBlockTime() {
+		return targetBlockTime;
+	}
+
+	public void setTargetBlockTime(Duration targetBlockTime) {
+		this.targetBlockTime = targetBlockTime;
+	}
+
+	public int getDifficultyWindow() {
+		return difficultyWindow;
+	}
+
+	public void setDifficultyWindow(int difficultyWindow) {
+		this.difficultyWindow = difficultyWindow;
+	}
+
+	public int getMaxDifficultyStep() {
+		return maxDifficultyStep;
+	}
+
+	public void setMaxDifficultyStep(int maxDifficultyStep) {
+		this.maxDifficultyStep = maxDifficultyStep;
+	}
+
+	public int getMinDifficultyBits() {
+		return minDifficultyBits;
+	}
+
+	public void setMinDifficultyBits(int minDifficultyBits) {
+		this.minDifficultyBits = minDifficultyBits;
+	}
+
+	public int getMaxDifficultyBits() {
+		return maxDifficultyBits;
+	}
+
+	public void setMaxDifficultyBits(int maxDifficultyBits) {
+		this.maxDifficultyBits = maxDifficultyBits;
+	}
+
+	public int getTransactionBatchSize() {
+		return transactionBatchSize;
+	}
+
+	public void setTransactionBatchSize(int transactionBatchSize) {
+		this.transactionBatchSize = transactionBatchSize;
+	}
+
+	public long getMaxPendingTransactions() {
+		return maxPendingTransactions;
+	}
+
+	public void setMaxPendingTransactions(long maxPendingTransactions) {
+		this.maxPendingTransactions = maxPendingTransactions;
+	}
+
+	public long getMaxPendingPayloadBytes() {
+		return maxPendingPayloadBytes;
+	}
+
+	public void setMaxPendingPayloadBytes(long maxPendingPayloadBytes) {
+		this.maxPendingPayloadBytes = maxPendingPayloadBytes;
+	}
+
+	public OverflowPolicy getMempoolOverflowPolicy() {
+		return mempoolOverflowPolicy;
+	}
+
+	public void setMempoolOverflowPolicy(OverflowPolicy mempoolOverflowPolicy) {
+		this.mempoolOverflowPolicy = mempoolOverflowPolicy;
+	}
+
+	public HttpStatus getMempoolFullStatus() {
+		return mempoolFullStatus;
+	}
+
+	public void setMempoolFullStatus(HttpStatus mempoolFullStatus) {
+		this.mempoolFullStatus = mempoolFullStatus;
+	}
+
+	public Duration getMempoolRetryAfter() {
+		return mempoolRetryAfter;
+	}
+
+	public void setMempoolRetryAfter(Duration mempoolRetryAfter) {
+		this.mempoolRetryAfter = mempoolRetryAfter;
+	}
+
+	public double getFeeAgingPerSecond() {
+		return feeAgingPerSecond;
+	}
+
+	public void setFeeAgingPerSecond(double feeAgingPerSecond) {
+		this.feeAgingPerSecond = feeAgingPerSecond;
+	}
+
+	public int getBlockMaxTransactions() {
+		return blockMaxTransactions;
+	}
+
+	public void setBlockMaxTransactions(int blockMaxTransactions) {
+		this.blockMaxTransactions = blockMaxTransactions;
+	}
+
+	public long getBlockMaxPayloadBytes() {
+		return blockMaxPayloadBytes;
+	}
+
+	public void setBlockMaxPayloadBytes(long blockMaxPayloadBytes) {
+		this.blockMaxPayloadBytes = blockMaxPayloadBytes;
+	}
+
+	public String getTransactionIdGenerator() {
+		return transactionIdGenerator;
+	}
+
+	public void setTransactionIdGenerator(String transactionIdGenerator) {
+		this.transactionIdGenerator = transactionIdGenerator;
+	}
+
+	public Integer getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(Integer nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public long getMaxIdempotencyKeys() {
+		return maxIdempotencyKeys;
+	}
+
+	public void setMaxIdempotencyKeys(long maxIdempotencyKeys) {
+		this.maxIdempotencyKeys = maxIdempotencyKeys;
+	}
+
+	public Duration getIdempotencyWindow() {
+		return idempotencyWindow;
+	}
+
+	public void setIdempotencyWindow(Duration idempotencyWindow) {
+		this.idempotencyWindow = idempotencyWindow;
+	}
+
+	public int getEventReplayCapacity() {
+		return eventReplayCapacity;
+	}
+
+	public void setEventReplayCapacity(int eventReplayCapacity) {
+		this.eventReplayCapacity = eventReplayCapacity;
+	}
+
+	public int getEventBufferSize() {
+		return eventBufferSize;
+	}
+
+	public void setEventBufferSize(int eventBufferSize) {
+		this.eventBufferSize = eventBufferSize;
+	}
+
+	public BufferOverflowStrategy getEventOverflowStrategy() {
+		return eventOverflowStrategy;
+	}
+
+	public void setEventOverflowStrategy(BufferOverflowStrategy eventOverflowStrategy) {
+		this.eventOverflowStrategy = eventOverflowStrategy;
+	}
+
+	public int getBlocksPageSize() {
+		return blocksPageSize;
+	}
+
+	public void setBlocksPageSize(int blocksPageSize) {
+		this.blocksPageSize = blocksPageSize;
+	}
+
+	public int getMaxBlocksPageSize() {
+		return maxBlocksPageSize;
+	}
+
+	public void setMaxBlocksPageSize(int maxBlocksPageSize) {
+		this.maxBlocksPageSize = maxBlocksPageSize;
+	}
+
+	public String getDataDirectory() {
+		return dataDirectory;
+	}
+
+	public void setDataDirectory(String dataDirectory) {
+		this.dataDirectory = dataDirectory;
+	}
+
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	public void setSegmentSize(long segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	public int getHotBlocks() {
+		return hotBlocks;
+	}
+
+	public void setHotBlocks(int hotBlocks) {
+		this.hotBlocks = hotBlocks;
+	}
+
+	public int getSyncEveryBlocks() {
+		return syncEveryBlocks;
+	}
+
+	public void setSyncEveryBlocks(int syncEveryBlocks) {
+		this.syncEveryBlocks = syncEveryBlocks;
+	}
+
+	public Duration getSyncInterval() {
+		return syncInterval;
+	}
+
+	public void setSyncInterval(Duration syncInterval) {
+		this.syncInterval = syncInterval;
+	}
+
+	public int getSnapshotEveryBlocks() {
+		return snapshotEveryBlocks;
+	}
+
+	public void setSnapshotEveryBlocks(int snapshotEveryBlocks) {
+		this.snapshotEveryBlocks = snapshotEveryBlocks;
+	}
+
+	public boolean isTransactionLog() {
+		return transactionLog;
+	}
+
+	public void setTransactionLog(boolean transactionLog) {
+		this.transactionLog = transactionLog;
+	}
+
+	public int getTransactionLogMaxGroupSize() {
+		return transactionLogMaxGroupSize;
+	}
+
+	public void setTransactionLogMaxGroupSize(int transactionLogMaxGroupSize) {
+		this.transactionLogMaxGroupSize = transactionLogMaxGroupSize;
+	}
+
+	public boolean isValidateOnStart() {
+		return validateOnStart;
+	}
+
+	public void setValidateOnStart(boolean validateOnStart) {
+		this.validateOnStart = validateOnStart;
+	}
+
+	public int getValidationParallelism() {
+		return validationParallelism;
+	}
+
+	public void setValidationParallelism(int validationParallelism) {
+		this.validationParallelism = validationParallelism;
+	}
+
+	public Duration getValidationProgressInterval() {
+		return validationProgressInterval;
+	}
+
+	public void setValidationProgressInterval(Duration validationProgressInterval) {
+		this.validationProgressInterval = validationProgressInterval;
+	}
+
+	public List<String> getPeers() {
+		return peers;
+	}
+
+	public void setPeers(List<String> peers) {
+		this.peers = peers;
+	}
+
+	public Duration getPeerSyncInterval() {
+		return peerSyncInterval;
+	}
+
+	public void setPeerSyncInterval(Duration peerSyncInterval) {
+		this.peerSyncInterval = peerSyncInterval;
+	}
+
+	public int getPeerSyncBatchSize() {
+		return peerSyncBatchSize;
+	}
+
+	public void setPeerSyncBatchSize(int peerSyncBatchSize) {
+		this.peerSyncBatchSize = peerSyncBatchSize;
+	}
+
+	public int getPeerSyncConcurrency() {
+		return peerSyncConcurrency;
+	}
+
+	public void setPeerSyncConcurrency(int peerSyncConcurrency) {
+		this.peerSyncConcurrency = peerSyncConcurrency;
+	}
+
+	public int getMiningThreads() {
+		return miningThreads;
+	}
+
+	public void setMiningThreads(int miningThreads) {
+		this.miningThreads = miningThreads;
+	}
+
+	public int getMiningPipelineDepth() {
+		return miningPipelineDepth;
+	}
+
+	public void setMiningPipelineDepth(int miningPipelineDepth) {
+		this.miningPipelineDepth = miningPipelineDepth;
+	}
+
+	public enum Encoding {
+		/**
+		 * Blocks are hashed as JSON, compatible with the Kotlin node.
+		 */
+		JSON,
+		/**
+		 * Blocks are hashed in the canonical binary encoding.
+		 */
+		BINARY
+	}
+
+	public enum ExecutionMode {
+		/**
+		 * Requests are handled on the event loop of the server.
+		 */
+		REACTIVE,
+		/**
+		 * Requests to /transactions, /transactions/batch and /blocks are handled by blocking code on a new virtual
+		 * thread each, which waits for the body, the mempool and the transaction log instead of composing them.
+		 * Mining still happens on platform threads. Requires JDK 21 or newer and, for this version of Spring,
+		 * {@code --add-opens java.base/java.lang=ALL-UNNAMED}, otherwise the blocking handlers run on platform threads.
+		 */
+		VIRTUAL_THREADS
+	}
+}
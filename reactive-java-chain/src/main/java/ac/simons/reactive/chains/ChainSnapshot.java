@@ -0,0 +1,383 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A snapshot of the state of a stored chain that would otherwise have to be rebuilt from all of its blocks: the
+ * number and the hash of the latest block covered, the positions of the blocks by their hash, the positions of the
+ * blocks of all confirmed transactions by their id and the pending transactions.
+ * <p>
+ * Both indexes are open addressing hash tables of 64 bit fingerprints of the keys and positions, which are memory
+ * mapped and used as they are, so loading a snapshot doesn't depend on the length of the chain. A match of a
+ * fingerprint is confirmed by the caller against the block at the position found. The layout of a snapshot is
+ *
+ * <pre>
+ * snapshot := magic:int version:byte position:int transactionsOffset:long tipHash:string
+ *             numberOfPending:int (length:int transaction)* blocks:table transactions:table
+ * table    := capacity:int (fingerprint:long position:int){capacity}
+ * </pre>
+ *
+ * where transactions are encoded in the {@link BinaryBlockEncoding}. Snapshots are named after the number of blocks
+ * covered and only replace older ones when complete.
+ */
+final class ChainSnapshot {
+
+	private static final Logger LOGGER = Logger.getLogger(ChainSnapshot.class.getName());
+
+	private static final String SUFFIX = ".snapshot";
+
+	private static final int MAGIC = 0x43484e53;
+
+	private static final byte VERSION = 1;
+
+	private static final int HEADER_SIZE = Integer.BYTES + 1 + Integer.BYTES + Long.BYTES;
+
+	private static final int SLOT_SIZE = Long.BYTES + Integer.BYTES;
+
+	private static final int MAX_CAPACITY = (Integer.MAX_VALUE - Integer.BYTES) / SLOT_SIZE;
+
+	/**
+	 * Number of snapshots kept, the older ones are a fallback if the latest one doesn't match the blocks.
+	 */
+	private static final int SNAPSHOTS_KEPT = 2;
+
+	private final int position;
+
+	private final String tipHash;
+
+	private final List<Transaction> pendingTransactions;
+
+	private final ByteBuffer blocks;
+
+	private final ByteBuffer transactions;
+
+	private ChainSnapshot(final int position, final String tipHash, final List<Transaction> pendingTransactions,
+			final ByteBuffer blocks, final ByteBuffer transactions) {
+		this.position = position;
+		this.tipHash = tipHash;
+		this.pendingTransactions = pendingTransactions;
+		this.blocks = blocks;
+		this.transactions = transactions;
+	}
+
+	/**
+	 * @return The number of blocks covered by this snapshot
+	 */
+	int getPosition() {
+		return position;
+	}
+
+	String getTipHash() {
+		return tipHash;
+	}
+
+	List<Transaction> getPendingTransactions() {
+		return pendingTransactions;
+	}
+
+	/**
+	 * @param hash    The hash of a block
+	 * @param matches Confirms that the block at a position has the given hash
+	 * @return The position of the block with the given hash, -1 if it is not covered by this snapshot
+	 */
+	int findBlock(final String hash, final IntPredicate matches) {
+		return find(blocks, hash, matches);
+	}
+
+	/**
+	 * @param id      The id of a transaction
+	 * @param matches Confirms that the block at a position contains the transaction with the given id
+	 * @return The position of the block of the transaction with the given id, -1 if it is not covered by this snapshot
+	 */
+	int findTransaction(final String id, final IntPredicate matches) {
+		return find(transactions, id, matches);
+	}
+
+	/**
+	 * Loads the latest snapshot in the given directory matching the given blocks.
+	 *
+	 * @param directory The directory of the snapshots
+	 * @param store     The blocks the snapshot has been taken of
+	 * @return The latest matching snapshot, null if there is none
+	 */
+	static ChainSnapshot latest(final Path directory, final BlockStore store) {
+		for (Path file : list(directory)) {
+			try {
+				final ChainSnapshot snapshot = load(file);
+				if (snapshot.position <= store.size() && store.get(snapshot.position - 1).getHash().equals(snapshot.tipHash)) {
+					return snapshot;
+				}
+				LOGGER.warning(() -> "Snapshot " + file + " doesn't match the stored blocks.");
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warning(() -> "Could not load snapshot " + file + ": " + e.getMessage());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a new snapshot extending a previous one and removes older snapshots.
+	 *
+	 * @param directory            The directory of the snapshots
+	 * @param position             The number of blocks covered
+	 * @param tipHash              The hash of the latest block covered
+	 * @param pendingTransactions  The pending transactions
+	 * @param previous             The snapshot the given positions continue, may be null
+	 * @param blockPositions       The positions of the blocks after the previous snapshot by their hash, positions
+	 *                             from the given one onwards are ignored
+	 * @param transactionPositions The positions of the blocks of transactions after the previous snapshot by their id,
+	 *                             positions from the given one onwards are ignored
+	 */
+	static void write(final Path directory, final int position, final String tipHash,
+			final List<Transaction> pendingTransactions, final ChainSnapshot previous,
+			final Map<String, Integer> blockPositions, final Map<String, Integer> transactionPositions) {
+		final Path file = directory.resolve(String.format("%020d%s", position, SUFFIX));
+		final Path temporaryFile = directory.resolve(file.getFileName() + ".tmp");
+		try {
+			final BinaryBlockEncoding encoding = new BinaryBlockEncoding();
+			final List<byte[]> encodedTransactions = new ArrayList<>(pendingTransactions.size());
+			final byte[] encodedTipHash = tipHash.getBytes(UTF_8);
+			long blocksOffset = HEADER_SIZE + Integer.BYTES + encodedTipHash.length + Integer.BYTES;
+			for (Transaction transaction : pendingTransactions) {
+				final byte[] encoded = encoding.encode(transaction);
+				encodedTransactions.add(encoded);
+				blocksOffset += Integer.BYTES + encoded.length;
+			}
+			final int blocksCapacity = capacityFor(count(previous == null ? null : previous.blocks, blockPositions, position));
+			final int transactionsCapacity = capacityFor(count(previous == null ? null : previous.transactions, transactionPositions, position));
+			final long transactionsOffset = blocksOffset + tableSize(blocksCapacity);
+
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				final ByteBuffer header = ByteBuffer.allocate((int) blocksOffset);
+				header.putInt(MAGIC).put(VERSION).putInt(position).putLong(transactionsOffset)
+						.putInt(encodedTipHash.length).put(encodedTipHash)
+						.putInt(encodedTransactions.size());
+				for (byte[] encoded : encodedTransactions) {
+					header.putInt(encoded.length).put(encoded);
+				}
+				header.flip();
+				long written = 0;
+				while (header.hasRemaining()) {
+					written += channel.write(header, written);
+				}
+
+				writeTable(channel, blocksOffset, blocksCapacity, previous == null ? null : previous.blocks, blockPositions, position);
+				writeTable(channel, transactionsOffset, transactionsCapacity, previous == null ? null : previous.transactions,
+						transactionPositions, position);
+				channel.force(true);
+			}
+			Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write snapshot " + file, e);
+		}
+
+		final List<Path> snapshots = list(directory);
+		for (Path olderSnapshot : snapshots.subList(Math.min(SNAPSHOTS_KEPT, snapshots.size()), snapshots.size())) {
+			try {
+				// Mappings of a deleted snapshot stay valid
+				Files.deleteIfExists(olderSnapshot);
+			} catch (IOException e) {
+				LOGGER.warning(() -> "Could not delete snapshot " + olderSnapshot + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static ChainSnapshot load(final Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + Integer.BYTES);
+			readFully(channel, header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.get() != VERSION) {
+				throw new IllegalArgumentException("Not a snapshot of this version.");
+			}
+			final int position = header.getInt();
+			final long transactionsOffset = header.getLong();
+			final byte[] tipHash = new byte[header.getInt()];
+			if (position < 1 || transactionsOffset < HEADER_SIZE || transactionsOffset > size || tipHash.length > size) {
+				throw new IllegalArgumentException("Invalid header.");
+			}
+			readFully(channel, ByteBuffer.wrap(tipHash), HEADER_SIZE + Integer.BYTES);
+
+			final long pendingOffset = HEADER_SIZE + Integer.BYTES + tipHash.length;
+			final ByteBuffer numberOfPending = ByteBuffer.allocate(Integer.BYTES);
+			readFully(channel, numberOfPending, pendingOffset);
+			final List<Transaction> pendingTransactions = new ArrayList<>(numberOfPending.getInt(0));
+			final BinaryBlockEncoding encoding = new BinaryBlockEncoding();
+			final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+			long offset = pendingOffset + Integer.BYTES;
+			for (int i = 0; i < numberOfPending.getInt(0); ++i) {
+				length.clear();
+				readFully(channel, length, offset);
+				final ByteBuffer transaction = ByteBuffer.allocate(length.getInt(0));
+				readFully(channel, transaction, offset + Integer.BYTES);
+				pendingTransactions.add(encoding.decodeTransaction(transaction.flip()));
+				offset += Integer.BYTES + transaction.capacity();
+			}
+
+			final ByteBuffer blocks = mapTable(channel, offset);
+			final ByteBuffer transactions = mapTable(channel, transactionsOffset);
+			if (offset + tableSize(blocks.capacity() / SLOT_SIZE) != transactionsOffset
+					|| transactionsOffset + tableSize(transactions.capacity() / SLOT_SIZE) != size) {
+				throw new IllegalArgumentException("Invalid size.");
+			}
+			return new ChainSnapshot(position, new String(tipHash, UTF_8), Collections.unmodifiableList(pendingTransactions),
+					blocks, transactions);
+		}
+	}
+
+	/**
+	 * @return All snapshots in the directory, latest first
+	 */
+	private static List<Path> list(final Path directory) {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+					.sorted(Comparator.reverseOrder())
+					.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not list snapshots in " + directory, e);
+		}
+	}
+
+	private static long fingerprint(final String key) {
+		final long fingerprint = BloomFilter.hash(key);
+		// 0 marks empty slots
+		return fingerprint == 0 ? 1 : fingerprint;
+	}
+
+	private static int find(final ByteBuffer table, final String key, final IntPredicate matches) {
+		final long fingerprint = fingerprint(key);
+		final int mask = table.capacity() / SLOT_SIZE - 1;
+		for (int slot = (int) fingerprint & mask; ; slot = (slot + 1) & mask) {
+			final long candidate = table.getLong(slot * SLOT_SIZE);
+			if (candidate == 0) {
+				return -1;
+			}
+			if (candidate == fingerprint) {
+				final int position = table.getInt(slot * SLOT_SIZE + Long.BYTES);
+				if (matches.test(position)) {
+					return position;
+				}
+			}
+		}
+	}
+
+	private static long count(final ByteBuffer previous, final Map<String, Integer> positions, final int position) {
+		long count = positions.values().stream().filter(p -> p < position).count();
+		if (previous != null) {
+			for (int slot = 0; slot < previous.capacity() / SLOT_SIZE; ++slot) {
+				if (previous.getLong(slot * SLOT_SIZE) != 0) {
+					++count;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return A power of two keeping the table at most half full
+	 */
+	private static int capacityFor(final long count) {
+		final long capacity = Long.highestOneBit(Math.max(16, 2 * count) - 1) << 1;
+		if (capacity > MAX_CAPACITY) {
+			throw new IllegalStateException("Too many entries for a snapshot: " + count);
+		}
+		return (int) capacity;
+	}
+
+	private static long tableSize(final int capacity) {
+		return Integer.BYTES + (long) capacity * SLOT_SIZE;
+	}
+
+	private static void writeTable(final FileChannel channel, final long offset, final int capacity,
+			final ByteBuffer previous, final Map<String, Integer> positions, final int position) throws IOException {
+		final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, offset, tableSize(capacity));
+		// Not using methods of MappedByteBuffer itself, which have been overridden after Java 10
+		final ByteBuffer table = mapped;
+		table.putInt(0, capacity);
+		final ByteBuffer slots = table.position(Integer.BYTES).slice();
+		final int mask = capacity - 1;
+		if (previous != null) {
+			for (int slot = 0; slot < previous.capacity() / SLOT_SIZE; ++slot) {
+				final long fingerprint = previous.getLong(slot * SLOT_SIZE);
+				if (fingerprint != 0) {
+					insert(slots, mask, fingerprint, previous.getInt(slot * SLOT_SIZE + Long.BYTES));
+				}
+			}
+		}
+		for (Map.Entry<String, Integer> entry : positions.entrySet()) {
+			if (entry.getValue() < position) {
+				insert(slots, mask, fingerprint(entry.getKey()), entry.getValue());
+			}
+		}
+		mapped.force();
+	}
+
+	private static void insert(final ByteBuffer slots, final int mask, final long fingerprint, final int position) {
+		int slot = (int) fingerprint & mask;
+		while (slots.getLong(slot * SLOT_SIZE) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots.putLong(slot * SLOT_SIZE, fingerprint).putInt(slot * SLOT_SIZE + Long.BYTES, position);
+	}
+
+	/**
+	 * @return The slots of the table at the given offset
+	 */
+	private static ByteBuffer mapTable(final FileChannel channel, final long offset) throws IOException {
+		final ByteBuffer capacity = ByteBuffer.allocate(Integer.BYTES);
+		readFully(channel, capacity, offset);
+		final int numberOfSlots = capacity.getInt(0);
+		if (numberOfSlots < 1 || numberOfSlots > MAX_CAPACITY || Integer.bitCount(numberOfSlots) != 1
+				|| offset + tableSize(numberOfSlots) > channel.size()) {
+			throw new IllegalArgumentException("Invalid table.");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset + Integer.BYTES, (long) numberOfSlots * SLOT_SIZE);
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, current);
+			if (read < 0) {
+				throw new IOException("Unexpected end of " + channel);
+			}
+			current += read;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Validates the blocks of a chain in parallel. Every block is checked on its own: its index follows the genesis
+ * block, its hash matches the block, its previous block hash is the hash of its predecessor, its difficulty is the
+ * one the {@link DifficultyAdjustment} computes from its predecessors, but not below the minimum, and its proof meets
+ * that difficulty. As the hash of the predecessor is checked when the predecessor is checked, the whole chain is
+ * valid if all blocks are.
+ * <p>
+ * The blocks are split in halves until chunks of {@link #CHUNK_SIZE} blocks are left, which are checked in order
+ * by the workers of a {@link ForkJoinPool}. Once an invalid block has been found, no block after it is checked
+ * anymore, but blocks before it are, so that the validation ends with the first invalid block of the chain.
+ * <p>
+ * Blocks of another fork are validated the same way, the first of them against the blocks they continue.
+ */
+final class ChainValidator {
+
+	/**
+	 * Number of blocks checked in order by a single task.
+	 */
+	static final int CHUNK_SIZE = 256;
+
+	private final Function<Block, byte[]> digest;
+
+	private final Function<byte[], String> encode;
+
+	private final Difficulty defaultDifficulty;
+
+	private final DifficultyAdjustment difficultyAdjustment;
+
+	private final Difficulty minimumDifficulty;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param digest               Digests blocks the way the chain does
+	 * @param encode               Encodes digests into hashes the way the chain does
+	 * @param defaultDifficulty    The difficulty of blocks that don't carry one
+	 * @param difficultyAdjustment Computes the difficulty of blocks the way the chain does
+	 * @param minimumDifficulty    The lowest difficulty a block may have
+	 * @param parallelism          The number of workers
+	 */
+	ChainValidator(final Function<Block, byte[]> digest, final Function<byte[], String> encode,
+			final Difficulty defaultDifficulty, final DifficultyAdjustment difficultyAdjustment,
+			final Difficulty minimumDifficulty, final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("At least one validation worker is required.");
+		}
+		this.digest = digest;
+		this.encode = encode;
+		this.defaultDifficulty = defaultDifficulty;
+		this.difficultyAdjustment = difficultyAdjustment;
+		this.minimumDifficulty = minimumDifficulty;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Starts validating the given blocks.
+	 *
+	 * @param blocks       The blocks to validate, starting with the genesis block
+	 * @param genesisIndex The index of the genesis block
+	 * @return The running validation
+	 */
+	Validation start(final List<Block> blocks, final int genesisIndex) {
+		return start(blocks, genesisIndex, List.of());
+	}
+
+	/**
+	 * Starts validating the given blocks, which continue the given, already validated blocks.
+	 *
+	 * @param blocks     The blocks to validate
+	 * @param firstIndex The index of the first block
+	 * @param preceding  The blocks before the first block, starting with the genesis block, empty if the first
+	 *                   block is the genesis block
+	 * @return The running validation
+	 */
+	Validation start(final List<Block> blocks, final int firstIndex, final List<Block> preceding) {
+		final Validation validation = new Validation(blocks, firstIndex, preceding);
+		pool.execute(() -> {
+			try {
+				validation.new Check(0, blocks.size()).invoke();
+				validation.result.complete(validation.getProgress(true));
+			} catch (Throwable e) {
+				validation.result.completeExceptionally(e);
+			}
+		});
+		return validation;
+	}
+
+	final class Validation {
+		private final List<Block> blocks;
+
+		private final int firstIndex;
+
+		private final List<Block> preceding;
+
+		/**
+		 * The preceding blocks followed by the blocks to validate.
+		 */
+		private final List<Block> chain;
+
+		private final long start = System.nanoTime();
+
+		private final LongAdder validatedBlocks = new LongAdder();
+
+		private final CompletableFuture<ValidationProgress> result = new CompletableFuture<>();
+
+		/**
+		 * The position of the first invalid block found so far, written while holding this.
+		 */
+		private volatile int firstInvalidPosition = Integer.MAX_VALUE;
+
+		/**
+		 * Guarded by this.
+		 */
+		private String reason;
+
+		private volatile boolean cancelled;
+
+		private Validation(final List<Block> blocks, final int firstIndex, final List<Block> preceding) {
+			this.blocks = blocks;
+			this.firstIndex = firstIndex;
+			this.preceding = preceding;
+			this.chain = preceding.isEmpty() ? blocks : new AbstractList<>() {
+				@Override
+				public Block get(final int index) {
+					return index < preceding.size() ? preceding.get(index) : blocks.get(index - preceding.size());
+				}
+
+				@Override
+				public int size() {
+					return preceding.size() + blocks.size();
+				}
+			};
+		}
+
+		/**
+		 * @return Completes with the final progress when all blocks that needed to be checked have been checked
+		 */
+		CompletableFuture<ValidationProgress> getResult() {
+			return result;
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+
+		ValidationProgress getProgress() {
+			return getProgress(false);
+		}
+
+		private synchronized ValidationProgress getProgress(final boolean done) {
+			final boolean invalid = firstInvalidPosition != Integer.MAX_VALUE;
+			final ValidationProgress.State state = !done ? ValidationProgress.State.RUNNING :
+					invalid ? ValidationProgress.State.INVALID :
+					cancelled ? ValidationProgress.State.CANCELLED : ValidationProgress.State.VALID;
+			return new ValidationProgress(state, blocks.size(), validatedBlocks.sum(), (System.nanoTime() - start) / 1_000_000,
+					invalid ? firstIndex + firstInvalidPosition : null, invalid ? reason : null);
+		}
+
+		private synchronized void fail(final int position, final String why) {
+			if (position < firstInvalidPosition) {
+				firstInvalidPosition = position;
+				reason = why;
+			}
+		}
+
+		/**
+		 * @return Why the block at the given position is invalid, null if it is valid
+		 */
+		private String check(final int position) {
+			final Block block = blocks.get(position);
+			if (block.getIndex() != firstIndex + position) {
+				return "Expected index " + (firstIndex + position) + " but got " + block.getIndex() + ".";
+			}
+			final byte[] blockDigest = digest.apply(block);
+			if (!encode.apply(blockDigest).equals(block.getHash())) {
+				return "The hash doesn't match the block.";
+			}
+			// The genesis block has been verified by the chain and isn't mined for all encodings
+			final int chainPosition = preceding.size() + position;
+			if (chainPosition == 0) {
+				return null;
+			}
+			if (!chain.get(chainPosition - 1).getHash().equals(block.getPreviousBlockHash())) {
+				return "The previous block hash doesn't match the hash of block " + (firstIndex + position - 1) + ".";
+			}
+			final Difficulty difficulty = block.getDifficulty() == null ? defaultDifficulty :
+					Difficulty.ofLeadingZeroBits(block.getDifficulty());
+			final Difficulty expectedDifficulty = difficultyAdjustment.nextAt(chain, chainPosition, defaultDifficulty);
+			if (!difficulty.equals(expectedDifficulty)) {
+				return "Expected a difficulty of " + expectedDifficulty.getLeadingZeroBits() + " bits but got "
+						+ difficulty.getLeadingZeroBits() + " bits.";
+			}
+			if (difficulty.getLeadingZeroBits() < minimumDifficulty.getLeadingZeroBits()) {
+				return "The difficulty of " + difficulty.getLeadingZeroBits() + " bits is below the minimum of "
+						+ minimumDifficulty.getLeadingZeroBits() + " bits.";
+			}
+			if (!difficulty.isMetBy(blockDigest)) {
+				return "The proof doesn't meet the difficulty of " + difficulty.getLeadingZeroBits() + " bits.";
+			}
+			return null;
+		}
+
+		private final class Check extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final int from;
+
+			private final int to;
+
+			Check(final int from, final int to) {
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from > CHUNK_SIZE) {
+					final int middle = (from + to) >>> 1;
+					invokeAll(new Check(from, middle), new Check(middle, to));
+					return;
+				}
+				for (int position = from; position < to; ++position) {
+					if (cancelled || position > firstInvalidPosition) {
+						return;
+					}
+					final String why = check(position);
+					if (why != null) {
+						fail(position, why);
+						return;
+					}
+					validatedBlocks.increment();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+/**
+ * The difficulty a proof has to meet, expressed as the number of leading zero bits of the raw hash. The check
+ * works directly on the digest, so that failed candidates never need to be encoded.
+ */
+public final class Difficulty {
+
+	/**
+	 * The difficulty used so far: Six leading zeros in the hex representation of a hash.
+	 */
+	public static final Difficulty DEFAULT = ofLeadingZeroBits(24);
+
+	private final int leadingZeroBits;
+
+	private final int fullBytes;
+
+	private final int mask;
+
+	public static Difficulty ofLeadingZeroBits(final int leadingZeroBits) {
+		if (leadingZeroBits < 0 || leadingZeroBits > 8 * Sha256.DIGEST_LENGTH) {
+			throw new IllegalArgumentException("Leading zero bits must be between 0 and " + 8 * Sha256.DIGEST_LENGTH + ".");
+		}
+		return new Difficulty(leadingZeroBits);
+	}
+
+	private Difficulty(final int leadingZeroBits) {
+		this.leadingZeroBits = leadingZeroBits;
+		this.fullBytes = leadingZeroBits / 8;
+		this.mask = (0xff00 >>> (leadingZeroBits % 8)) & 0xff;
+	}
+
+	public int getLeadingZeroBits() {
+		return leadingZeroBits;
+	}
+
+	/**
+	 * @param digest A raw SHA-256 digest
+	 * @return True, if the digest has at least the required number of leading zero bits
+	 */
+	public boolean isMetBy(final byte[] digest) {
+		for (int i = 0; i < fullBytes; ++i) {
+			if (digest[i] != 0) {
+				return false;
+			}
+		}
+		return mask == 0 || (digest[fullBytes] & mask) == 0;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		return this == o || o instanceof Difficulty && ((Difficulty) o).leadingZeroBits == leadingZeroBits;
+	}
+
+	@Override
+	public int hashCode() {
+		return leadingZeroBits;
+	}
+
+	@Override
+	public String toString() {
+		return "Difficulty{" + "leadingZeroBits=" + leadingZeroBits + '}';
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Retargets the difficulty of new blocks so that they are found in a given interval on average.
+ * <p>
+ * The hash rate of the network is estimated from a sliding window of the most recent blocks: The expected number of
+ * hashes of each block, {@code 2^difficulty}, divided by the time between the first and the last block of the window.
+ * The next difficulty is the number of bits a block needs to take the target interval at that rate, changing by at
+ * most {@link #getMaxStep()} bits from the latest block. As the result only depends on the timestamps and difficulties
+ * stored in the window, every node computes the same difficulty for a block.
+ */
+public final class DifficultyAdjustment {
+
+	private static final double LOG_2 = StrictMath.log(2.0);
+
+	private static final DifficultyAdjustment FIXED = new DifficultyAdjustment(Duration.ZERO, 0, 0, 0, 8 * Sha256.DIGEST_LENGTH);
+
+	private final Duration targetBlockTime;
+
+	private final int window;
+
+	private final int maxStep;
+
+	private final int minBits;
+
+	private final int maxBits;
+
+	/**
+	 * @return An adjustment keeping the difficulty of the latest block
+	 */
+	public static DifficultyAdjustment fixed() {
+		return FIXED;
+	}
+
+	/**
+	 * @param targetBlockTime The interval in which blocks should be found
+	 * @param window          The number of recent intervals the hash rate is estimated from
+	 * @return An adjustment towards the given interval, changing by at most one bit per block
+	 */
+	public static DifficultyAdjustment towards(final Duration targetBlockTime, final int window) {
+		Objects.requireNonNull(targetBlockTime, "Target block time is required.");
+		if (targetBlockTime.isNegative() || targetBlockTime.isZero()) {
+			throw new IllegalArgumentException("Target block time must be positive.");
+		}
+		if (window < 1) {
+			throw new IllegalArgumentException("Window must contain at least one interval.");
+		}
+		return new DifficultyAdjustment(targetBlockTime, window, 1, 1, FIXED.maxBits);
+	}
+
+	private DifficultyAdjustment(final Duration targetBlockTime, final int window, final int maxStep,
+			final int minBits, final int maxBits) {
+		this.targetBlockTime = targetBlockTime;
+		this.window = window;
+		this.maxStep = maxStep;
+		this.minBits = minBits;
+		this.maxBits = maxBits;
+	}
+
+	/**
+	 * @param newMaxStep The maximum number of bits the difficulty changes from one block to the next
+	 * @return A new adjustment
+	 */
+	public DifficultyAdjustment withMaxStep(final int newMaxStep) {
+		if (newMaxStep < 1) {
+			throw new IllegalArgumentException("Maximum step must be at least one bit.");
+		}
+		return new DifficultyAdjustment(targetBlockTime, window, newMaxStep, minBits, maxBits);
+	}
+
+	/**
+	 * @param minimum The lowest difficulty ever chosen
+	 * @param maximum The highest difficulty ever chosen
+	 * @return A new adjustment
+	 */
+	public DifficultyAdjustment withBounds(final Difficulty minimum, final Difficulty maximum) {
+		if (minimum.getLeadingZeroBits() > maximum.getLeadingZeroBits()) {
+			throw new IllegalArgumentException("Minimum difficulty must not be greater than the maximum difficulty.");
+		}
+		return new DifficultyAdjustment(targetBlockTime, window, maxStep, minimum.getLeadingZeroBits(),
+				maximum.getLeadingZeroBits());
+	}
+
+	public Duration getTargetBlockTime() {
+		return targetBlockTime;
+	}
+
+	/**
+	 * @return The number of intervals the hash rate is estimated from, {@literal 0} if the difficulty is fixed
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	public int getMaxStep() {
+		return maxStep;
+	}
+
+	/**
+	 * @return The lowest difficulty ever chosen, {@literal 0} bits if the difficulty is fixed
+	 */
+	public Difficulty getMinimum() {
+		return Difficulty.ofLeadingZeroBits(minBits);
+	}
+
+	/**
+	 * Computes the difficulty of the block following the given ones. Only the last {@link #getWindow()} + 1 blocks
+	 * are considered. The genesis block must not be part of them, as its timestamp is arbitrary.
+	 *
+	 * @param recentBlocks The most recent blocks of the chain, oldest first
+	 * @param fallback     The difficulty of blocks that don't carry one
+	 * @return The difficulty of the next block
+	 */
+	public Difficulty next(final List<Block> recentBlocks, final Difficulty fallback) {
+		if (recentBlocks.isEmpty()) {
+			return fallback;
+		}
+		final int latestBits = bitsOf(recentBlocks.get(recentBlocks.size() - 1), fallback);
+		final int intervals = Math.min(window, recentBlocks.size() - 1);
+		if (intervals == 0) {
+			return Difficulty.ofLeadingZeroBits(latestBits);
+		}
+
+		final int first = recentBlocks.size() - 1 - intervals;
+		// The time between two blocks is spent on the latter one
+		double expectedHashes = 0.0;
+		for (int i = first + 1; i < recentBlocks.size(); ++i) {
+			expectedHashes += Math.scalb(1.0, bitsOf(recentBlocks.get(i), fallback));
+		}
+		final long span = Math.max(1L,
+				recentBlocks.get(recentBlocks.size() - 1).getTimestamp() - recentBlocks.get(first).getTimestamp());
+		final double hashesPerTarget = expectedHashes / span * targetBlockTime.toMillis();
+		final int targetBits = (int) Math.round(StrictMath.log(Math.max(1.0, hashesPerTarget)) / LOG_2);
+
+		final int bits = Math.max(latestBits - maxStep, Math.min(latestBits + maxStep, targetBits));
+		return Difficulty.ofLeadingZeroBits(Math.max(minBits, Math.min(maxBits, bits)));
+	}
+
+	/**
+	 * Computes the difficulty of the block at the given position of a chain from the blocks before it.
+	 *
+	 * @param chain    The blocks of a chain, starting with the genesis block and containing at least the parent
+	 * @param position The position of the block, at least 1
+	 * @param fallback The difficulty of blocks that don't carry one
+	 * @return The difficulty of the block at the given position
+	 */
+	public Difficulty nextAt(final List<Block> chain, final int position, final Difficulty fallback) {
+		return next(chain.subList(Math.max(1, position - window - 1), position), fallback);
+	}
+
+	/**
+	 * Computes the work that went into the given blocks, which decides between forks: a chain of fewer but harder
+	 * blocks may contain more work than a longer one.
+	 *
+	 * @param blocks   The blocks
+	 * @param fallback The difficulty of blocks that don't carry one
+	 * @return The expected number of hashes needed to find all the given blocks
+	 */
+	public static double work(final List<Block> blocks, final Difficulty fallback) {
+		double work = 0.0;
+		for (Block block : blocks) {
+			work += Math.scalb(1.0, bitsOf(block, fallback));
+		}
+		return work;
+	}
+
+	private static int bitsOf(final Block block, final Difficulty fallback) {
+		return block.getDifficulty() == null ? fallback.getLeadingZeroBits() : block.getDifficulty();
+	}
+}
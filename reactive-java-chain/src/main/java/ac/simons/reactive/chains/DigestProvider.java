@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+
+/**
+ * Computes SHA-256 digests. {@link MessageDigest} is not thread safe, so implementations either confine digests
+ * to threads or don't share them at all.
+ */
+public interface DigestProvider {
+
+	String ALGORITHM = "SHA-256";
+
+	/**
+	 * Name of the provider using the plain Java implementation in {@link Sha256}.
+	 */
+	String PLAIN_JAVA = "plain-java";
+
+	/**
+	 * Name of the provider hashing several inputs at once in {@link MultiBufferSha256}.
+	 */
+	String MULTI_BUFFER = "multi-buffer";
+
+	/**
+	 * @param input The bytes to digest
+	 * @return The SHA-256 digest of {@code input}
+	 */
+	byte[] digest(byte[] input);
+
+	/**
+	 * Creates a digest for many inputs sharing the same prefix. The state after the prefix is computed once and
+	 * restored for every input. The digest must be confined to a single thread, for example a mining worker.
+	 *
+	 * @param prefix The common prefix
+	 * @return A new digest
+	 */
+	PrefixedDigest newPrefixedDigest(byte[] prefix);
+
+	/**
+	 * A digest of inputs made of a fixed prefix, a variable part and a fixed suffix.
+	 */
+	@FunctionalInterface
+	interface PrefixedDigest {
+		/**
+		 * Computes the digest of the prefix, {@code length} bytes of {@code variable} starting at {@code offset}
+		 * and the {@code suffix}.
+		 *
+		 * @param out Target of the digest, must have room for 32 bytes
+		 */
+		void digest(byte[] variable, int offset, int length, byte[] suffix, byte[] out);
+
+		/**
+		 * @return The number of inputs this digest prefers to compute at once
+		 */
+		default int getLanes() {
+			return 1;
+		}
+
+		/**
+		 * Computes the digests of {@code count} inputs, each made of the prefix, a variable part and the suffix.
+		 * The default computes them one after another.
+		 *
+		 * @param count     The number of inputs, at most {@link #getLanes()}
+		 * @param variables The variable part of each input
+		 * @param offsets   Offset of the variable part of each input
+		 * @param lengths   Length of the variable part of each input
+		 * @param suffix    The suffix shared by all inputs
+		 * @param out       Targets of the digests, each must have room for 32 bytes
+		 */
+		default void digest(int count, byte[][] variables, int[] offsets, int[] lengths, byte[] suffix, byte[][] out) {
+			for (int i = 0; i < count; ++i) {
+				digest(variables[i], offsets[i], lengths[i], suffix, out[i]);
+			}
+		}
+	}
+
+	/**
+	 * Selects a provider by name: {@link #PLAIN_JAVA} selects the plain Java implementation, {@link #MULTI_BUFFER}
+	 * the one hashing several proofs at once, every other non empty
+	 * name is used as the name of the security provider, an empty name uses the JDKs preferred provider.
+	 *
+	 * @param name The name of the provider, may be null
+	 * @return A provider with thread confined digests
+	 */
+	static DigestProvider of(final String name) {
+		if (PLAIN_JAVA.equals(name)) {
+			return plainJava();
+		}
+		if (MULTI_BUFFER.equals(name)) {
+			return multiBuffer();
+		}
+		return threadLocal(name == null || name.trim().isEmpty() ? null : name);
+	}
+
+	/**
+	 * Looks up a new {@link MessageDigest} for every call. That's what the chain did in the beginning.
+	 *
+	 * @param provider The name of the security provider, null for the JDKs preferred provider
+	 * @return A provider that doesn't reuse digests
+	 */
+	static DigestProvider perCall(final String provider) {
+		// Fail early on unknown providers
+		newMessageDigest(provider);
+		return new DigestProvider() {
+			@Override
+			public byte[] digest(final byte[] input) {
+				return newMessageDigest(provider).digest(input);
+			}
+
+			@Override
+			public PrefixedDigest newPrefixedDigest(final byte[] prefix) {
+				return newPrefixedMessageDigest(provider, prefix);
+			}
+		};
+	}
+
+	/**
+	 * Looks up one {@link MessageDigest} per thread and reuses it for single inputs. Prefixed digests own another
+	 * {@link MessageDigest}, which is reused for all inputs of the mining worker they are confined to.
+	 *
+	 * @param provider The name of the security provider, null for the JDKs preferred provider
+	 * @return A provider with thread confined digests
+	 */
+	static DigestProvider threadLocal(final String provider) {
+		final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> newMessageDigest(provider));
+		digests.get();
+		return new DigestProvider() {
+			@Override
+			public byte[] digest(final byte[] input) {
+				return digests.get().digest(input);
+			}
+
+			@Override
+			public PrefixedDigest newPrefixedDigest(final byte[] prefix) {
+				return newPrefixedMessageDigest(provider, prefix);
+			}
+		};
+	}
+
+	/**
+	 * @return A provider with thread confined instances of the plain Java implementation
+	 */
+	static DigestProvider plainJava() {
+		final ThreadLocal<Sha256> digests = ThreadLocal.withInitial(Sha256::new);
+		return new DigestProvider() {
+			@Override
+			public byte[] digest(final byte[] input) {
+				return digests.get().reset().update(input).digest();
+			}
+
+			@Override
+			public PrefixedDigest newPrefixedDigest(final byte[] prefix) {
+				final Sha256 prefixState = new Sha256().update(prefix);
+				final Sha256 sha256 = new Sha256();
+				return (variable, offset, length, suffix, out) ->
+						sha256.copyFrom(prefixState).update(variable, offset, length).update(suffix).digest(out);
+			}
+		};
+	}
+
+	/**
+	 * Single inputs are hashed like {@link #plainJava()} does, digests for many inputs compute up to
+	 * {@link MultiBufferSha256#LANES} inputs at once.
+	 *
+	 * @return A provider with thread confined multi buffer digests
+	 */
+	static DigestProvider multiBuffer() {
+		final DigestProvider plainJava = plainJava();
+		return new DigestProvider() {
+			@Override
+			public byte[] digest(final byte[] input) {
+				return plainJava.digest(input);
+			}
+
+			@Override
+			public PrefixedDigest newPrefixedDigest(final byte[] prefix) {
+				final PrefixedDigest single = plainJava.newPrefixedDigest(prefix);
+				final MultiBufferSha256 multiBuffer = new MultiBufferSha256(prefix);
+				return new PrefixedDigest() {
+					@Override
+					public void digest(final byte[] variable, final int offset, final int length, final byte[] suffix, final byte[] out) {
+						single.digest(variable, offset, length, suffix, out);
+					}
+
+					@Override
+					public int getLanes() {
+						return MultiBufferSha256.LANES;
+					}
+
+					@Override
+					public void digest(final int count, final byte[][] variables, final int[] offsets, final int[] lengths,
+							final byte[] suffix, final byte[][] out) {
+						multiBuffer.digest(count, variables, offsets, lengths, suffix, out);
+					}
+				};
+			}
+		};
+	}
+
+	private static MessageDigest newMessageDigest(final String provider) {
+		try {
+			return provider == null ? MessageDigest.getInstance(ALGORITHM) : MessageDigest.getInstance(ALGORITHM, provider);
+		} catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * The state of a {@link MessageDigest} can only be restored by cloning it, which allocates a new digest for every
+	 * input. Instead, a single digest is kept and fed the prefix again. Prefixes of mined blocks end before the proof,
+	 * which is within the first 64 byte block of SHA-256 for the encodings of the chain, so no compression is
+	 * repeated. Longer prefixes would be compressed again for every input, their state is restored through the plain
+	 * Java implementation instead.
+	 */
+	private static PrefixedDigest newPrefixedMessageDigest(final String provider, final byte[] prefix) {
+		if (prefix.length >= Sha256.BLOCK_LENGTH) {
+			return plainJava().newPrefixedDigest(prefix);
+		}
+		final MessageDigest messageDigest = newMessageDigest(provider);
+		return (variable, offset, length, suffix, out) -> {
+			messageDigest.update(prefix);
+			messageDigest.update(variable, offset, length);
+			messageDigest.update(suffix);
+			finish(messageDigest, out);
+		};
+	}
+
+	private static void finish(final MessageDigest messageDigest, final byte[] out) {
+		try {
+			messageDigest.digest(out, 0, out.length);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonSubTypes.Type;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+/**
+ * Something that happened on a node. Events are encoded the same way the Kotlin node encodes them, that is
+ * {@code {"event":"new_block","id":1,"data":{...}}}, so that nodes can subscribe to each other. The Kotlin node
+ * uses 32 bit ids, so ids stay compatible as long as they are below {@link Integer#MAX_VALUE}.
+ *
+ * @param <D> The type of the data
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "event", visible = true)
+@JsonSubTypes({
+		@Type(value = Event.NewBlockEvent.class, name = Event.NewBlockEvent.NAME),
+		@Type(value = Event.NewTransactionEvent.class, name = Event.NewTransactionEvent.NAME),
+		@Type(value = Event.NewNodeEvent.class, name = Event.NewNodeEvent.NAME)
+})
+@JsonIgnoreProperties(ignoreUnknown = true)
+public abstract class Event<D> {
+
+	private final long id;
+
+	private final D data;
+
+	Event(final long id, final D data) {
+		this.id = id;
+		this.data = Objects.requireNonNull(data, "Data is required.");
+	}
+
+	/**
+	 * Wraps data into the matching event.
+	 *
+	 * @param id   The id of the new event
+	 * @param data A block, transaction or node
+	 * @return The new event
+	 */
+	static Event<?> of(final long id, final Object data) {
+		if (data instanceof Block) {
+			return new NewBlockEvent(id, (Block) data);
+		}
+		if (data instanceof Transaction) {
+			return new NewTransactionEvent(id, (Transaction) data);
+		}
+		if (data instanceof Node) {
+			return new NewNodeEvent(id, (Node) data);
+		}
+		throw new IllegalArgumentException("No event for " + data + ".");
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public D getData() {
+		return data;
+	}
+
+	/**
+	 * @return The name of this kind of events
+	 */
+	@JsonProperty("event")
+	public abstract String getName();
+
+	public static final class NewBlockEvent extends Event<Block> {
+		static final String NAME = "new_block";
+
+		@JsonCreator
+		NewBlockEvent(@JsonProperty("id") final long id, @JsonProperty("data") final Block data) {
+			super(id, data);
+		}
+
+		@Override
+		public String getName() {
+			return NAME;
+		}
+	}
+
+	public static final class NewTransactionEvent extends Event<Transaction> {
+		static final String NAME = "new_transaction";
+
+		@JsonCreator
+		NewTransactionEvent(@JsonProperty("id") final long id, @JsonProperty("data") final Transaction data) {
+			super(id, data);
+		}
+
+		@Override
+		public String getName() {
+			return NAME;
+		}
+	}
+
+	public static final class NewNodeEvent extends Event<Node> {
+		static final String NAME = "new_node";
+
+		@JsonCreator
+		NewNodeEvent(@JsonProperty("id") final long id, @JsonProperty("data") final Node data) {
+			super(id, data);
+		}
+
+		@Override
+		public String getName() {
+			return NAME;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Multicasts the events of a node to any number of subscribers. Every subscriber has its own bounded buffer, so a
+ * slow subscriber never holds back the others nor the publisher; what happens when its buffer is full is decided by
+ * the {@link BufferOverflowStrategy}. {@link BufferOverflowStrategy#ERROR} ends the stream of that subscriber, which
+ * can then resume where it left off.
+ * <p>
+ * The latest events are kept in a ring buffer. A subscriber passing the id of the last event it has seen gets the
+ * events after it from the ring buffer first, followed by new events, without gaps or duplicates as long as the
+ * ring buffer reaches back far enough.
+ */
+public final class EventPublisher {
+
+	private final int subscriberBufferSize;
+
+	private final BufferOverflowStrategy overflowStrategy;
+
+	private final Scheduler scheduler;
+
+	/**
+	 * The latest events, guarded by this.
+	 */
+	private final Event<?>[] ring;
+
+	/**
+	 * The id of the latest event, guarded by this.
+	 */
+	private long lastId;
+
+	private final Set<FluxSink<Event<?>>> subscribers = ConcurrentHashMap.newKeySet();
+
+	private final Counter dropped;
+
+	/**
+	 * @param replayCapacity       The number of latest events kept for resuming subscribers
+	 * @param subscriberBufferSize The number of events buffered for each subscriber
+	 * @param overflowStrategy     What happens when the buffer of a subscriber is full
+	 * @param scheduler            The scheduler delivering events to subscribers
+	 * @param meterRegistry        The registry the meters of this publisher are registered with
+	 */
+	public EventPublisher(final int replayCapacity, final int subscriberBufferSize,
+			final BufferOverflowStrategy overflowStrategy, final Scheduler scheduler, final MeterRegistry meterRegistry) {
+		if (replayCapacity < 0 || subscriberBufferSize < 1) {
+			throw new IllegalArgumentException("Invalid capacity of the event publisher.");
+		}
+		this.ring = new Event<?>[replayCapacity];
+		this.subscriberBufferSize = subscriberBufferSize;
+		this.overflowStrategy = overflowStrategy;
+		this.scheduler = scheduler;
+
+		this.dropped = meterRegistry.counter("chain.events.dropped");
+		Gauge.builder("chain.events.subscribers", subscribers, Set::size)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Publishes a new block, transaction or node.
+	 *
+	 * @param data The data of the new event
+	 * @return The new event
+	 */
+	public synchronized Event<?> publish(final Object data) {
+		final Event<?> event = Event.of(lastId + 1, data);
+		lastId = event.getId();
+		if (ring.length > 0) {
+			ring[(int) (lastId % ring.length)] = event;
+		}
+		// Only enqueues for the subscribers, events are delivered on the scheduler
+		subscribers.forEach(subscriber -> subscriber.next(event));
+		return event;
+	}
+
+	/**
+	 * @return All new events
+	 */
+	public Flux<Event<?>> events() {
+		return events(null);
+	}
+
+	/**
+	 * @param lastEventId The id of the last event seen by the subscriber, may be null
+	 * @return The retained events after {@code lastEventId} followed by all new events
+	 */
+	public Flux<Event<?>> events(final Long lastEventId) {
+		return Flux.<Event<?>>create(sink -> {
+			// Publishing is blocked while subscribing, so that nothing is missed between replay and live events
+			synchronized (this) {
+				replay(lastEventId).forEach(sink::next);
+				subscribers.add(sink);
+			}
+			sink.onDispose(() -> subscribers.remove(sink));
+		}, FluxSink.OverflowStrategy.BUFFER)
+				// Hands off from the publishing thread first, so that the buffer of the subscriber is bounded exactly
+				.publishOn(scheduler)
+				.onBackpressureBuffer(subscriberBufferSize, event -> dropped.increment(), overflowStrategy);
+	}
+
+	/**
+	 * Must be called while holding the lock on this.
+	 */
+	private List<Event<?>> replay(final Long lastEventId) {
+		if (lastEventId == null) {
+			return List.of();
+		}
+		final long oldestRetained = Math.max(1, lastId - ring.length + 1);
+		// Ids start over when a node restarts, so an unknown future id replays all that is retained
+		final long from = lastEventId > lastId ? oldestRetained : Math.max(oldestRetained, lastEventId + 1);
+		final List<Event<?>> events = new ArrayList<>((int) Math.max(0, lastId - from + 1));
+		for (long id = from; id <= lastId; ++id) {
+			events.add(ring[(int) (id % ring.length)]);
+		}
+		return events;
+	}
+
+	synchronized long getLastId() {
+		return lastId;
+	}
+
+	int getNumberOfSubscribers() {
+		return subscribers.size();
+	}
+}
@@ -0,0 +1,704 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link BlockStore} persisting blocks into a directory of segments, so that a chain survives restarts and its
+ * heap doesn't grow with its length. Only the latest blocks are kept on the heap, older ones are read through
+ * memory mapped files.
+ * <p>
+ * Each segment consists of a log file and an index file, both named after the position of their first block. The log
+ * contains one record per block:
+ *
+ * <pre>
+ * record := length:int crc32:int hash:string block
+ * </pre>
+ *
+ * where {@code length} and {@code crc32} cover everything after them, {@code hash} is written like the strings of
+ * the {@link BinaryBlockEncoding} and {@code block} is the binary encoding of the block. The index contains the
+ * offset (long) and the length (int) of every record. A new segment is started when a record doesn't fit into the
+ * current one anymore.
+ * <p>
+ * Records are written through the file channels, but not necessarily forced to disk right away: the log and index
+ * of the current segment are forced after a number of blocks or after some time has passed since the last time,
+ * whatever comes first, and when rolling over to a new segment or closing. On opening, the last segment is scanned
+ * and a torn tail, that is an incomplete record or one with a wrong checksum, is truncated together with everything
+ * after it. The index of the last segment is rebuilt from its log.
+ * <p>
+ * Truncating deletes the segments after the new end and cuts the index of the new last segment. Its log is not cut
+ * but marked with a negative record length at the new end, and again after every record appended until the removed
+ * records have been overwritten, so that readers holding a mapping of the log never read beyond the end of the file
+ * and recovery never takes a removed record for a valid one. The removed blocks are handed to the snapshots taken
+ * before, which keep returning them, and are garbage collected with the last of these snapshots.
+ * <p>
+ * Reads map the files of a segment in windows of {@link #MAPPING_WINDOW_SIZE} bytes, so that reading from the growing
+ * last segment maps only the part around the record and not the whole segment again.
+ */
+final class FileBlockStore implements BlockStore {
+
+	private static final Logger LOGGER = Logger.getLogger(FileBlockStore.class.getName());
+
+	static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private static final String LOG_SUFFIX = ".log";
+
+	private static final String INDEX_SUFFIX = ".idx";
+
+	private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+	private static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+
+	/**
+	 * The length of a record marking the end of the log when removed records follow.
+	 */
+	private static final int END_OF_LOG = -1;
+
+	/**
+	 * The size of the parts of a file mapped at once for reading.
+	 */
+	static final int MAPPING_WINDOW_SIZE = 1024 * 1024;
+
+	private final Path directory;
+
+	private final long segmentSize;
+
+	private final int syncEveryBlocks;
+
+	private final long syncIntervalNanos;
+
+	private final BinaryBlockEncoding encoding = new BinaryBlockEncoding();
+
+	/**
+	 * The latest blocks, the block at position {@code p} is stored at {@code p % hotBlocks.length}. Slots are
+	 * overwritten by the writer while being read, readers check the index of the block they got.
+	 */
+	private final Block[] hotBlocks;
+
+	/**
+	 * All segments in order, replaced by a copy when a new segment is started. Written before {@link #length}.
+	 */
+	private volatile Segment[] segments;
+
+	/**
+	 * The number of published blocks.
+	 */
+	private volatile int length;
+
+	/**
+	 * The end of the list of truncations, which is filled in by the next truncation. Snapshots keep the end at the
+	 * time they were taken.
+	 */
+	private volatile Truncation truncations = new Truncation();
+
+	/**
+	 * The index of the genesis block, so that blocks can be checked against their position.
+	 */
+	private volatile int firstIndex;
+
+	/**
+	 * Blocks appended since the current segment has been forced the last time, owned by the writer.
+	 */
+	private int unsyncedBlocks;
+
+	private long lastSync = System.nanoTime();
+
+	private volatile boolean closed;
+
+	/**
+	 * Opens or creates a store in the given directory, recovering from a torn tail.
+	 *
+	 * @param directory       The directory of the segments, created if necessary
+	 * @param segmentSize     The maximum size of the log of a segment in bytes, unless a single block is larger
+	 * @param hotBlocks       The number of latest blocks kept on the heap
+	 * @param syncEveryBlocks Force the log to disk after that many blocks, {@literal 0} to rely on the interval only
+	 * @param syncInterval    Force the log to disk when a block is appended at least that long after the last time,
+	 *                        {@literal null} or zero to rely on the number of blocks only
+	 * @return The opened store
+	 */
+	static FileBlockStore open(final Path directory, final long segmentSize, final int hotBlocks,
+			final int syncEveryBlocks, final Duration syncInterval) {
+		if (segmentSize < 1 || hotBlocks < 1 || syncEveryBlocks < 0) {
+			throw new IllegalArgumentException("Invalid configuration of the block store.");
+		}
+		try {
+			Files.createDirectories(directory);
+			final FileBlockStore store = new FileBlockStore(directory, segmentSize, hotBlocks, syncEveryBlocks,
+					syncInterval == null ? 0 : syncInterval.toNanos());
+			store.recover();
+			return store;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open block store in " + directory, e);
+		}
+	}
+
+	private FileBlockStore(final Path directory, final long segmentSize, final int hotBlocks, final int syncEveryBlocks,
+			final long syncIntervalNanos) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.hotBlocks = new Block[hotBlocks];
+		this.syncEveryBlocks = syncEveryBlocks;
+		this.syncIntervalNanos = syncIntervalNanos;
+	}
+
+	private void recover() throws IOException {
+		final List<Path> logs;
+		try (Stream<Path> files = Files.list(directory)) {
+			logs = files.filter(file -> file.getFileName().toString().endsWith(LOG_SUFFIX)).sorted().collect(Collectors.toList());
+		}
+		final List<Segment> recovered = new ArrayList<>();
+		int position = 0;
+		for (int i = 0; i < logs.size(); ++i) {
+			final Path log = logs.get(i);
+			final String name = log.getFileName().toString();
+			final int firstPosition = Integer.parseInt(name.substring(0, name.length() - LOG_SUFFIX.length()));
+			if (firstPosition != position) {
+				throw new IllegalStateException("Segment " + log + " doesn't continue the previous segment.");
+			}
+			final Segment segment = new Segment(firstPosition, log, indexOf(directory, firstPosition));
+			final boolean last = i == logs.size() - 1;
+			final int count = last || !segment.hasValidIndex() ? segment.rebuildIndex() : segment.countFromIndex();
+			if (count == 0 && last && !recovered.isEmpty()) {
+				segment.delete();
+				break;
+			}
+			segment.count = count;
+			recovered.add(segment);
+			position += count;
+		}
+		this.segments = recovered.toArray(new Segment[0]);
+		if (!recovered.isEmpty()) {
+			recovered.get(recovered.size() - 1).openForWriting();
+		}
+		this.length = position;
+		if (position > 0) {
+			this.firstIndex = readFromDisk(0).getIndex();
+			for (int p = Math.max(0, position - hotBlocks.length); p < position; ++p) {
+				hotBlocks[p % hotBlocks.length] = readFromDisk(p);
+			}
+		}
+	}
+
+	@Override
+	public void append(final Block block) {
+		if (closed) {
+			throw new IllegalStateException("The block store has been closed.");
+		}
+		final int position = length;
+		if (position == 0) {
+			firstIndex = block.getIndex();
+		} else if (block.getIndex() != firstIndex + position) {
+			throw new IllegalArgumentException("Block " + block.getIndex() + " doesn't follow block " + (firstIndex + position - 1) + ".");
+		}
+		final byte[] record = toRecord(block);
+		try {
+			Segment[] currentSegments = segments;
+			Segment segment = currentSegments.length == 0 ? null : currentSegments[currentSegments.length - 1];
+			if (segment == null || segment.count > 0 && segment.logSize + record.length > segmentSize) {
+				if (segment != null) {
+					segment.force();
+					segment.closeForWriting();
+				}
+				segment = new Segment(position, logOf(directory, position), indexOf(directory, position));
+				segment.openForWriting();
+				currentSegments = Arrays.copyOf(currentSegments, currentSegments.length + 1);
+				currentSegments[currentSegments.length - 1] = segment;
+				segments = currentSegments;
+			}
+			segment.write(record);
+			hotBlocks[position % hotBlocks.length] = block;
+			++segment.count;
+			length = position + 1;
+
+			++unsyncedBlocks;
+			final long now = System.nanoTime();
+			if (syncEveryBlocks > 0 && unsyncedBlocks >= syncEveryBlocks
+					|| syncIntervalNanos > 0 && now - lastSync >= syncIntervalNanos) {
+				segment.force();
+				unsyncedBlocks = 0;
+				lastSync = now;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not append block " + block.getIndex(), e);
+		}
+	}
+
+	@Override
+	public void truncate(final int size) {
+		if (closed) {
+			throw new IllegalStateException("The block store has been closed.");
+		}
+		final int currentLength = length;
+		if (size < 1 || size > currentLength) {
+			throw new IllegalArgumentException("Cannot truncate " + currentLength + " blocks to " + size + ".");
+		}
+		if (size == currentLength) {
+			return;
+		}
+		final List<Block> removed = new ArrayList<>(currentLength - size);
+		for (int position = size; position < currentLength; ++position) {
+			removed.add(get(position));
+		}
+		// Hand the removed blocks to existing snapshots, before changing anything they read
+		final Truncation truncation = truncations;
+		truncations = truncation.complete(size, removed);
+		// Publish first, so that no new reader asks for the removed blocks
+		length = size;
+		final Segment[] currentSegments = segments;
+		int kept = currentSegments.length;
+		while (currentSegments[kept - 1].firstPosition >= size) {
+			--kept;
+		}
+		try {
+			for (int i = currentSegments.length - 1; i >= kept; --i) {
+				currentSegments[i].closeForWriting();
+				currentSegments[i].delete();
+			}
+			final Segment last = currentSegments[kept - 1];
+			if (kept < currentSegments.length) {
+				last.openForWriting();
+			}
+			last.truncate(size - last.firstPosition);
+			last.force();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not truncate the block store to " + size + " blocks", e);
+		}
+		segments = Arrays.copyOf(currentSegments, kept);
+		unsyncedBlocks = 0;
+	}
+
+	@Override
+	public int size() {
+		return length;
+	}
+
+	@Override
+	public Block get(final int position) {
+		final int currentLength = length;
+		if (position < 0 || position >= currentLength) {
+			throw new IndexOutOfBoundsException("No block at position " + position + ".");
+		}
+		if (position >= currentLength - hotBlocks.length) {
+			final Block block = hotBlocks[position % hotBlocks.length];
+			if (block != null && block.getIndex() == firstIndex + position) {
+				return block;
+			}
+		}
+		return readFromDisk(position);
+	}
+
+	@Override
+	public List<Block> snapshot() {
+		final Truncation truncation = truncations;
+		final int currentLength = length;
+		return new Snapshot(currentLength, truncation);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (Segment segment : segments) {
+			try {
+				segment.force();
+				segment.closeForWriting();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not close segment " + segment.log, e);
+			}
+		}
+	}
+
+	private Block readFromDisk(final int position) {
+		final Segment[] currentSegments = segments;
+		int low = 0;
+		int high = currentSegments.length - 1;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (currentSegments[middle].firstPosition <= position) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		try {
+			return currentSegments[low].read(position - currentSegments[low].firstPosition);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read block at position " + position, e);
+		}
+	}
+
+	private byte[] toRecord(final Block block) {
+		final byte[] hash = block.getHash().getBytes(UTF_8);
+		final byte[] encodedBlock = encoding.encode(block);
+		final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + Integer.BYTES + hash.length + encodedBlock.length);
+		record.position(RECORD_HEADER_SIZE);
+		record.putInt(hash.length).put(hash).put(encodedBlock);
+		final CRC32 crc = new CRC32();
+		crc.update(record.array(), RECORD_HEADER_SIZE, record.capacity() - RECORD_HEADER_SIZE);
+		record.putInt(0, record.capacity() - RECORD_HEADER_SIZE).putInt(Integer.BYTES, (int) crc.getValue());
+		return record.array();
+	}
+
+	private Block fromRecord(final ByteBuffer record) {
+		final byte[] hash = new byte[record.getInt()];
+		record.get(hash);
+		return encoding.decode(record).withHash(new String(hash, UTF_8));
+	}
+
+	private static Path logOf(final Path directory, final int firstPosition) {
+		return directory.resolve(String.format("%020d%s", firstPosition, LOG_SUFFIX));
+	}
+
+	private static Path indexOf(final Path directory, final int firstPosition) {
+		return directory.resolve(String.format("%020d%s", firstPosition, INDEX_SUFFIX));
+	}
+
+	/**
+	 * A truncation of the store, an element of a list that is only referenced by the snapshots taken before it.
+	 */
+	private static final class Truncation {
+		private int size;
+
+		private List<Block> removed;
+
+		/**
+		 * Written after the other fields, null as long as this truncation hasn't happened.
+		 */
+		private volatile Truncation next;
+
+		/**
+		 * @return The next, not yet happened truncation
+		 */
+		Truncation complete(final int newSize, final List<Block> removedBlocks) {
+			this.size = newSize;
+			this.removed = removedBlocks;
+			this.next = new Truncation();
+			return next;
+		}
+
+		/**
+		 * @return The block at the given position, as it was before the first truncation removing it since this
+		 * one, or null if the position is still unchanged
+		 */
+		Block find(final int position) {
+			for (Truncation truncation = this; truncation.next != null; truncation = truncation.next) {
+				if (position >= truncation.size) {
+					return truncation.removed.get(position - truncation.size);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The blocks at the time of the snapshot. Blocks removed by a truncation afterwards are taken from the truncation.
+	 */
+	private final class Snapshot extends AbstractList<Block> implements RandomAccess {
+		private final int snapshotLength;
+
+		private final Truncation truncation;
+
+		Snapshot(final int snapshotLength, final Truncation truncation) {
+			this.snapshotLength = snapshotLength;
+			this.truncation = truncation;
+		}
+
+		@Override
+		public Block get(final int position) {
+			if (position < 0 || position >= snapshotLength) {
+				throw new IndexOutOfBoundsException("No block at position " + position + ".");
+			}
+			final Block removed = truncation.find(position);
+			if (removed != null) {
+				return removed;
+			}
+			// Truncations are published before the store changes, so a block read meanwhile may be from another fork
+			try {
+				final Block block = FileBlockStore.this.get(position);
+				final Block removedMeanwhile = truncation.find(position);
+				return removedMeanwhile == null ? block : removedMeanwhile;
+			} catch (IndexOutOfBoundsException | UncheckedIOException e) {
+				final Block removedMeanwhile = truncation.find(position);
+				if (removedMeanwhile == null) {
+					throw e;
+				}
+				return removedMeanwhile;
+			}
+		}
+
+		@Override
+		public int size() {
+			return snapshotLength;
+		}
+	}
+
+	/**
+	 * A log file and its index. Only the last segment is written to, by the writer of the store.
+	 */
+	private final class Segment {
+		private final int firstPosition;
+
+		private final Path log;
+
+		private final Path index;
+
+		/**
+		 * The number of records, written by the writer before publishing the length of the store.
+		 */
+		private volatile int count;
+
+		private FileChannel logChannel;
+
+		private FileChannel indexChannel;
+
+		/**
+		 * The size of the log, owned by the writer.
+		 */
+		private long logSize;
+
+		/**
+		 * The end of removed records after {@link #logSize}, owned by the writer.
+		 */
+		private long removedEnd;
+
+		/**
+		 * The latest windows mapped for reading, guarded by this.
+		 */
+		private MappedWindow logWindow;
+
+		private MappedWindow indexWindow;
+
+		Segment(final int firstPosition, final Path log, final Path index) {
+			this.firstPosition = firstPosition;
+			this.log = log;
+			this.index = index;
+		}
+
+		void openForWriting() throws IOException {
+			this.logChannel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.indexChannel = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.logSize = logChannel.size();
+		}
+
+		void closeForWriting() throws IOException {
+			if (logChannel != null) {
+				logChannel.close();
+				indexChannel.close();
+				logChannel = null;
+				indexChannel = null;
+			}
+		}
+
+		void write(final byte[] record) throws IOException {
+			writeFully(logChannel, ByteBuffer.wrap(record), logSize);
+			final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).putLong(logSize).putInt(record.length);
+			writeFully(indexChannel, entry.flip(), (long) count * INDEX_ENTRY_SIZE);
+			logSize += record.length;
+			if (logSize < removedEnd) {
+				markEnd();
+			}
+		}
+
+		/**
+		 * Keeps the given number of records. Must be open for writing.
+		 */
+		void truncate(final int records) throws IOException {
+			final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+			readFully(indexChannel, entry, (long) (records - 1) * INDEX_ENTRY_SIZE);
+			final long end = entry.getLong(0) + entry.getInt(Long.BYTES);
+			synchronized (this) {
+				// The index is only read while holding this, the log is not cut while readers may still map it
+				indexChannel.truncate((long) records * INDEX_ENTRY_SIZE);
+				indexWindow = null;
+			}
+			removedEnd = Math.max(removedEnd, logChannel.size());
+			logSize = end;
+			count = records;
+			markEnd();
+		}
+
+		private void markEnd() throws IOException {
+			writeFully(logChannel, ByteBuffer.allocate(RECORD_HEADER_SIZE).putInt(0, END_OF_LOG), logSize);
+			removedEnd = Math.max(removedEnd, logSize + RECORD_HEADER_SIZE);
+		}
+
+		void force() throws IOException {
+			if (logChannel != null) {
+				logChannel.force(false);
+				indexChannel.force(false);
+			}
+		}
+
+		void delete() throws IOException {
+			Files.deleteIfExists(log);
+			Files.deleteIfExists(index);
+		}
+
+		Block read(final int record) throws IOException {
+			final ByteBuffer data;
+			synchronized (this) {
+				final long entryOffset = (long) record * INDEX_ENTRY_SIZE;
+				indexWindow = MappedWindow.covering(indexWindow, index, entryOffset, INDEX_ENTRY_SIZE);
+				final ByteBuffer entry = indexWindow.buffer;
+				final int entryStart = (int) (entryOffset - indexWindow.start);
+				final long offset = entry.getLong(entryStart);
+				final int recordLength = entry.getInt(entryStart + Long.BYTES);
+				logWindow = MappedWindow.covering(logWindow, log, offset, recordLength);
+				data = logWindow.buffer.duplicate();
+				final int recordStart = (int) (offset - logWindow.start);
+				data.limit(recordStart + recordLength).position(recordStart + RECORD_HEADER_SIZE);
+			}
+			return fromRecord(data.slice());
+		}
+
+		/**
+		 * @return True, if the index is complete and matches the log
+		 */
+		boolean hasValidIndex() throws IOException {
+			if (!Files.exists(index)) {
+				return false;
+			}
+			final long indexSize = Files.size(index);
+			if (indexSize == 0 || indexSize % INDEX_ENTRY_SIZE != 0) {
+				return false;
+			}
+			try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+				final ByteBuffer lastEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+				readFully(channel, lastEntry, indexSize - INDEX_ENTRY_SIZE);
+				return lastEntry.getLong(0) + lastEntry.getInt(Long.BYTES) == Files.size(log);
+			}
+		}
+
+		int countFromIndex() throws IOException {
+			return (int) (Files.size(index) / INDEX_ENTRY_SIZE);
+		}
+
+		/**
+		 * Scans the log, truncates it after the last complete record and rewrites the index.
+		 *
+		 * @return The number of complete records
+		 */
+		int rebuildIndex() throws IOException {
+			try (FileChannel logFile = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE);
+					FileChannel indexFile = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING)) {
+				final long size = logFile.size();
+				final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+				final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+				final CRC32 crc = new CRC32();
+				long offset = 0;
+				int records = 0;
+				while (offset + RECORD_HEADER_SIZE <= size) {
+					header.clear();
+					readFully(logFile, header, offset);
+					final int recordLength = header.getInt(0);
+					if (recordLength < 0 || offset + RECORD_HEADER_SIZE + recordLength > size) {
+						break;
+					}
+					final ByteBuffer data = ByteBuffer.allocate(recordLength);
+					readFully(logFile, data, offset + RECORD_HEADER_SIZE);
+					crc.reset();
+					crc.update(data.array());
+					if ((int) crc.getValue() != header.getInt(Integer.BYTES)) {
+						break;
+					}
+					entry.clear();
+					entry.putLong(offset).putInt(RECORD_HEADER_SIZE + recordLength).flip();
+					writeFully(indexFile, entry, (long) records * INDEX_ENTRY_SIZE);
+					offset += RECORD_HEADER_SIZE + recordLength;
+					++records;
+				}
+				if (offset < size) {
+					final long validSize = offset;
+					LOGGER.warning(() -> "Truncating torn tail of " + log + " from " + size + " to " + validSize + " bytes.");
+					logFile.truncate(validSize);
+				}
+				logFile.force(true);
+				indexFile.force(true);
+				return records;
+			}
+		}
+	}
+
+	/**
+	 * A part of a file mapped for reading, starting at a multiple of {@link #MAPPING_WINDOW_SIZE}.
+	 */
+	private static final class MappedWindow {
+		private final long start;
+
+		private final ByteBuffer buffer;
+
+		private MappedWindow(final long start, final ByteBuffer buffer) {
+			this.start = start;
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @return The given window, if it covers the given range, otherwise a new window covering it, which is larger
+		 * than {@link #MAPPING_WINDOW_SIZE} only if the range crosses its end
+		 */
+		static MappedWindow covering(final MappedWindow window, final Path file, final long offset, final int length)
+				throws IOException {
+			if (window != null && offset >= window.start && offset + length <= window.start + window.buffer.capacity()) {
+				return window;
+			}
+			final long start = offset - offset % MAPPING_WINDOW_SIZE;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				final long end = Math.min(channel.size(), Math.max(start + MAPPING_WINDOW_SIZE, offset + length));
+				return new MappedWindow(start, channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+			}
+		}
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			current += channel.write(buffer, current);
+		}
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, current);
+			if (read < 0) {
+				throw new IOException("Unexpected end of " + channel);
+			}
+			current += read;
+		}
+	}
+}
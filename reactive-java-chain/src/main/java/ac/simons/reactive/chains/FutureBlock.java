@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.concurrent.CompletableFuture;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A handle to a block that has been scheduled for mining but might not have been found yet.
+ */
+public final class FutureBlock {
+
+	private final int index;
+
+	private final CompletableFuture<Block> block = new CompletableFuture<>();
+
+	/**
+	 * The template of this block, prepared while its parent is still being mined.
+	 */
+	private NonceSearch.Prepared template;
+
+	FutureBlock(final int index) {
+		this.index = index;
+	}
+
+	/**
+	 * @return The index the block will have in the chain
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return The block once it has been found and appended to the chain
+	 */
+	public Mono<Block> getBlock() {
+		return Mono.fromFuture(block);
+	}
+
+	boolean isPrepared() {
+		return template != null;
+	}
+
+	NonceSearch.Prepared getTemplate() {
+		return template;
+	}
+
+	void prepare(final NonceSearch.Prepared newTemplate) {
+		this.template = newTemplate;
+	}
+
+	void complete(final Block newBlock) {
+		this.block.complete(newBlock);
+	}
+
+	void fail(final Throwable e) {
+		this.block.completeExceptionally(e);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reads from another node through {@code GET /} and {@code GET /blocks}. A range of blocks is requested as a single
+ * page. Nodes that don't know about ranges, like the Kotlin node, answer with all of their blocks, which are cut to
+ * the range. A client {@link #forSync() for a sync} detects such a node by the first block it answers with and
+ * cuts all following ranges from that answer, so that the blocks of the node are transferred only once per sync.
+ */
+final class HttpNodeClient implements NodeClient {
+
+	private final WebClient webClient;
+
+	private final boolean sync;
+
+	/**
+	 * All blocks of a node ignoring ranges, once it has been detected during a sync.
+	 */
+	private volatile List<Block> allBlocks;
+
+	HttpNodeClient(final WebClient webClient) {
+		this(webClient, false);
+	}
+
+	private HttpNodeClient(final WebClient webClient, final boolean sync) {
+		this.webClient = webClient;
+		this.sync = sync;
+	}
+
+	@Override
+	public Mono<Status> getStatus() {
+		return webClient.get().uri("/").accept(APPLICATION_JSON).retrieve().bodyToMono(Status.class);
+	}
+
+	@Override
+	public Flux<Block> getBlocks(final int fromIndex, final int toIndex) {
+		final List<Block> knownBlocks = allBlocks;
+		if (knownBlocks != null) {
+			return Flux.fromIterable(knownBlocks)
+					.filter(block -> block.getIndex() >= fromIndex && block.getIndex() <= toIndex);
+		}
+		return webClient.get()
+				.uri(builder -> builder.path("/blocks")
+						.queryParam("from", fromIndex)
+						.queryParam("to", toIndex)
+						.queryParam("limit", toIndex - fromIndex + 1)
+						.build())
+				.accept(APPLICATION_JSON)
+				.retrieve()
+				.bodyToMono(Page.class)
+				.map(Page::getBlocks)
+				.doOnNext(blocks -> {
+					if (sync && !blocks.isEmpty() && blocks.get(0).getIndex() != fromIndex) {
+						allBlocks = blocks;
+					}
+				})
+				.flatMapIterable(blocks -> blocks)
+				.filter(block -> block.getIndex() >= fromIndex && block.getIndex() <= toIndex);
+	}
+
+	@Override
+	public NodeClient forSync() {
+		return new HttpNodeClient(webClient, true);
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	private static final class Page {
+		private final List<Block> blocks;
+
+		@JsonCreator
+		Page(@JsonProperty("blocks") final List<Block> blocks) {
+			this.blocks = blocks == null ? List.of() : blocks;
+		}
+
+		List<Block> getBlocks() {
+			return blocks;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the transactions queued under client supplied idempotency keys for a limited time, so that retries
+ * return the original transaction instead of queuing another one.
+ * <p>
+ * Keys are stored exactly in a bounded map in access order, guarded by this instance. In front of it, two
+ * generations of Bloom filters, each spanning one window, tell that most new keys have not been seen without
+ * taking the lock. Keys are forgotten when they are older than the window or when the map is at capacity,
+ * whatever comes first, and when their transaction has been evicted from the mempool.
+ */
+final class IdempotencyKeys {
+
+	private final long maxKeys;
+
+	private final long windowMillis;
+
+	private final Clock clock;
+
+	private final Map<String, KeyEntry> entries;
+
+	/**
+	 * The keys of the transactions in {@link #entries}. Guarded by this instance.
+	 */
+	private final Map<String, String> keysByTransactionId = new HashMap<>();
+
+	private volatile BloomFilter currentKeys;
+
+	private volatile BloomFilter previousKeys;
+
+	/**
+	 * Start of the current generation of the Bloom filters. Guarded by this instance.
+	 */
+	private long generationStart;
+
+	IdempotencyKeys(final long maxKeys, final Duration window, final Clock clock) {
+		if (maxKeys < 1 || window.isNegative() || window.isZero()) {
+			throw new IllegalArgumentException("Idempotency keys require a capacity and a window.");
+		}
+		this.maxKeys = maxKeys;
+		this.windowMillis = window.toMillis();
+		this.clock = clock;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, KeyEntry> eldest) {
+				if (size() > IdempotencyKeys.this.maxKeys || isExpired(eldest.getValue(), IdempotencyKeys.this.clock.millis())) {
+					keysByTransactionId.remove(eldest.getValue().transaction.getId());
+					return true;
+				}
+				return false;
+			}
+		};
+		this.currentKeys = newGeneration();
+		this.previousKeys = newGeneration();
+		this.generationStart = clock.millis();
+	}
+
+	/**
+	 * @param key An idempotency key
+	 * @return The transaction queued under the given key or null
+	 */
+	Transaction get(final String key) {
+		if (!currentKeys.mightContain(key) && !previousKeys.mightContain(key)) {
+			return null;
+		}
+		synchronized (this) {
+			final KeyEntry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (isExpired(entry, clock.millis())) {
+				remove(key, entry.transaction);
+				return null;
+			}
+			return entry.transaction;
+		}
+	}
+
+	/**
+	 * @param key         An idempotency key
+	 * @param transaction The transaction to remember under that key
+	 * @return The transaction already known under the given key or null, if the new transaction is now remembered
+	 */
+	synchronized Transaction putIfAbsent(final String key, final Transaction transaction) {
+		final long now = clock.millis();
+		final KeyEntry entry = entries.get(key);
+		if (entry != null) {
+			if (!isExpired(entry, now)) {
+				return entry.transaction;
+			}
+			remove(key, entry.transaction);
+		}
+		if (now - generationStart >= windowMillis) {
+			// Keys from the previous generation are older than the window by now
+			previousKeys = now - generationStart >= 2 * windowMillis ? newGeneration() : currentKeys;
+			currentKeys = newGeneration();
+			generationStart = now;
+		}
+		currentKeys.add(key);
+		entries.put(key, new KeyEntry(transaction, now));
+		keysByTransactionId.put(transaction.getId(), key);
+		return null;
+	}
+
+	/**
+	 * Forgets a key if it still refers to the given transaction, for example when the transaction could not be queued.
+	 */
+	synchronized void remove(final String key, final Transaction transaction) {
+		final KeyEntry entry = entries.get(key);
+		if (entry != null && entry.transaction == transaction) {
+			entries.remove(key);
+			keysByTransactionId.remove(transaction.getId());
+		}
+	}
+
+	/**
+	 * Forgets the key of the given transaction, if there is one, for example when the transaction has been evicted.
+	 */
+	synchronized void remove(final Transaction transaction) {
+		final String key = keysByTransactionId.get(transaction.getId());
+		if (key != null) {
+			remove(key, transaction);
+		}
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private boolean isExpired(final KeyEntry entry, final long now) {
+		return now - entry.created >= windowMillis;
+	}
+
+	private BloomFilter newGeneration() {
+		return new BloomFilter(maxKeys, 0.01);
+	}
+
+	private static final class KeyEntry {
+		private final Transaction transaction;
+
+		private final long created;
+
+		KeyEntry(final Transaction transaction, final long created) {
+			this.transaction = transaction;
+			this.created = created;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A binary heap whose elements know their position, so that arbitrary elements can be removed in {@code O(log n)}.
+ * An element can be part of up to {@link Element#MAX_HEAPS} heaps at once, each heap using its own slot.
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @param <E> The type of the elements
+ */
+final class IndexedHeap<E extends IndexedHeap.Element> {
+
+	private final Comparator<? super E> comparator;
+
+	private final int slot;
+
+	private Element[] elements = new Element[16];
+
+	private int size;
+
+	/**
+	 * @param comparator Orders the elements, the least one is on top
+	 * @param slot       The slot of the elements storing their position in this heap
+	 */
+	IndexedHeap(final Comparator<? super E> comparator, final int slot) {
+		if (slot < 0 || slot >= Element.MAX_HEAPS) {
+			throw new IllegalArgumentException("Slot must be between 0 and " + (Element.MAX_HEAPS - 1) + ".");
+		}
+		this.comparator = comparator;
+		this.slot = slot;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	void add(final E element) {
+		if (((Element) element).positions[slot] >= 0) {
+			throw new IllegalArgumentException("Element is already part of the heap.");
+		}
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, 2 * size);
+		}
+		siftUp(size++, element);
+	}
+
+	@SuppressWarnings("unchecked")
+	E peek() {
+		return size == 0 ? null : (E) elements[0];
+	}
+
+	E poll() {
+		final E top = peek();
+		if (top != null) {
+			removeAt(0);
+		}
+		return top;
+	}
+
+	/**
+	 * @param element The element to remove
+	 * @return True, if the element was part of this heap
+	 */
+	boolean remove(final E element) {
+		final int position = ((Element) element).positions[slot];
+		if (position < 0 || position >= size || elements[position] != element) {
+			return false;
+		}
+		removeAt(position);
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void removeAt(final int position) {
+		final Element removed = elements[position];
+		removed.positions[slot] = -1;
+		final E last = (E) elements[--size];
+		elements[size] = null;
+		if (position < size) {
+			siftDown(position, last);
+			if (elements[position] == last) {
+				siftUp(position, last);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void siftUp(int position, final E element) {
+		while (position > 0) {
+			final int parent = (position - 1) >>> 1;
+			final E candidate = (E) elements[parent];
+			if (comparator.compare(element, candidate) >= 0) {
+				break;
+			}
+			place(position, candidate);
+			position = parent;
+		}
+		place(position, element);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void siftDown(int position, final E element) {
+		final int half = size >>> 1;
+		while (position < half) {
+			int child = 2 * position + 1;
+			E candidate = (E) elements[child];
+			final int right = child + 1;
+			if (right < size && comparator.compare((E) elements[right], candidate) < 0) {
+				child = right;
+				candidate = (E) elements[child];
+			}
+			if (comparator.compare(element, candidate) <= 0) {
+				break;
+			}
+			place(position, candidate);
+			position = child;
+		}
+		place(position, element);
+	}
+
+	private void place(final int position, final Element element) {
+		elements[position] = element;
+		element.positions[slot] = position;
+	}
+
+	/**
+	 * Base class of elements of indexed heaps.
+	 */
+	abstract static class Element {
+		static final int MAX_HEAPS = 3;
+
+		private final int[] positions = { -1, -1, -1 };
+	}
+}
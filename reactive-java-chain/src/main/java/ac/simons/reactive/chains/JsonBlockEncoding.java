@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Encodes blocks through Jackson. The proof is rendered as a plain decimal number. The hash a block carries is
+ * never part of the encoded block.
+ */
+final class JsonBlockEncoding implements BlockEncoding {
+
+	private final ObjectMapper objectMapper;
+
+	JsonBlockEncoding(final ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper.copy().addMixIn(Block.class, WithoutHash.class);
+	}
+
+	@JsonIgnoreProperties("hash")
+	abstract static class WithoutHash {
+	}
+
+	@Override
+	public byte[] encode(final Block block) {
+		try {
+			return objectMapper.writeValueAsBytes(block);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int writeProof(final long proof, final byte[] buffer) {
+		return writeDecimal(proof, buffer);
+	}
+
+	@Override
+	public int writeTimestamp(final long timestamp, final byte[] buffer) {
+		return writeDecimal(timestamp, buffer);
+	}
+
+	@Override
+	public int writeDifficulty(final int difficulty, final byte[] buffer) {
+		return writeDecimal(difficulty, buffer);
+	}
+
+	private static int writeDecimal(final long value, final byte[] buffer) {
+		int position = buffer.length;
+		// Work on the negative value, otherwise Long.MIN_VALUE would overflow
+		long remaining = value < 0 ? value : -value;
+		do {
+			buffer[--position] = (byte) ('0' - (remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+		if (value < 0) {
+			buffer[--position] = '-';
+		}
+		return position;
+	}
+}
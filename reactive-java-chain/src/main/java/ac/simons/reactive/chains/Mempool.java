@@ -0,0 +1,407 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The pending transactions of a chain. Transactions are added to one of several lock free shards, chosen by the
+ * adding thread, so that concurrent producers rarely touch the same queue. The single consumer drains all shards
+ * into an indexed heap ordered by priority before it takes out transactions.
+ * <p>
+ * The priority of a transaction is its fee plus an aging term growing linear with the time it is waiting, so that
+ * transactions without fee are not starved. As all transactions age at the same rate, ordering by
+ * {@code fee + aging * (now - timestamp)} is the same as ordering by {@code fee - aging * timestamp}, which doesn't
+ * change over time. Taking out {@code k} of {@code n} transactions costs {@code O(k log n)}. Transactions with the
+ * same priority are taken out in order of their timestamps.
+ * <p>
+ * The mempool may be bounded by the number of transactions and the number of UTF-8 bytes of their payloads. Room
+ * is reserved without locking, only making room according to the {@link OverflowPolicy} takes the same lock as
+ * taking out transactions. Every decision is counted in {@code chain.mempool.decisions}.
+ */
+final class Mempool {
+
+	private static final int BY_PRIORITY = 0;
+
+	private static final int BY_AGE = 1;
+
+	private static final int BY_SIZE = 2;
+
+	private final List<Queue<Entry>> shards;
+
+	private final int mask;
+
+	/**
+	 * All pending transactions by their id, including the ones not drained yet.
+	 */
+	private final Map<String, Transaction> byId = new ConcurrentHashMap<>();
+
+	private final LongAdder size = new LongAdder();
+
+	private final LongAdder payloadBytes = new LongAdder();
+
+	private final long maxTransactions;
+
+	private final long maxPayloadBytes;
+
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * The increase of priority per second of waiting, in units of the fee.
+	 */
+	private final double agingPerSecond;
+
+	/**
+	 * Reservations against the limits, only used if bounded.
+	 */
+	private final AtomicLong reservedTransactions = new AtomicLong();
+
+	private final AtomicLong reservedBytes = new AtomicLong();
+
+	/**
+	 * All drained entries by their priority, highest first. Guarded by this.
+	 */
+	private final IndexedHeap<Entry> byPriority;
+
+	/**
+	 * All drained entries by their age, oldest first, only used when evicting the oldest transactions. Guarded by this.
+	 */
+	private final IndexedHeap<Entry> byAge;
+
+	/**
+	 * All drained entries by size of their payload, largest first, only used when evicting the largest transactions.
+	 * Guarded by this.
+	 */
+	private final IndexedHeap<Entry> bySize;
+
+	/**
+	 * Order in which entries have been drained. Guarded by this.
+	 */
+	private long sequence;
+
+	private final Counter accepted;
+
+	private final Counter rejected;
+
+	private final Counter evicted;
+
+	private volatile Consumer<Transaction> evictionListener = transaction -> {
+	};
+
+	Mempool(final int parallelism, final MeterRegistry meterRegistry) {
+		this(parallelism, Long.MAX_VALUE, Long.MAX_VALUE, OverflowPolicy.REJECT, 0.0, meterRegistry);
+	}
+
+	Mempool(final int parallelism, final long maxTransactions, final long maxPayloadBytes,
+			final OverflowPolicy overflowPolicy, final double agingPerSecond, final MeterRegistry meterRegistry) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1.");
+		}
+		if (maxTransactions < 1 || maxPayloadBytes < 0) {
+			throw new IllegalArgumentException("Capacity must allow at least one transaction.");
+		}
+		if (agingPerSecond < 0.0) {
+			throw new IllegalArgumentException("Aging must not be negative.");
+		}
+		int numberOfShards = 1;
+		while (numberOfShards < parallelism) {
+			numberOfShards <<= 1;
+		}
+		final List<Queue<Entry>> newShards = new ArrayList<>(numberOfShards);
+		for (int i = 0; i < numberOfShards; ++i) {
+			newShards.add(new ConcurrentLinkedQueue<>());
+		}
+		this.shards = List.copyOf(newShards);
+		this.mask = numberOfShards - 1;
+		this.maxTransactions = maxTransactions;
+		this.maxPayloadBytes = maxPayloadBytes;
+		this.overflowPolicy = overflowPolicy;
+		this.agingPerSecond = agingPerSecond;
+
+		final Comparator<Entry> fifo = Comparator.comparingLong((Entry e) -> e.timestamp).thenComparingLong(e -> e.sequence);
+		this.byPriority = new IndexedHeap<>(Comparator.comparingDouble((Entry e) -> -e.priority).thenComparing(fifo), BY_PRIORITY);
+		this.byAge = overflowPolicy == OverflowPolicy.EVICT_OLDEST ? new IndexedHeap<>(fifo, BY_AGE) : null;
+		this.bySize = overflowPolicy == OverflowPolicy.EVICT_LARGEST ?
+				new IndexedHeap<>(Comparator.comparingLong((Entry e) -> -e.payloadBytes).thenComparing(fifo), BY_SIZE) : null;
+
+		this.accepted = meterRegistry.counter("chain.mempool.decisions", "decision", "accepted");
+		this.rejected = meterRegistry.counter("chain.mempool.decisions", "decision", "rejected");
+		this.evicted = meterRegistry.counter("chain.mempool.decisions", "decision", "evicted");
+	}
+
+	/**
+	 * @param listener Called with every transaction evicted to make room for new ones, while holding the lock of this
+	 *                 mempool. Must not block.
+	 */
+	void onEvicted(final Consumer<Transaction> listener) {
+		this.evictionListener = Objects.requireNonNull(listener, "Listener is required.");
+	}
+
+	/**
+	 * @param transaction The new transaction
+	 * @return True, if the transaction has been added, false if it has been rejected
+	 */
+	boolean offer(final Transaction transaction) {
+		return offerAll(List.of(transaction));
+	}
+
+	/**
+	 * Adds several transactions to the same shard at once, either all of them or none.
+	 *
+	 * @param transactions The new transactions, in order of their timestamps
+	 * @return True, if the transactions have been added, false if they have been rejected
+	 */
+	boolean offerAll(final List<Transaction> transactions) {
+		final List<Entry> entries = new ArrayList<>(transactions.size());
+		long bytes = 0;
+		for (Transaction transaction : transactions) {
+			final Entry entry = new Entry(transaction, agingPerSecond);
+			entries.add(entry);
+			bytes += entry.payloadBytes;
+		}
+		if (!reserve(entries.size(), bytes)) {
+			rejected.increment(entries.size());
+			return false;
+		}
+
+		for (Transaction transaction : transactions) {
+			byId.put(transaction.getId(), transaction);
+		}
+		shards.get((int) Thread.currentThread().getId() & mask).addAll(entries);
+		size.add(entries.size());
+		payloadBytes.add(bytes);
+		accepted.increment(entries.size());
+		return true;
+	}
+
+	/**
+	 * @param id The id of a transaction
+	 * @return The pending transaction with the given id or null, without locking
+	 */
+	Transaction get(final String id) {
+		return byId.get(id);
+	}
+
+	/**
+	 * @return All pending transactions in no particular order, without locking, so transactions added or taken out
+	 * meanwhile may be missing or included
+	 */
+	List<Transaction> getTransactions() {
+		return new ArrayList<>(byId.values());
+	}
+
+	/**
+	 * @return The number of pending transactions, without locking, so it may be off while transactions are added
+	 * or taken out
+	 */
+	int size() {
+		return (int) Math.max(0L, size.sum());
+	}
+
+	/**
+	 * @return The number of UTF-8 bytes of all pending payloads, without locking
+	 */
+	long getPayloadBytes() {
+		return Math.max(0L, payloadBytes.sum());
+	}
+
+	List<Transaction> poll(final int maxNumberOfTransactions) {
+		return poll(maxNumberOfTransactions, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Takes out the transactions with the highest priority that fit into the given budget. Transactions not fitting
+	 * are skipped, but no more than {@code maxNumberOfTransactions} of them. There is only one consumer at a time,
+	 * producers are never blocked.
+	 *
+	 * @param maxNumberOfTransactions The maximum number of transactions to take out
+	 * @param maxPayloadBytes         The maximum number of UTF-8 bytes of the payloads taken out
+	 * @return The transactions, highest priority first
+	 */
+	synchronized List<Transaction> poll(final int maxNumberOfTransactions, final long maxPayloadBytes) {
+		drain();
+		final List<Transaction> transactions = new ArrayList<>(Math.min(maxNumberOfTransactions, 16));
+		final List<Entry> skipped = new ArrayList<>();
+		long bytes = 0;
+		while (transactions.size() < maxNumberOfTransactions && skipped.size() < maxNumberOfTransactions) {
+			final Entry entry = byPriority.poll();
+			if (entry == null) {
+				break;
+			}
+			if (bytes + entry.payloadBytes > maxPayloadBytes) {
+				skipped.add(entry);
+				continue;
+			}
+			bytes += entry.payloadBytes;
+			transactions.add(remove(entry));
+		}
+		skipped.forEach(byPriority::add);
+		return transactions;
+	}
+
+	/**
+	 * Moves all entries from the shards into the heaps. Must be called while holding the lock on this.
+	 */
+	private void drain() {
+		for (Queue<Entry> shard : shards) {
+			Entry entry;
+			while ((entry = shard.poll()) != null) {
+				entry.sequence = sequence++;
+				byPriority.add(entry);
+				if (byAge != null) {
+					byAge.add(entry);
+				}
+				if (bySize != null) {
+					bySize.add(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes a drained entry from all heaps and releases its reservation. Must be called while holding the lock on this.
+	 *
+	 * @return The transaction of the entry
+	 */
+	private Transaction remove(final Entry entry) {
+		byPriority.remove(entry);
+		if (byAge != null) {
+			byAge.remove(entry);
+		}
+		if (bySize != null) {
+			bySize.remove(entry);
+		}
+		byId.remove(entry.transaction.getId());
+		size.decrement();
+		payloadBytes.add(-entry.payloadBytes);
+		if (isBounded()) {
+			reservedTransactions.decrementAndGet();
+			reservedBytes.addAndGet(-entry.payloadBytes);
+		}
+		return entry.transaction;
+	}
+
+	private boolean isBounded() {
+		return maxTransactions != Long.MAX_VALUE || maxPayloadBytes != Long.MAX_VALUE;
+	}
+
+	private boolean reserve(final int numberOfTransactions, final long bytes) {
+		if (!isBounded()) {
+			return true;
+		}
+		if (numberOfTransactions > maxTransactions || bytes > maxPayloadBytes) {
+			return false;
+		}
+		if (tryReserve(numberOfTransactions, bytes)) {
+			return true;
+		}
+		if (overflowPolicy == OverflowPolicy.REJECT) {
+			return false;
+		}
+		synchronized (this) {
+			drain();
+			final IndexedHeap<Entry> victims = overflowPolicy == OverflowPolicy.EVICT_OLDEST ? byAge : bySize;
+			while (!tryReserve(numberOfTransactions, bytes)) {
+				final Entry victim = victims.peek();
+				if (victim == null) {
+					return false;
+				}
+				evictionListener.accept(remove(victim));
+				evicted.increment();
+			}
+			return true;
+		}
+	}
+
+	private boolean tryReserve(final int numberOfTransactions, final long bytes) {
+		if (reservedTransactions.addAndGet(numberOfTransactions) > maxTransactions) {
+			reservedTransactions.addAndGet(-numberOfTransactions);
+			return false;
+		}
+		if (reservedBytes.addAndGet(bytes) > maxPayloadBytes) {
+			reservedBytes.addAndGet(-bytes);
+			reservedTransactions.addAndGet(-numberOfTransactions);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param value A string
+	 * @return The number of bytes of the string encoded as UTF-8, the way {@link String#getBytes(java.nio.charset.Charset)} does
+	 */
+	static int utf8Length(final String value) {
+		if (value == null) {
+			return 0;
+		}
+		int length = 0;
+		for (int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				++length;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				length += 4;
+				++i;
+			} else if (Character.isSurrogate(c)) {
+				// Replaced by '?'
+				++length;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static final class Entry extends IndexedHeap.Element {
+		private final Transaction transaction;
+
+		private final long timestamp;
+
+		private final int payloadBytes;
+
+		/**
+		 * The priority without the part all transactions share.
+		 */
+		private final double priority;
+
+		/**
+		 * Order in which entries have been drained. Guarded by the mempool.
+		 */
+		private long sequence;
+
+		Entry(final Transaction transaction, final double agingPerSecond) {
+			this.transaction = transaction;
+			this.timestamp = transaction.getTimestamp();
+			this.payloadBytes = utf8Length(transaction.getPayload());
+			this.priority = transaction.getFee() - agingPerSecond * transaction.getTimestamp() / 1000.0;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+/**
+ * Thrown when new transactions don't fit into the pending transactions of a chain.
+ */
+public final class MempoolFullException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	MempoolFullException(final int numberOfTransactions) {
+		super(numberOfTransactions == 1 ? "There's no room for another transaction." :
+				"There's no room for another " + numberOfTransactions + " transactions.");
+	}
+}
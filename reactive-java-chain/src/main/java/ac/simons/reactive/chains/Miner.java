@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Searches proofs on a fixed number of dedicated threads. The workers of a search steal contiguous chunks of nonces
+ * from a shared cursor, so their ranges never overlap, and hash them in a plain loop, as many at once as their
+ * digest prefers. The first worker finding a solution raises a flag shared by all workers of that search, which
+ * stops them after their current chunk.
+ * <p>
+ * Every worker reports the number of hashes computed ({@code chain.miner.hashes}) and its hash rate during the
+ * last search ({@code chain.miner.hashrate}), tagged with the number of its miner, so that several miners can share
+ * a registry.
+ */
+final class Miner {
+
+	/**
+	 * Number of nonces a worker takes at once. Small enough to keep the time to stop after a solution short,
+	 * large enough to keep the shared cursor out of the way.
+	 */
+	static final int CHUNK_SIZE = 4096;
+
+	private static final AtomicInteger MINER_NUMBER = new AtomicInteger();
+
+	private final int numberOfWorkers;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLongArray hashes;
+
+	private final AtomicLongArray hashRates;
+
+	Miner(final int numberOfWorkers, final MeterRegistry meterRegistry) {
+		if (numberOfWorkers < 1) {
+			throw new IllegalArgumentException("At least one mining worker is required.");
+		}
+		this.numberOfWorkers = numberOfWorkers;
+
+		final int minerNumber = MINER_NUMBER.incrementAndGet();
+		final AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+			final Thread thread = new Thread(runnable, "miner-" + minerNumber + "-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// Don't keep idle threads around between searches
+		this.executor.allowCoreThreadTimeOut(true);
+
+		this.hashes = new AtomicLongArray(numberOfWorkers);
+		this.hashRates = new AtomicLongArray(numberOfWorkers);
+		final String miner = Integer.toString(minerNumber);
+		for (int i = 0; i < numberOfWorkers; ++i) {
+			final int worker = i;
+			FunctionCounter.builder("chain.miner.hashes", hashes, h -> h.get(worker))
+					.tag("miner", miner)
+					.tag("worker", Integer.toString(worker))
+					.baseUnit("hash")
+					.register(meterRegistry);
+			Gauge.builder("chain.miner.hashrate", hashRates, r -> r.get(worker))
+					.tag("miner", miner)
+					.tag("worker", Integer.toString(worker))
+					.baseUnit("hash/s")
+					.register(meterRegistry);
+		}
+	}
+
+	int getNumberOfWorkers() {
+		return numberOfWorkers;
+	}
+
+	/**
+	 * @param worker The number of a worker
+	 * @return The hash rate of the given worker during its last search in hashes per second
+	 */
+	long getHashRate(final int worker) {
+		return hashRates.get(worker);
+	}
+
+	/**
+	 * Stops the workers once their searches have been cancelled. Searches started afterwards fail.
+	 */
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Starts a search on subscription.
+	 *
+	 * @param nonceSearch The template to search a proof for
+	 * @param difficulty  The difficulty the proof has to meet
+	 * @return The first candidate of the template meeting the difficulty, carrying its hash
+	 */
+	Mono<Block> mine(final NonceSearch nonceSearch, final Difficulty difficulty) {
+		return Mono.defer(() -> {
+			final Search search = new Search(nonceSearch, difficulty);
+			for (int i = 0; i < numberOfWorkers; ++i) {
+				final int worker = i;
+				executor.execute(() -> search.run(worker));
+			}
+			return Mono.fromFuture(search.result).doOnCancel(search::stop);
+		});
+	}
+
+	private final class Search {
+		private final NonceSearch nonceSearch;
+
+		private final Difficulty difficulty;
+
+		private final AtomicLong cursor = new AtomicLong();
+
+		private final CompletableFuture<Block> result = new CompletableFuture<>();
+
+		/**
+		 * The flag shared by all workers of this search.
+		 */
+		private volatile boolean stopped;
+
+		Search(final NonceSearch nonceSearch, final Difficulty difficulty) {
+			this.nonceSearch = nonceSearch;
+			this.difficulty = difficulty;
+		}
+
+		void stop() {
+			this.stopped = true;
+		}
+
+		void run(final int worker) {
+			final long start = System.nanoTime();
+			long computed = 0;
+			Block solution = null;
+			try {
+				final NonceSearch.Worker hasher = nonceSearch.newWorker();
+				final int lanes = hasher.getLanes();
+				while (!stopped) {
+					final long from = cursor.getAndAdd(CHUNK_SIZE);
+					final long to = from + CHUNK_SIZE;
+					long proof = from;
+					for (; proof < to && solution == null; proof += lanes) {
+						final int count = (int) Math.min(lanes, to - proof);
+						final byte[][] digests = hasher.hash(proof, count);
+						for (int lane = 0; lane < count; ++lane) {
+							if (difficulty.isMetBy(digests[lane])) {
+								stop();
+								solution = nonceSearch.getTemplate().newCandidateOf(proof + lane)
+										.withHash(HashUtils.ENCODE_WITH_GUAVA_ALGORITHM.apply(digests[lane]));
+								break;
+							}
+						}
+					}
+					final long chunk = Math.min(proof, to) - from;
+					computed += chunk;
+					hashes.addAndGet(worker, chunk);
+				}
+			} catch (Throwable e) {
+				stop();
+				result.completeExceptionally(e);
+			} finally {
+				final long elapsed = System.nanoTime() - start;
+				hashRates.set(worker, elapsed == 0 ? 0 : (long) (computed * 1e9 / elapsed));
+			}
+			if (solution != null) {
+				result.complete(solution);
+			}
+		}
+	}
+}
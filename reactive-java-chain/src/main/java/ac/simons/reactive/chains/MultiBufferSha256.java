@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.Arrays;
+
+/**
+ * Computes the SHA-256 digests of up to {@link #LANES} messages sharing a common prefix at once. The state of all
+ * lanes is kept in a structure of arrays and every step of the compression function is applied to all lanes in a
+ * plain loop, so that a JIT can vectorize it. That only works as long as all messages span the same number of
+ * blocks, otherwise the lanes are hashed one after another. C2 as of JDK 21 doesn't vectorize it, see
+ * {@code BatchDigestBenchmark}, so this is not used unless selected explicitly.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class MultiBufferSha256 {
+
+	static final int LANES = 8;
+
+	private final int[] prefixState = new int[8];
+
+	/**
+	 * The bytes of the prefix not making up a complete block.
+	 */
+	private final byte[] prefixTail;
+
+	private final long prefixLength;
+
+	private final Sha256 scalarPrefix;
+
+	private final Sha256 scalar = new Sha256();
+
+	/**
+	 * The remaining blocks of each lane, including padding.
+	 */
+	private final byte[][] messages = new byte[LANES][2 * Sha256.BLOCK_LENGTH];
+
+	private final int[] schedule = new int[64 * LANES];
+
+	/**
+	 * The chaining state of all lanes, one array per word.
+	 */
+	private final int[] a = new int[LANES], b = new int[LANES], c = new int[LANES], d = new int[LANES];
+
+	private final int[] e = new int[LANES], f = new int[LANES], g = new int[LANES], h = new int[LANES];
+
+	/**
+	 * The working variables of all lanes while compressing a block.
+	 */
+	private final int[][] working = new int[8][LANES];
+
+	MultiBufferSha256(final byte[] prefix) {
+		this.scalarPrefix = new Sha256().update(prefix);
+		this.scalarPrefix.getState(prefixState);
+		this.prefixTail = scalarPrefix.getBufferedBytes();
+		this.prefixLength = scalarPrefix.getLength();
+	}
+
+	/**
+	 * Computes the digest of the prefix, a variable part and the suffix for each lane.
+	 *
+	 * @param count     The number of lanes to compute, at most {@link #LANES}
+	 * @param variables The variable part of each lane
+	 * @param offsets   Offset of the variable part of each lane
+	 * @param lengths   Length of the variable part of each lane
+	 * @param suffix    The suffix shared by all lanes
+	 * @param out       Targets of the digests, each must have room for 32 bytes
+	 */
+	void digest(final int count, final byte[][] variables, final int[] offsets, final int[] lengths, final byte[] suffix,
+			final byte[][] out) {
+		if (count > LANES) {
+			throw new IllegalArgumentException("At most " + LANES + " lanes can be computed at once.");
+		}
+
+		final int numberOfBlocks = numberOfBlocks(lengths[0], suffix);
+		boolean aligned = count > 1;
+		for (int lane = 1; lane < count && aligned; ++lane) {
+			aligned = numberOfBlocks(lengths[lane], suffix) == numberOfBlocks;
+		}
+		if (!aligned) {
+			for (int lane = 0; lane < count; ++lane) {
+				scalar.copyFrom(scalarPrefix).update(variables[lane], offsets[lane], lengths[lane]).update(suffix).digest(out[lane]);
+			}
+			return;
+		}
+
+		for (int lane = 0; lane < count; ++lane) {
+			fillMessage(lane, numberOfBlocks, variables[lane], offsets[lane], lengths[lane], suffix);
+		}
+		for (int i = 0; i < 8; ++i) {
+			Arrays.fill(stateOf(i), prefixState[i]);
+		}
+		for (int block = 0; block < numberOfBlocks; ++block) {
+			compress(count, block * Sha256.BLOCK_LENGTH);
+		}
+		for (int lane = 0; lane < count; ++lane) {
+			for (int i = 0; i < 8; ++i) {
+				final int s = stateOf(i)[lane];
+				out[lane][4 * i] = (byte) (s >>> 24);
+				out[lane][4 * i + 1] = (byte) (s >>> 16);
+				out[lane][4 * i + 2] = (byte) (s >>> 8);
+				out[lane][4 * i + 3] = (byte) s;
+			}
+		}
+	}
+
+	private int numberOfBlocks(final int length, final byte[] suffix) {
+		// The tail of the prefix, the actual message, the 0x80 marker and the length in bits
+		return (prefixTail.length + length + suffix.length + 1 + Long.BYTES + Sha256.BLOCK_LENGTH - 1) / Sha256.BLOCK_LENGTH;
+	}
+
+	private void fillMessage(final int lane, final int numberOfBlocks, final byte[] variable, final int offset,
+			final int length, final byte[] suffix) {
+		final int messageLength = numberOfBlocks * Sha256.BLOCK_LENGTH;
+		if (messages[lane].length < messageLength) {
+			messages[lane] = new byte[messageLength];
+		}
+		final byte[] message = messages[lane];
+		int position = 0;
+		System.arraycopy(prefixTail, 0, message, position, prefixTail.length);
+		position += prefixTail.length;
+		System.arraycopy(variable, offset, message, position, length);
+		position += length;
+		System.arraycopy(suffix, 0, message, position, suffix.length);
+		position += suffix.length;
+		message[position++] = (byte) 0x80;
+		Arrays.fill(message, position, messageLength - Long.BYTES, (byte) 0);
+		final long bitLength = (prefixLength + length + suffix.length) << 3;
+		for (int i = 0; i < Long.BYTES; ++i) {
+			message[messageLength - Long.BYTES + i] = (byte) (bitLength >>> (56 - 8 * i));
+		}
+	}
+
+	private int[] stateOf(final int i) {
+		switch (i) {
+			case 0: return a;
+			case 1: return b;
+			case 2: return c;
+			case 3: return d;
+			case 4: return e;
+			case 5: return f;
+			case 6: return g;
+			default: return h;
+		}
+	}
+
+	private void compress(final int count, final int offset) {
+		final int[] w = this.schedule;
+		for (int lane = 0; lane < count; ++lane) {
+			final byte[] message = messages[lane];
+			for (int t = 0; t < 16; ++t) {
+				final int i = offset + 4 * t;
+				w[t * LANES + lane] = (message[i] << 24) | ((message[i + 1] & 0xff) << 16) | ((message[i + 2] & 0xff) << 8)
+						| (message[i + 3] & 0xff);
+			}
+		}
+		for (int t = 16; t < 64; ++t) {
+			final int t15 = (t - 15) * LANES, t2 = (t - 2) * LANES, t16 = (t - 16) * LANES, t7 = (t - 7) * LANES;
+			final int target = t * LANES;
+			for (int lane = 0; lane < LANES; ++lane) {
+				final int w15 = w[t15 + lane];
+				final int w2 = w[t2 + lane];
+				final int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+				final int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+				w[target + lane] = w[t16 + lane] + s0 + w[t7 + lane] + s1;
+			}
+		}
+
+		for (int i = 0; i < 8; ++i) {
+			System.arraycopy(stateOf(i), 0, working[i], 0, LANES);
+		}
+		int[] va = working[0], vb = working[1], vc = working[2], vd = working[3];
+		int[] ve = working[4], vf = working[5], vg = working[6], vh = working[7];
+		for (int t = 0; t < 64; ++t) {
+			final int k = Sha256.K[t];
+			final int round = t * LANES;
+			for (int lane = 0; lane < LANES; ++lane) {
+				final int el = ve[lane];
+				final int al = va[lane];
+				final int s1 = Integer.rotateRight(el, 6) ^ Integer.rotateRight(el, 11) ^ Integer.rotateRight(el, 25);
+				final int ch = (el & vf[lane]) ^ (~el & vg[lane]);
+				final int t1 = vh[lane] + s1 + ch + k + w[round + lane];
+				final int s0 = Integer.rotateRight(al, 2) ^ Integer.rotateRight(al, 13) ^ Integer.rotateRight(al, 22);
+				final int maj = (al & vb[lane]) ^ (al & vc[lane]) ^ (vb[lane] & vc[lane]);
+				// h is not needed anymore and becomes the new a, d becomes the new e
+				vh[lane] = t1 + s0 + maj;
+				vd[lane] += t1;
+			}
+			final int[] newA = vh;
+			vh = vg;
+			vg = vf;
+			vf = ve;
+			ve = vd;
+			vd = vc;
+			vc = vb;
+			vb = va;
+			va = newA;
+		}
+		// After 64 rounds every array is back at its original position
+		for (int lane = 0; lane < LANES; ++lane) {
+			a[lane] += va[lane];
+			b[lane] += vb[lane];
+			c[lane] += vc[lane];
+			d[lane] += vd[lane];
+			e[lane] += ve[lane];
+			f[lane] += vf[lane];
+			g[lane] += vg[lane];
+			h[lane] += vh[lane];
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Another node of the network.
+ */
+public final class Node {
+	private final String id;
+
+	private final String host;
+
+	@JsonCreator
+	public Node(@JsonProperty("id") final String id, @JsonProperty("host") final String host) {
+		this.id = id;
+		this.host = host;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Node)) {
+			return false;
+		}
+		final Node node = (Node) o;
+		return Objects.equals(id, node.id) && Objects.equals(host, node.host);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, host);
+	}
+
+	@Override
+	public String toString() {
+		return "Node{id='" + id + "', host='" + host + "'}";
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reads the status and the blocks of another node.
+ */
+public interface NodeClient {
+
+	/**
+	 * @return The status of the node
+	 */
+	Mono<Status> getStatus();
+
+	/**
+	 * @param fromIndex The index of the first block
+	 * @param toIndex   The index of the last block, inclusive
+	 * @return The blocks of the node in the given range, in order, possibly without their hashes
+	 */
+	Flux<Block> getBlocks(int fromIndex, int toIndex);
+
+	/**
+	 * @return A client for the requests of a single sync, which may keep what the node has sent during the sync
+	 */
+	default NodeClient forSync() {
+		return this;
+	}
+
+	/**
+	 * @param webClient A client with the base URL of the node
+	 * @return A client reading from a node through its HTTP API
+	 */
+	static NodeClient of(final WebClient webClient) {
+		return new HttpNodeClient(webClient);
+	}
+
+	/**
+	 * @param nodeId The id of the node
+	 * @param chain  The chain of the node
+	 * @return A client reading from a node running in the same process
+	 */
+	static NodeClient of(final String nodeId, final Chain chain) {
+		return new NodeClient() {
+			@Override
+			public Mono<Status> getStatus() {
+				return Mono.fromSupplier(() -> new Status(nodeId, chain.getLength()));
+			}
+
+			@Override
+			public Flux<Block> getBlocks(final int fromIndex, final int toIndex) {
+				return chain.streamBlocks(fromIndex, toIndex);
+			}
+		};
+	}
+}
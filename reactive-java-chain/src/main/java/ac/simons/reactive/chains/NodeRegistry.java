@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * The other nodes a node syncs its chain with. Like the Kotlin node, nodes are registered by their host and asked
+ * for their id.
+ */
+public final class NodeRegistry {
+
+	/**
+	 * The id of this node.
+	 */
+	private final String nodeId;
+
+	/**
+	 * Creates clients for hosts.
+	 */
+	private final Function<String, NodeClient> clientFactory;
+
+	/**
+	 * The clients of all registered nodes by host, added before the node itself.
+	 */
+	private final Map<String, NodeClient> clients = new ConcurrentHashMap<>();
+
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param nodeId        The id of this node, so that it doesn't register itself
+	 * @param clientFactory Creates clients for hosts, for example through HTTP or in-process
+	 */
+	public NodeRegistry(final String nodeId, final Function<String, NodeClient> clientFactory) {
+		this.nodeId = Objects.requireNonNull(nodeId, "Node id is required.");
+		this.clientFactory = Objects.requireNonNull(clientFactory, "Client factory is required.");
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Registers the node running on the given host.
+	 *
+	 * @param host The host of the node, as understood by the client factory
+	 * @return The new node, empty if the host has already been registered or is this node
+	 */
+	public Mono<Node> register(final String host) {
+		return Mono.defer(() -> {
+			if (clients.containsKey(host)) {
+				return Mono.empty();
+			}
+			final NodeClient client = clientFactory.apply(host);
+			return client.getStatus()
+					// This node may be reached through a load balancer
+					.filter(status -> !nodeId.equals(status.getNodeId()))
+					.filter(status -> clients.putIfAbsent(host, client) == null)
+					.map(status -> {
+						final Node node = new Node(status.getNodeId(), host);
+						nodes.put(host, node);
+						return node;
+					});
+		});
+	}
+
+	/**
+	 * Removes a node, for example after it couldn't be reached. It can be registered again.
+	 *
+	 * @param node A registered node
+	 * @return Whether the node has been registered
+	 */
+	public boolean unregister(final Node node) {
+		final boolean removed = nodes.remove(node.getHost(), node);
+		if (removed) {
+			clients.remove(node.getHost());
+		}
+		return removed;
+	}
+
+	/**
+	 * @return All registered nodes
+	 */
+	public List<Node> getNodes() {
+		return List.copyOf(nodes.values());
+	}
+
+	/**
+	 * @param node A registered node
+	 * @return The client of the given node
+	 */
+	NodeClient getClient(final Node node) {
+		final NodeClient client = clients.get(node.getHost());
+		if (client == null) {
+			throw new IllegalArgumentException("Node " + node.getId() + " is not registered.");
+		}
+		return client;
+	}
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * The search for a proof of a single block template. The template is encoded exactly once and split into
+ * the bytes before the proof, the proof itself and the bytes after it. Each worker computes the SHA-256 state after
+ * the prefix upfront, so every candidate only hashes its proof and the suffix.
+ * <p>
+ * The hashes computed here are the same as {@link Chain#hash(Block)} would compute for {@code template.newCandidateOf(proof)}.
+ */
+final class NonceSearch {
+
+	/**
+	 * Two hashes differing in every byte, used to locate the previous block hash inside an encoded template.
+	 */
+	private static final String PLACEHOLDER_1 = String.join("", Collections.nCopies(2 * Sha256.DIGEST_LENGTH, "0"));
+
+	private static final String PLACEHOLDER_2 = String.join("", Collections.nCopies(2 * Sha256.DIGEST_LENGTH, "1"));
+
+	private final Block template;
+
+	private final BlockEncoding blockEncoding;
+
+	private final byte[] prefix;
+
+	private final byte[] suffix;
+
+	private final DigestProvider digestProvider;
+
+	static NonceSearch of(final Block template, final BlockEncoding blockEncoding, final DigestProvider digestProvider) {
+		// Two proofs that are encoded with the same length but differ in their first byte
+		final byte[] proof1 = new byte[BlockEncoding.MAX_PROOF_LENGTH];
+		final byte[] proof2 = new byte[BlockEncoding.MAX_PROOF_LENGTH];
+		long probe1 = 0;
+		long probe2 = 0;
+		int offset = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+			probe1 = 1L << shift;
+			probe2 = 2L << shift;
+			offset = blockEncoding.writeProof(probe1, proof1);
+			if (proof1[offset] != proof2[blockEncoding.writeProof(probe2, proof2)]) {
+				break;
+			}
+		}
+
+		final byte[] encoded1 = blockEncoding.encode(template.newCandidateOf(probe1));
+		final byte[] encoded2 = blockEncoding.encode(template.newCandidateOf(probe2));
+		int slot = 0;
+		while (slot < encoded1.length && slot < encoded2.length && encoded1[slot] == encoded2[slot]) {
+			++slot;
+		}
+		final int proofLength = BlockEncoding.MAX_PROOF_LENGTH - offset;
+		if (encoded1.length != encoded2.length || slot + proofLength > encoded1.length) {
+			throw new IllegalArgumentException("Block encoding does not contain a single proof slot.");
+		}
+
+		final NonceSearch nonceSearch = new NonceSearch(template, blockEncoding, Arrays.copyOfRange(encoded1, 0, slot),
+				Arrays.copyOfRange(encoded1, slot + proofLength, encoded1.length), digestProvider);
+		// Make sure the proof is actually rendered the same everywhere
+		for (long probe : new long[] { probe1, probe2, Long.MIN_VALUE }) {
+			if (!Arrays.equals(blockEncoding.encode(template.newCandidateOf(probe)), nonceSearch.render(probe))) {
+				throw new IllegalArgumentException("Block encoding does not contain a single proof slot.");
+			}
+		}
+		return nonceSearch;
+	}
+
+	/**
+	 * Encodes a template before its parent is known. The hash of the parent, the timestamp and the difficulty are
+	 * patched into the encoded template later on, as long as the encoding writes them as is and with the same width.
+	 *
+	 * @param template       The template, its previous block hash is ignored
+	 * @param blockEncoding  The encoding of blocks
+	 * @param digestProvider The provider for the digests of the workers
+	 * @return A template waiting for the hash of its parent
+	 */
+	static Prepared prepare(final Block template, final BlockEncoding blockEncoding, final DigestProvider digestProvider) {
+		final Block placeholderTemplate = template.withPreviousBlockHash(PLACEHOLDER_1);
+		final NonceSearch search1 = of(placeholderTemplate, blockEncoding, digestProvider);
+		final NonceSearch search2 = of(template.withPreviousBlockHash(PLACEHOLDER_2), blockEncoding, digestProvider);
+
+		final byte[] suffix1 = search1.suffix;
+		final byte[] suffix2 = search2.suffix;
+		int hashOffset = 0;
+		while (hashOffset < suffix1.length && hashOffset < suffix2.length && suffix1[hashOffset] == suffix2[hashOffset]) {
+			++hashOffset;
+		}
+		final int end = hashOffset + PLACEHOLDER_1.length();
+		final boolean patchable = Arrays.equals(search1.prefix, search2.prefix)
+				&& suffix1.length == suffix2.length && end <= suffix1.length
+				&& Arrays.equals(suffix1, hashOffset, end, PLACEHOLDER_1.getBytes(US_ASCII), 0, PLACEHOLDER_1.length())
+				&& Arrays.equals(suffix2, hashOffset, end, PLACEHOLDER_2.getBytes(US_ASCII), 0, PLACEHOLDER_2.length())
+				&& Arrays.equals(suffix1, end, suffix1.length, suffix2, end, suffix2.length);
+
+		// The slots of timestamp and difficulty are located in candidates with a proof of 0
+		final byte[] proofBuffer = new byte[BlockEncoding.MAX_PROOF_LENGTH];
+		final int proofLength = BlockEncoding.MAX_PROOF_LENGTH - blockEncoding.writeProof(0, proofBuffer);
+		final byte[] encoded = blockEncoding.encode(placeholderTemplate.newCandidateOf(0));
+		final long timestamp = template.getTimestamp();
+		final Slot timestampSlot = Slot.locate(encoded,
+				blockEncoding.encode(new Block(template.getIndex(), timestamp ^ 1, 0, template.getTransactions(), PLACEHOLDER_1,
+						template.getDifficulty())),
+				written(blockEncoding.writeTimestamp(timestamp, proofBuffer), proofBuffer),
+				written(blockEncoding.writeTimestamp(timestamp ^ 1, proofBuffer), proofBuffer),
+				search1.prefix.length, proofLength);
+		final Integer difficulty = template.getDifficulty();
+		final Slot difficultySlot = difficulty == null ? Slot.NONE : Slot.locate(encoded,
+				blockEncoding.encode(new Block(template.getIndex(), timestamp, 0, template.getTransactions(), PLACEHOLDER_1,
+						difficulty ^ 1)),
+				written(blockEncoding.writeDifficulty(difficulty, proofBuffer), proofBuffer),
+				written(blockEncoding.writeDifficulty(difficulty ^ 1, proofBuffer), proofBuffer),
+				search1.prefix.length, proofLength);
+		return new Prepared(search1, patchable ? hashOffset : -1, timestampSlot, difficultySlot);
+	}
+
+	/**
+	 * @param offset The offset returned by one of the methods of {@link BlockEncoding} writing a value
+	 * @param buffer The buffer the value was written to
+	 * @return The bytes written or {@literal null} if the value was not written
+	 */
+	private static byte[] written(final int offset, final byte[] buffer) {
+		return offset < 0 ? null : Arrays.copyOfRange(buffer, offset, buffer.length);
+	}
+
+	private NonceSearch(final Block template, final BlockEncoding blockEncoding, final byte[] prefix, final byte[] suffix,
+			final DigestProvider digestProvider) {
+		this.template = template;
+		this.blockEncoding = blockEncoding;
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.digestProvider = digestProvider;
+	}
+
+	Block getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return A new worker. Workers are not thread safe and must be confined to one thread.
+	 */
+	Worker newWorker() {
+		return new Worker();
+	}
+
+	private byte[] render(final long proof) {
+		final byte[] proofBuffer = new byte[BlockEncoding.MAX_PROOF_LENGTH];
+		final int offset = blockEncoding.writeProof(proof, proofBuffer);
+		final byte[] rendered = new byte[prefix.length + proofBuffer.length - offset + suffix.length];
+		System.arraycopy(prefix, 0, rendered, 0, prefix.length);
+		System.arraycopy(proofBuffer, offset, rendered, prefix.length, proofBuffer.length - offset);
+		System.arraycopy(suffix, 0, rendered, rendered.length - suffix.length, suffix.length);
+		return rendered;
+	}
+
+	/**
+	 * The position of a value inside an encoded template, counted in the prefix followed by the suffix, so that it
+	 * can be overwritten by a value encoded with the same width.
+	 */
+	private static final class Slot {
+		static final Slot NONE = new Slot(-1, 0);
+
+		private final int offset;
+
+		private final int length;
+
+		private Slot(final int offset, final int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * Locates a value by the candidates of a template that only differ in that value. The slot has to cover all
+		 * differing bytes and contain both values as rendered, which makes sure that writing the second value into
+		 * the first candidate results exactly in the second candidate.
+		 *
+		 * @param encoded1     A candidate with a proof of 0 containing the first value
+		 * @param encoded2     The same candidate containing the second value
+		 * @param rendered1    The first value, as written by the encoding
+		 * @param rendered2    The second value, as written by the encoding
+		 * @param prefixLength The number of bytes before the proof
+		 * @param proofLength  The number of bytes of the proof 0
+		 * @return The slot of the value or {@link #NONE} if it cannot be located
+		 */
+		static Slot locate(final byte[] encoded1, final byte[] encoded2, final byte[] rendered1, final byte[] rendered2,
+				final int prefixLength, final int proofLength) {
+			if (rendered1 == null || rendered2 == null || rendered1.length != rendered2.length
+					|| encoded1.length != encoded2.length) {
+				return NONE;
+			}
+			int first = 0;
+			while (first < encoded1.length && encoded1[first] == encoded2[first]) {
+				++first;
+			}
+			int last = encoded1.length - 1;
+			while (last > first && encoded1[last] == encoded2[last]) {
+				--last;
+			}
+			final int length = rendered1.length;
+			int offset = -1;
+			for (int candidate = Math.max(0, last - length + 1); candidate <= first && candidate + length <= encoded1.length; ++candidate) {
+				if (Arrays.equals(encoded1, candidate, candidate + length, rendered1, 0, length)
+						&& Arrays.equals(encoded2, candidate, candidate + length, rendered2, 0, length)) {
+					if (offset >= 0) {
+						return NONE;
+					}
+					offset = candidate;
+				}
+			}
+			if (first == encoded1.length || offset < 0) {
+				return NONE;
+			}
+			if (offset + length <= prefixLength) {
+				return new Slot(offset, length);
+			}
+			if (offset >= prefixLength + proofLength) {
+				return new Slot(offset - proofLength, length);
+			}
+			return NONE;
+		}
+
+		/**
+		 * @param rendered The value to write as rendered by the encoding, may be {@literal null}
+		 * @param prefix   The prefix of the template to write to
+		 * @param suffix   The suffix of the template to write to
+		 * @return {@literal true} if the value has been written
+		 */
+		boolean write(final byte[] rendered, final byte[] prefix, final byte[] suffix) {
+			if (offset < 0 || rendered == null || rendered.length != length) {
+				return false;
+			}
+			if (offset < prefix.length) {
+				System.arraycopy(rendered, 0, prefix, offset, length);
+			} else {
+				System.arraycopy(rendered, 0, suffix, offset - prefix.length, length);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * An encoded template waiting for the hash of its parent.
+	 */
+	static final class Prepared {
+		private final NonceSearch placeholderSearch;
+
+		/**
+		 * The offset of the previous block hash inside the suffix or {@literal -1} if it cannot be patched.
+		 */
+		private final int hashOffset;
+
+		private final Slot timestampSlot;
+
+		private final Slot difficultySlot;
+
+		private Prepared(final NonceSearch placeholderSearch, final int hashOffset, final Slot timestampSlot,
+				final Slot difficultySlot) {
+			this.placeholderSearch = placeholderSearch;
+			this.hashOffset = hashOffset;
+			this.timestampSlot = timestampSlot;
+			this.difficultySlot = difficultySlot;
+		}
+
+		Block getTemplate() {
+			return placeholderSearch.template;
+		}
+
+		/**
+		 * @param previousBlockHash The hash of the parent
+		 * @return A search for the completed template
+		 */
+		NonceSearch withPreviousBlockHash(final String previousBlockHash) {
+			final Block template = placeholderSearch.template;
+			return complete(template.getTimestamp(), template.getDifficulty(), previousBlockHash);
+		}
+
+		/**
+		 * Completes the template once its parent has been found. Hash of the parent, timestamp and difficulty are
+		 * patched into the encoded template. Only if one of them is encoded with a different width than before, the
+		 * template is encoded again.
+		 *
+		 * @param timestamp         The timestamp of the block
+		 * @param difficulty        The difficulty of the block in bits
+		 * @param previousBlockHash The hash of the parent
+		 * @return A search for the completed template
+		 */
+		NonceSearch complete(final long timestamp, final Integer difficulty, final String previousBlockHash) {
+			final Block template = placeholderSearch.template;
+			final Block completed = new Block(template.getIndex(), timestamp, template.getProof(), template.getTransactions(),
+					previousBlockHash, difficulty);
+			final BlockEncoding blockEncoding = placeholderSearch.blockEncoding;
+			final byte[] prefix = placeholderSearch.prefix.clone();
+			final byte[] suffix = placeholderSearch.suffix.clone();
+			final byte[] buffer = new byte[BlockEncoding.MAX_PROOF_LENGTH];
+			final boolean patched = hashOffset >= 0
+					&& previousBlockHash.length() == PLACEHOLDER_1.length() && isAscii(previousBlockHash)
+					&& (timestamp == template.getTimestamp()
+							|| timestampSlot.write(written(blockEncoding.writeTimestamp(timestamp, buffer), buffer), prefix, suffix))
+					&& (Objects.equals(difficulty, template.getDifficulty()) || difficulty != null
+							&& difficultySlot.write(written(blockEncoding.writeDifficulty(difficulty, buffer), buffer), prefix, suffix));
+			if (!patched) {
+				return of(completed, blockEncoding, placeholderSearch.digestProvider);
+			}
+
+			for (int i = 0; i < previousBlockHash.length(); ++i) {
+				suffix[hashOffset + i] = (byte) previousBlockHash.charAt(i);
+			}
+			return new NonceSearch(completed, blockEncoding, prefix, suffix, placeholderSearch.digestProvider);
+		}
+
+		private static boolean isAscii(final String value) {
+			for (int i = 0; i < value.length(); ++i) {
+				if (value.charAt(i) >= 0x80) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Hashes candidates of the template without encoding them.
+	 */
+	final class Worker {
+		private final DigestProvider.PrefixedDigest prefixedDigest = digestProvider.newPrefixedDigest(prefix);
+
+		private final byte[] proofBuffer = new byte[BlockEncoding.MAX_PROOF_LENGTH];
+
+		private final byte[] digest = new byte[Sha256.DIGEST_LENGTH];
+
+		private final int lanes = Math.max(1, prefixedDigest.getLanes());
+
+		private final byte[][] proofBuffers = new byte[lanes][BlockEncoding.MAX_PROOF_LENGTH];
+
+		private final int[] offsets = new int[lanes];
+
+		private final int[] lengths = new int[lanes];
+
+		private final byte[][] digests = new byte[lanes][Sha256.DIGEST_LENGTH];
+
+		/**
+		 * @return The number of consecutive proofs best hashed at once
+		 */
+		int getLanes() {
+			return lanes;
+		}
+
+		/**
+		 * Computes the hashes of {@code count} consecutive proofs. The returned arrays are reused on the next call.
+		 *
+		 * @param firstProof The proof of the first candidate
+		 * @param count      The number of candidates, at most {@link #getLanes()}
+		 * @return The raw SHA-256 digests of the candidates, in order of their proofs
+		 */
+		byte[][] hash(final long firstProof, final int count) {
+			if (lanes == 1) {
+				hash(firstProof);
+				System.arraycopy(digest, 0, digests[0], 0, digest.length);
+				return digests;
+			}
+			for (int i = 0; i < count; ++i) {
+				offsets[i] = blockEncoding.writeProof(firstProof + i, proofBuffers[i]);
+				lengths[i] = BlockEncoding.MAX_PROOF_LENGTH - offsets[i];
+			}
+			prefixedDigest.digest(count, proofBuffers, offsets, lengths, suffix, digests);
+			return digests;
+		}
+
+		/**
+		 * Computes the hash of the candidate with the given proof. The returned array is reused on the next call.
+		 *
+		 * @param proof The proof of the candidate
+		 * @return The raw SHA-256 digest of the candidate
+		 */
+		byte[] hash(final long proof) {
+			final int offset = blockEncoding.writeProof(proof, proofBuffer);
+			prefixedDigest.digest(proofBuffer, offset, BlockEncoding.MAX_PROOF_LENGTH - offset, suffix, digest);
+			return digest;
+		}
+	}
+}
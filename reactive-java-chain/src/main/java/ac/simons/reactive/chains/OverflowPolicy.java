@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+/**
+ * What happens to new transactions when the pending transactions of a chain are at capacity.
+ */
+public enum OverflowPolicy {
+	/**
+	 * New transactions are rejected.
+	 */
+	REJECT,
+	/**
+	 * The oldest pending transactions are dropped to make room.
+	 */
+	EVICT_OLDEST,
+	/**
+	 * The pending transactions with the largest payloads are dropped to make room.
+	 */
+	EVICT_LARGEST
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.Arrays;
+
+/**
+ * A plain Java SHA-256 whose intermediate state can be copied. That allows hashing a common prefix once
+ * and restoring the state after it for every candidate without any allocation, something
+ * {@link java.security.MessageDigest} only offers through {@code clone()}.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class Sha256 {
+
+	static final int DIGEST_LENGTH = 32;
+
+	static final int BLOCK_LENGTH = 64;
+
+	static final int[] K = {
+			0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+			0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+			0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+			0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+			0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+			0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+			0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+			0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+	};
+
+	static final int[] INITIAL_STATE = {
+			0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+	};
+
+	private final int[] state = new int[8];
+
+	private final int[] schedule = new int[64];
+
+	private final byte[] buffer = new byte[BLOCK_LENGTH];
+
+	private int bufferLength;
+
+	private long length;
+
+	Sha256() {
+		reset();
+	}
+
+	Sha256 reset() {
+		System.arraycopy(INITIAL_STATE, 0, state, 0, state.length);
+		this.bufferLength = 0;
+		this.length = 0;
+		return this;
+	}
+
+	/**
+	 * Restores the state of {@code other} into this instance.
+	 *
+	 * @param other The instance whose state should be copied
+	 * @return This instance
+	 */
+	Sha256 copyFrom(final Sha256 other) {
+		System.arraycopy(other.state, 0, state, 0, state.length);
+		System.arraycopy(other.buffer, 0, buffer, 0, other.bufferLength);
+		this.bufferLength = other.bufferLength;
+		this.length = other.length;
+		return this;
+	}
+
+	/**
+	 * @param out Target of the state after all complete blocks seen so far, must have room for 8 ints
+	 */
+	void getState(final int[] out) {
+		System.arraycopy(state, 0, out, 0, state.length);
+	}
+
+	/**
+	 * @return The bytes seen so far that don't make up a complete block yet
+	 */
+	byte[] getBufferedBytes() {
+		return Arrays.copyOf(buffer, bufferLength);
+	}
+
+	/**
+	 * @return The number of bytes seen so far
+	 */
+	long getLength() {
+		return length;
+	}
+
+	Sha256 update(final byte[] input) {
+		return update(input, 0, input.length);
+	}
+
+	Sha256 update(final byte[] input, int offset, int len) {
+		this.length += len;
+		if (bufferLength > 0) {
+			final int n = Math.min(BLOCK_LENGTH - bufferLength, len);
+			System.arraycopy(input, offset, buffer, bufferLength, n);
+			bufferLength += n;
+			offset += n;
+			len -= n;
+			if (bufferLength == BLOCK_LENGTH) {
+				compress(buffer, 0);
+				bufferLength = 0;
+			}
+		}
+		while (len >= BLOCK_LENGTH) {
+			compress(input, offset);
+			offset += BLOCK_LENGTH;
+			len -= BLOCK_LENGTH;
+		}
+		if (len > 0) {
+			System.arraycopy(input, offset, buffer, 0, len);
+			bufferLength = len;
+		}
+		return this;
+	}
+
+	/**
+	 * Finishes the computation, writes the digest to {@code out} and resets this instance.
+	 *
+	 * @param out Target of the digest, must have room for {@link #DIGEST_LENGTH} bytes
+	 */
+	void digest(final byte[] out) {
+		final long bitLength = length << 3;
+		buffer[bufferLength++] = (byte) 0x80;
+		if (bufferLength > BLOCK_LENGTH - 8) {
+			Arrays.fill(buffer, bufferLength, BLOCK_LENGTH, (byte) 0);
+			compress(buffer, 0);
+			bufferLength = 0;
+		}
+		Arrays.fill(buffer, bufferLength, BLOCK_LENGTH - 8, (byte) 0);
+		for (int i = 0; i < 8; ++i) {
+			buffer[BLOCK_LENGTH - 8 + i] = (byte) (bitLength >>> (56 - 8 * i));
+		}
+		compress(buffer, 0);
+
+		for (int i = 0; i < state.length; ++i) {
+			final int s = state[i];
+			out[4 * i] = (byte) (s >>> 24);
+			out[4 * i + 1] = (byte) (s >>> 16);
+			out[4 * i + 2] = (byte) (s >>> 8);
+			out[4 * i + 3] = (byte) s;
+		}
+		reset();
+	}
+
+	byte[] digest() {
+		final byte[] out = new byte[DIGEST_LENGTH];
+		digest(out);
+		return out;
+	}
+
+	private void compress(final byte[] block, final int offset) {
+		final int[] w = this.schedule;
+		for (int t = 0; t < 16; ++t) {
+			final int i = offset + 4 * t;
+			w[t] = (block[i] << 24) | ((block[i + 1] & 0xff) << 16) | ((block[i + 2] & 0xff) << 8) | (block[i + 3] & 0xff);
+		}
+		for (int t = 16; t < 64; ++t) {
+			final int w15 = w[t - 15];
+			final int w2 = w[t - 2];
+			final int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+			final int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+			w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+		}
+
+		int a = state[0], b = state[1], c = state[2], d = state[3];
+		int e = state[4], f = state[5], g = state[6], h = state[7];
+		for (int t = 0; t < 64; ++t) {
+			final int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+			final int ch = (e & f) ^ (~e & g);
+			final int t1 = h + s1 + ch + K[t] + w[t];
+			final int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+			final int maj = (a & b) ^ (a & c) ^ (b & c);
+			final int t2 = s0 + maj;
+			h = g;
+			g = f;
+			f = e;
+			e = d + t1;
+			d = c;
+			c = b;
+			b = a;
+			a = t1 + t2;
+		}
+		state[0] += a;
+		state[1] += b;
+		state[2] += c;
+		state[3] += d;
+		state[4] += e;
+		state[5] += f;
+		state[6] += g;
+		state[7] += h;
+	}
+}
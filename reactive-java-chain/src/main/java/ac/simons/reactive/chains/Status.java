@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The status of a node as served by {@code GET /}, the same for the Java and the Kotlin node.
+ */
+public final class Status {
+	private final String nodeId;
+
+	/**
+	 * The number of blocks of the chain of the node.
+	 */
+	private final int currentBlockHeight;
+
+	@JsonCreator
+	public Status(@JsonProperty("nodeId") final String nodeId, @JsonProperty("currentBlockHeight") final int currentBlockHeight) {
+		this.nodeId = nodeId;
+		this.currentBlockHeight = currentBlockHeight;
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public int getCurrentBlockHeight() {
+		return currentBlockHeight;
+	}
+
+	@Override
+	public String toString() {
+		return "Status{nodeId='" + nodeId + "', currentBlockHeight=" + currentBlockHeight + "}";
+	}
+}
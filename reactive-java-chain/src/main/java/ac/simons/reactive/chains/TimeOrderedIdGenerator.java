@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Time ordered ids in the canonical format of UUIDs.
+ *
+ * @see TransactionIdGenerator#timeOrdered(int)
+ */
+final class TimeOrderedIdGenerator implements TransactionIdGenerator {
+	static final int MAX_NODE = 0xFFFF;
+
+	private static final int COUNTER_BITS = 12;
+
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(US_ASCII);
+
+	private final long node;
+
+	private final LongSupplier clock;
+
+	/**
+	 * Milliseconds and counter of the last id. The counter carries over into the milliseconds, so that a
+	 * generator may run slightly ahead of the clock when more than 4096 ids are requested in one millisecond.
+	 */
+	private final AtomicLong last = new AtomicLong();
+
+	TimeOrderedIdGenerator(final int node, final LongSupplier clock) {
+		if (node < 0 || node > MAX_NODE) {
+			throw new IllegalArgumentException("Node must be between 0 and " + MAX_NODE + ".");
+		}
+		this.node = node;
+		this.clock = clock;
+	}
+
+	@Override
+	public String nextId() {
+		final long initial = clock.getAsLong() << COUNTER_BITS;
+		long previous;
+		long next;
+		do {
+			previous = last.get();
+			next = Math.max(previous + 1, initial);
+		} while (!last.compareAndSet(previous, next));
+
+		// 48 bits of time, version 7, 12 bits of counter
+		final long mostSignificantBits = (next >>> COUNTER_BITS) << 16 | 0x7000L | (next & 0xFFFL);
+		// Variant 2, 16 bits of node, 46 random bits
+		final long leastSignificantBits = 0x8000_0000_0000_0000L | node << 46
+				| (ThreadLocalRandom.current().nextLong() & 0x3FFF_FFFF_FFFFL);
+		return format(mostSignificantBits, leastSignificantBits);
+	}
+
+	static String format(final long mostSignificantBits, final long leastSignificantBits) {
+		final byte[] buffer = new byte[36];
+		writeHex(buffer, 0, mostSignificantBits >>> 32, 8);
+		buffer[8] = '-';
+		writeHex(buffer, 9, mostSignificantBits >>> 16, 4);
+		buffer[13] = '-';
+		writeHex(buffer, 14, mostSignificantBits, 4);
+		buffer[18] = '-';
+		writeHex(buffer, 19, leastSignificantBits >>> 48, 4);
+		buffer[23] = '-';
+		writeHex(buffer, 24, leastSignificantBits, 12);
+		// Latin 1 strings are stored as they are
+		return new String(buffer, ISO_8859_1);
+	}
+
+	private static void writeHex(final byte[] buffer, final int offset, long value, final int digits) {
+		for (int i = offset + digits - 1; i >= offset; --i) {
+			buffer[i] = HEX_DIGITS[(int) value & 0xF];
+			value >>>= 4;
+		}
+	}
+}
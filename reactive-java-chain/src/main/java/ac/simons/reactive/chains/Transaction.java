@@ -15,6 +15,10 @@
  */
 package ac.simons.reactive.chains;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 /**
  * An arbitrary, untyped transaction which can be contained in the block of a chain.
  */
@@ -25,10 +29,24 @@ public class Transaction {
 
 	private final String payload;
 
+	/**
+	 * The fee offered for including this transaction into a block, higher fees are included first. Transactions
+	 * without fee are encoded as before.
+	 */
+	@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+	private final long fee;
+
 	public Transaction(String id, long timestamp, String payload) {
+		this(id, timestamp, payload, 0);
+	}
+
+	@JsonCreator
+	public Transaction(@JsonProperty("id") String id, @JsonProperty("timestamp") long timestamp,
+			@JsonProperty("payload") String payload, @JsonProperty("fee") long fee) {
 		this.id = id;
 		this.timestamp = timestamp;
 		this.payload = payload;
+		this.fee = fee;
 	}
 
 	public String getId() {
@@ -42,4 +60,8 @@ public class Transaction {
 	public String getPayload() {
 		return payload;
 	}
+
+	public long getFee() {
+		return fee;
+	}
 }
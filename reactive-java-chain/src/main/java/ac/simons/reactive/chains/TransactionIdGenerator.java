@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates the ids of new transactions. Implementations must be thread safe.
+ */
+@FunctionalInterface
+public interface TransactionIdGenerator {
+
+	/**
+	 * Name of the generator of time ordered ids.
+	 */
+	String TIME_ORDERED = "time-ordered";
+
+	/**
+	 * Name of the generator of random (version 4) UUIDs.
+	 */
+	String RANDOM_UUID = "random-uuid";
+
+	/**
+	 * @return A new, unique id
+	 */
+	String nextId();
+
+	/**
+	 * Selects a generator by name: {@link #RANDOM_UUID} selects {@link #randomUuid()}, every other name, including
+	 * null, {@link #timeOrdered(int)}.
+	 *
+	 * @param name The name of the generator, may be null
+	 * @param node The node used by time ordered ids, may be null for a random one
+	 * @return A generator
+	 */
+	static TransactionIdGenerator of(final String name, final Integer node) {
+		if (RANDOM_UUID.equals(name)) {
+			return randomUuid();
+		}
+		if (name != null && !name.trim().isEmpty() && !TIME_ORDERED.equals(name)) {
+			throw new IllegalArgumentException("Unknown transaction id generator " + name + ".");
+		}
+		return node == null ? timeOrdered() : timeOrdered(node);
+	}
+
+	/**
+	 * Uses {@link UUID#randomUUID()}, that's what the chain did in the beginning. All threads share the same
+	 * {@link SecureRandom}.
+	 *
+	 * @return A generator of random UUIDs
+	 */
+	static TransactionIdGenerator randomUuid() {
+		return () -> UUID.randomUUID().toString();
+	}
+
+	/**
+	 * @return A generator of time ordered ids for a random node
+	 * @see #timeOrdered(int)
+	 */
+	static TransactionIdGenerator timeOrdered() {
+		return timeOrdered(new SecureRandom().nextInt(TimeOrderedIdGenerator.MAX_NODE + 1));
+	}
+
+	/**
+	 * Creates a generator of time ordered ids, laid out like version 7 UUIDs: 48 bits of milliseconds since the
+	 * epoch, a 12 bit counter, the 16 bit node and 46 random bits. Ids of one generator increase strictly
+	 * monotonic, also if the clock goes backwards. Ids of different nodes never collide. The random bits come from
+	 * {@link ThreadLocalRandom}, so the ids must not be used where they have to be unpredictable.
+	 *
+	 * @param node The node, between 0 and 65535
+	 * @return A generator of time ordered ids
+	 */
+	static TransactionIdGenerator timeOrdered(final int node) {
+		return new TimeOrderedIdGenerator(node, System::currentTimeMillis);
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * A write-ahead log of queued transactions, so that accepted transactions survive a crash. Every transaction is
+ * written as a record of its length, a CRC32 and its {@link BinaryBlockEncoding binary encoding}.
+ * <p>
+ * Appending doesn't force the log to disk on its own: a single writer thread takes all appends that have been
+ * waiting while it forced the previous group, writes them at once and forces the log once for all of them (group
+ * commit). The more concurrent appends, the larger the groups, so the number of syncs per second stays bounded by
+ * the latency of the disk and not by the number of requests. The sizes of the groups ({@code chain.transactions.log.group})
+ * and the time spent forcing them ({@code chain.transactions.log.sync}) are recorded.
+ * <p>
+ * On opening, all complete records are read and a torn tail is truncated. The log is compacted to the still pending
+ * transactions with {@link #compact(List, long)}, while appends continue.
+ */
+final class TransactionLog implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(TransactionLog.class.getName());
+
+	private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+	/**
+	 * Stops the writer after all appends queued before it. The writer is not interrupted, as that would close the
+	 * channel.
+	 */
+	private static final Append STOP = new Append(ByteBuffer.allocate(0));
+
+	private final Path file;
+
+	private final int maxGroupSize;
+
+	private final BinaryBlockEncoding encoding = new BinaryBlockEncoding();
+
+	private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>();
+
+	private final Thread writer;
+
+	private final List<Transaction> recovered;
+
+	private final DistributionSummary groupSizes;
+
+	private final Timer syncTimer;
+
+	/**
+	 * Guarded by this, replaced when compacting.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Guarded by this.
+	 */
+	private long size;
+
+	/**
+	 * Guarded by this.
+	 */
+	private long numberOfSyncs;
+
+	private volatile boolean closed;
+
+	/**
+	 * Opens or creates a log, recovering from a torn tail.
+	 *
+	 * @param file          The file of the log, its directory must exist
+	 * @param maxGroupSize  The maximum number of appends forced at once
+	 * @param meterRegistry The registry the meters of the log are registered with
+	 * @return The opened log
+	 */
+	static TransactionLog open(final Path file, final int maxGroupSize, final MeterRegistry meterRegistry) {
+		if (maxGroupSize < 1) {
+			throw new IllegalArgumentException("Groups must contain at least one append.");
+		}
+		try {
+			return new TransactionLog(file, maxGroupSize, meterRegistry);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open transaction log " + file, e);
+		}
+	}
+
+	private TransactionLog(final Path file, final int maxGroupSize, final MeterRegistry meterRegistry) throws IOException {
+		this.file = file;
+		this.maxGroupSize = maxGroupSize;
+		this.groupSizes = DistributionSummary.builder("chain.transactions.log.group")
+				.baseUnit("append")
+				.register(meterRegistry);
+		this.syncTimer = meterRegistry.timer("chain.transactions.log.sync");
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.recovered = Collections.unmodifiableList(recover());
+		this.writer = new Thread(this::write, "transaction-log-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * @return The transactions found in the log when it was opened, in order
+	 */
+	List<Transaction> getRecoveredTransactions() {
+		return recovered;
+	}
+
+	/**
+	 * @return The number of times the log has been forced to disk since it has been opened
+	 */
+	synchronized long getNumberOfSyncs() {
+		return numberOfSyncs;
+	}
+
+	/**
+	 * Appends transactions on subscription.
+	 *
+	 * @param transactions The transactions to append
+	 * @return Completes when the transactions are on disk, on the parallel scheduler, so that the writer goes on with
+	 * the next group right away
+	 */
+	Mono<Void> append(final List<Transaction> transactions) {
+		return Mono.defer(() -> {
+			final List<byte[]> encoded = new ArrayList<>(transactions.size());
+			int length = 0;
+			for (Transaction transaction : transactions) {
+				final byte[] bytes = encoding.encode(transaction);
+				encoded.add(bytes);
+				length += RECORD_HEADER_SIZE + bytes.length;
+			}
+			final ByteBuffer records = ByteBuffer.allocate(length);
+			final CRC32 crc = new CRC32();
+			for (byte[] bytes : encoded) {
+				crc.reset();
+				crc.update(bytes);
+				records.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes);
+			}
+			final Append append = new Append(records.flip());
+			// Closing takes the same lock, so no append is left behind after the last group
+			synchronized (appends) {
+				if (closed) {
+					return Mono.error(new IllegalStateException("The transaction log has been closed."));
+				}
+				appends.add(append);
+			}
+			return Mono.fromFuture(append.durable).publishOn(Schedulers.parallel());
+		});
+	}
+
+	/**
+	 * @return The end of the records written so far, records of pending appends will follow it
+	 */
+	synchronized long getMark() {
+		return size;
+	}
+
+	/**
+	 * Replaces the content of the log with the given transactions.
+	 *
+	 * @param transactions The transactions to keep
+	 */
+	void compact(final List<Transaction> transactions) {
+		compact(transactions, getMark());
+	}
+
+	/**
+	 * Replaces the content of the log with the given transactions, followed by the records written after the given
+	 * mark. Appends continue while the transactions are written and wait only while the records after the mark are
+	 * copied. Must not be called concurrently to itself.
+	 *
+	 * @param transactions The transactions to keep, at least those whose records are in front of the mark and that
+	 *                     are still pending
+	 * @param mark         A {@link #getMark() mark} taken before the transactions to keep have been collected
+	 */
+	void compact(final List<Transaction> transactions, final long mark) {
+		if (closed) {
+			return;
+		}
+		final Path compacted = file.resolveSibling(file.getFileName() + ".compacted");
+		try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final CRC32 crc = new CRC32();
+			long position = 0;
+			for (Transaction transaction : transactions) {
+				final byte[] bytes = encoding.encode(transaction);
+				crc.reset();
+				crc.update(bytes);
+				final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length)
+						.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes);
+				position += writeFully(target, record.flip(), position);
+			}
+			synchronized (this) {
+				if (closed) {
+					Files.delete(compacted);
+					return;
+				}
+				// Transactions appended meanwhile may not be part of the given ones
+				long copied = 0;
+				while (copied < size - mark) {
+					copied += channel.transferTo(mark + copied, size - mark - copied, target.position(position + copied));
+				}
+				target.force(true);
+				channel.close();
+				Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				size = channel.size();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not compact transaction log " + file, e);
+		}
+	}
+
+	/**
+	 * Forces all appends so far and closes the log.
+	 */
+	@Override
+	public void close() {
+		synchronized (appends) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			appends.add(STOP);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not close transaction log " + file, e);
+			}
+		}
+	}
+
+	private void write() {
+		final List<Append> group = new ArrayList<>(maxGroupSize);
+		boolean running = true;
+		while (running) {
+			try {
+				group.add(appends.take());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			appends.drainTo(group, maxGroupSize - 1);
+			running = !group.remove(STOP);
+			writeGroup(group);
+			group.clear();
+		}
+	}
+
+	private void writeGroup(final List<Append> group) {
+		if (group.isEmpty()) {
+			return;
+		}
+		Throwable failure = null;
+		synchronized (this) {
+			try {
+				for (Append append : group) {
+					size += writeFully(channel, append.records, size);
+				}
+				final long start = System.nanoTime();
+				channel.force(false);
+				++numberOfSyncs;
+				syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				groupSizes.record(group.size());
+			} catch (IOException | RuntimeException e) {
+				failure = e;
+			}
+		}
+		// Complete outside the lock, subscribers continue on the scheduler of append
+		for (Append append : group) {
+			if (failure == null) {
+				append.durable.complete(null);
+			} else {
+				append.durable.completeExceptionally(failure);
+			}
+		}
+	}
+
+	private List<Transaction> recover() throws IOException {
+		final List<Transaction> transactions = new ArrayList<>();
+		final long fileSize = channel.size();
+		final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		final CRC32 crc = new CRC32();
+		long offset = 0;
+		while (offset + RECORD_HEADER_SIZE <= fileSize) {
+			header.clear();
+			readFully(channel, header, offset);
+			final int length = header.getInt(0);
+			if (length < 0 || offset + RECORD_HEADER_SIZE + length > fileSize) {
+				break;
+			}
+			final ByteBuffer record = ByteBuffer.allocate(length);
+			readFully(channel, record, offset + RECORD_HEADER_SIZE);
+			crc.reset();
+			crc.update(record.array());
+			if ((int) crc.getValue() != header.getInt(Integer.BYTES)) {
+				break;
+			}
+			transactions.add(encoding.decodeTransaction(record.flip()));
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		if (offset < fileSize) {
+			final long validSize = offset;
+			LOGGER.warning(() -> "Truncating torn tail of " + file + " from " + fileSize + " to " + validSize + " bytes.");
+			channel.truncate(validSize);
+			channel.force(true);
+		}
+		this.size = offset;
+		return transactions;
+	}
+
+	private static int writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		final int length = buffer.remaining();
+		long current = position;
+		while (buffer.hasRemaining()) {
+			current += channel.write(buffer, current);
+		}
+		return length;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		long current = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, current);
+			if (read < 0) {
+				throw new IOException("Unexpected end of " + channel);
+			}
+			current += read;
+		}
+	}
+
+	private static final class Append {
+		private final ByteBuffer records;
+
+		private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+		Append(final ByteBuffer records) {
+			this.records = records;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Where a transaction is right now: pending, that is waiting in the mempool or being mined, or confirmed by a block
+ * of the chain.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class TransactionStatus {
+
+	public enum State {
+		PENDING, CONFIRMED
+	}
+
+	private final Transaction transaction;
+
+	private final State state;
+
+	private final Integer blockIndex;
+
+	private final String blockHash;
+
+	static TransactionStatus pending(final Transaction transaction) {
+		return new TransactionStatus(transaction, State.PENDING, null, null);
+	}
+
+	static TransactionStatus confirmed(final Transaction transaction, final Block block) {
+		return new TransactionStatus(transaction, State.CONFIRMED, block.getIndex(), block.getHash());
+	}
+
+	private TransactionStatus(final Transaction transaction, final State state, final Integer blockIndex,
+			final String blockHash) {
+		this.transaction = transaction;
+		this.state = state;
+		this.blockIndex = blockIndex;
+		this.blockHash = blockHash;
+	}
+
+	public Transaction getTransaction() {
+		return transaction;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The index of the block containing the transaction, null while pending
+	 */
+	public Integer getBlockIndex() {
+		return blockIndex;
+	}
+
+	/**
+	 * @return The hash of the block containing the transaction, null while pending
+	 */
+	public String getBlockHash() {
+		return blockHash;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+/**
+ * Validates the chain on request and reports the progress of the latest validation, one at a time.
+ */
+@Endpoint(id = "validation")
+final class ValidationEndpoint {
+
+	private final Chain chain;
+
+	private final Duration progressInterval;
+
+	private final AtomicReference<ValidationProgress> latest = new AtomicReference<>();
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	ValidationEndpoint(final Chain chain, final Duration progressInterval) {
+		this.chain = chain;
+		this.progressInterval = progressInterval;
+	}
+
+	/**
+	 * @return The progress of the latest validation, null if the chain hasn't been validated yet
+	 */
+	@ReadOperation
+	public ValidationProgress progress() {
+		return latest.get();
+	}
+
+	/**
+	 * Starts a validation, unless one is running.
+	 *
+	 * @return The progress of the running validation
+	 */
+	@WriteOperation
+	public ValidationProgress validate() {
+		if (running.compareAndSet(false, true)) {
+			latest.set(new ValidationProgress(ValidationProgress.State.RUNNING, chain.getLength(), 0, 0, null, null));
+			chain.validate(progressInterval)
+					.doFinally(signal -> running.set(false))
+					.subscribe(latest::set, e -> latest.set(null));
+		}
+		return latest.get();
+	}
+}
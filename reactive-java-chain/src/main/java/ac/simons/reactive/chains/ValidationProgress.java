@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * How far a validation of the chain has come and, once done, whether the chain is valid and where it isn't.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class ValidationProgress {
+
+	public enum State {
+		RUNNING, VALID, INVALID, CANCELLED
+	}
+
+	private final State state;
+
+	private final int numberOfBlocks;
+
+	private final long validatedBlocks;
+
+	private final long elapsedMillis;
+
+	private final Integer firstInvalidIndex;
+
+	private final String reason;
+
+	ValidationProgress(final State state, final int numberOfBlocks, final long validatedBlocks, final long elapsedMillis,
+			final Integer firstInvalidIndex, final String reason) {
+		this.state = state;
+		this.numberOfBlocks = numberOfBlocks;
+		this.validatedBlocks = validatedBlocks;
+		this.elapsedMillis = elapsedMillis;
+		this.firstInvalidIndex = firstInvalidIndex;
+		this.reason = reason;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The number of blocks being validated, blocks appended after the validation started are not included
+	 */
+	public int getNumberOfBlocks() {
+		return numberOfBlocks;
+	}
+
+	/**
+	 * @return The number of blocks found valid so far, not necessarily in order
+	 */
+	public long getValidatedBlocks() {
+		return validatedBlocks;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @return The index of the first invalid block found so far, null while none has been found
+	 */
+	public Integer getFirstInvalidIndex() {
+		return firstInvalidIndex;
+	}
+
+	/**
+	 * @return Why the first invalid block is invalid, null while none has been found
+	 */
+	public String getReason() {
+		return reason;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which are only available on JDK 21 and newer while the chain is still built for JDK 10.
+ */
+final class VirtualThreads {
+
+	/**
+	 * @return An executor starting a new virtual thread for each task
+	 * @throws IllegalStateException if the JDK doesn't support virtual threads
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("Virtual threads require JDK 21 or newer, running on " + Runtime.version() + ".");
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Could not create an executor for virtual threads.", e);
+		}
+	}
+
+	private VirtualThreads() {
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+public class ApplicationTest {
+	private static final ParameterizedTypeReference<ServerSentEvent<Map<String, Object>>> SERVER_SENT_EVENT_TYPE = new ParameterizedTypeReference<>() {
+	};
+
+	private static final ParameterizedTypeReference<Event<?>> EVENT_TYPE = new ParameterizedTypeReference<>() {
+	};
+
+	private final Chain chain = Chain.defaultChain();
+
+	private final EventPublisher eventPublisher;
+
+	private final WebTestClient client;
+
+	public ApplicationTest() {
+		var chainProperties = new ChainProperties();
+		chainProperties.setTransactionBatchSize(7);
+		var application = new Application();
+		this.eventPublisher = application.eventPublisher(chain, chainProperties, new SimpleMeterRegistry());
+		this.client = WebTestClient
+				.bindToRouterFunction(application.router(chain, chainProperties, Schedulers.immediate(), eventPublisher))
+				.build();
+	}
+
+	@Test
+	public void shouldQueueBatchesFromNewlineDelimitedJson() {
+		var body = IntStream.range(0, 100).mapToObj(i -> "\"Transaction " + i + "\"").collect(Collectors.joining("\n"));
+
+		var ids = client.post().uri("/transactions/batch")
+				.contentType(Application.APPLICATION_NDJSON)
+				.syncBody(body)
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().contentType(MediaType.APPLICATION_STREAM_JSON)
+				.returnResult(new ParameterizedTypeReference<Map<String, String>>() { })
+				.getResponseBody().map(id -> id.get("id")).collectList().block();
+
+		assertThat(ids).hasSize(100).doesNotHaveDuplicates();
+		assertThat(chain.getNumberOfPendingTransactions()).isEqualTo(100);
+		assertThat(chain.selectTransactions(3)).extracting(Transaction::getPayload)
+				.containsExactly("Transaction 0", "Transaction 1", "Transaction 2");
+	}
+
+	@Test
+	public void shouldQueueBatchesFromJsonArrays() {
+		var ids = client.post().uri("/transactions/batch")
+				.contentType(MediaType.APPLICATION_JSON)
+				.syncBody("[\"a\", {\"b\": 1}, 2]")
+				.exchange()
+				.expectStatus().isOk()
+				.returnResult(new ParameterizedTypeReference<Map<String, String>>() { })
+				.getResponseBody().collectList().block();
+
+		assertThat(ids).hasSize(3);
+		assertThat(chain.selectTransactions(5)).extracting(Transaction::getPayload).containsExactly("a", "{\"b\":1}", "2");
+	}
+
+	@Test
+	public void blockingHandlersShouldRunWithOrWithoutVirtualThreads() {
+		var chainProperties = new ChainProperties();
+		chainProperties.setExecutionMode(ChainProperties.ExecutionMode.VIRTUAL_THREADS);
+		var application = new Application();
+		var requestScheduler = application.requestScheduler(chainProperties);
+		try {
+			assertThat(requestScheduler).isNotSameAs(Schedulers.immediate());
+			var virtualClient = WebTestClient
+					.bindToRouterFunction(application.router(chain, chainProperties, requestScheduler, eventPublisher))
+					.build();
+
+			virtualClient.post().uri("/transactions").header(Application.IDEMPOTENCY_KEY, "a").syncBody("a").exchange()
+					.expectStatus().isCreated();
+			virtualClient.post().uri("/transactions").header(Application.IDEMPOTENCY_KEY, "a").syncBody("b").exchange()
+					.expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+			virtualClient.post().uri("/transactions/batch")
+					.contentType(MediaType.APPLICATION_JSON)
+					.syncBody("[\"b\", \"c\"]")
+					.exchange()
+					.expectStatus().isOk()
+					.returnResult(new ParameterizedTypeReference<Map<String, String>>() { })
+					.getResponseBody().collectList().block();
+			virtualClient.get().uri("/blocks?from=1&limit=1").exchange()
+					.expectStatus().isOk()
+					.expectBody()
+					.jsonPath("$.blocks[0].index").isEqualTo(1);
+			assertThat(chain.selectTransactions(5)).extracting(Transaction::getPayload).containsExactly("a", "b", "c");
+		} finally {
+			requestScheduler.dispose();
+		}
+	}
+
+	@Test
+	public void shouldRejectOtherContent() {
+		client.post().uri("/transactions/batch")
+				.contentType(MediaType.TEXT_PLAIN)
+				.syncBody("a")
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+	}
+
+	@Test
+	public void shouldRejectTransactionsWhenFull() {
+		var chainProperties = new ChainProperties();
+		chainProperties.setMempoolRetryAfter(Duration.ofSeconds(5));
+		var boundedChain = Chain.builder().withMempoolCapacity(1, 1024, OverflowPolicy.REJECT).build();
+		var boundedClient = WebTestClient
+				.bindToRouterFunction(new Application().router(boundedChain, chainProperties, Schedulers.immediate(), eventPublisher))
+				.build();
+
+		boundedClient.post().uri("/transactions").syncBody("a").exchange().expectStatus().isCreated();
+		boundedClient.post().uri("/transactions").syncBody("b").exchange()
+				.expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)
+				.expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "5");
+		assertThat(boundedChain.getNumberOfPendingTransactions()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldQueueTransactionsWithFee() {
+		client.post().uri("/transactions").syncBody("cheap").exchange().expectStatus().isCreated();
+		client.post().uri("/transactions?fee=42").syncBody("expensive").exchange()
+				.expectStatus().isCreated()
+				.expectBody().jsonPath("$.fee").isEqualTo(42);
+		client.post().uri("/transactions?fee=-1").syncBody("invalid").exchange().expectStatus().isBadRequest();
+		client.post().uri("/transactions/batch?fee=x").contentType(MediaType.APPLICATION_JSON).syncBody("[]").exchange()
+				.expectStatus().isBadRequest();
+
+		assertThat(chain.selectTransactions(5)).extracting(Transaction::getPayload).containsExactly("expensive", "cheap");
+	}
+
+	@Test
+	public void shouldQueueTransactionsOncePerIdempotencyKey() {
+		var location = client.post().uri("/transactions").header(Application.IDEMPOTENCY_KEY, "4711").syncBody("once").exchange()
+				.expectStatus().isCreated()
+				.returnResult(String.class).getResponseHeaders().getLocation();
+		client.post().uri("/transactions").header(Application.IDEMPOTENCY_KEY, "4711").syncBody("once").exchange()
+				.expectStatus().isCreated()
+				.expectHeader().valueEquals(HttpHeaders.LOCATION, location.toString());
+		client.post().uri("/transactions").header(Application.IDEMPOTENCY_KEY, "4711").syncBody("twice").exchange()
+				.expectStatus().isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+		client.post().uri("/transactions").header(Application.IDEMPOTENCY_KEY, "").syncBody("empty").exchange()
+				.expectStatus().isBadRequest();
+
+		assertThat(chain.getNumberOfPendingTransactions()).isEqualTo(1);
+	}
+
+	@Test
+	public void shouldServeTheStatusOfTransactions() {
+		var location = client.post().uri("/transactions").syncBody("lookup").exchange()
+				.expectStatus().isCreated()
+				.returnResult(String.class).getResponseHeaders().getLocation();
+
+		client.get().uri(location).exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.state").isEqualTo("PENDING")
+				.jsonPath("$.transaction.payload").isEqualTo("lookup")
+				.jsonPath("$.blockIndex").doesNotExist();
+		client.get().uri("/transactions/b3c973e2-db05-4eb5-9668-3e81c7389a6d").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.state").isEqualTo("CONFIRMED")
+				.jsonPath("$.blockIndex").isEqualTo(1)
+				.jsonPath("$.blockHash").isEqualTo("000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e");
+		client.get().uri("/transactions/unknown").exchange().expectStatus().isNotFound();
+	}
+
+	@Test
+	public void shouldStreamEventsFromTheLastEventSeen() {
+		chain.queue("first").block();
+		chain.queue("second").block();
+
+		var events = client.get().uri("/events").accept(MediaType.TEXT_EVENT_STREAM).header(Application.LAST_EVENT_ID, "1")
+				.exchange()
+				.expectStatus().isOk()
+				.returnResult(SERVER_SENT_EVENT_TYPE).getResponseBody();
+		StepVerifier.create(events)
+				.assertNext(event -> {
+					assertThat(event.id()).isEqualTo("2");
+					assertThat(event.event()).isEqualTo("new_transaction");
+					assertThat(event.data()).containsEntry("event", "new_transaction").containsEntry("id", 2);
+					assertThat(((Map<?, ?>) event.data().get("data")).get("payload")).isEqualTo("second");
+				})
+				.then(() -> chain.queue("third").block())
+				.assertNext(event -> assertThat(event.id()).isEqualTo("3"))
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+
+		var stream = client.get().uri("/events?lastEventId=2").accept(MediaType.APPLICATION_STREAM_JSON).exchange()
+				.expectStatus().isOk()
+				.returnResult(EVENT_TYPE).getResponseBody();
+		StepVerifier.create(stream)
+				.assertNext(event -> {
+					assertThat(event).isInstanceOf(Event.NewTransactionEvent.class);
+					assertThat(event.getId()).isEqualTo(3);
+					assertThat(((Transaction) event.getData()).getPayload()).isEqualTo("third");
+				})
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	public void shouldServePagesOfBlocks() {
+		var longerChain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).build();
+		Flux.range(0, 4).concatMap(i -> longerChain.mine()).blockLast();
+		var chainProperties = new ChainProperties();
+		chainProperties.setMaxBlocksPageSize(10);
+		var blocksClient = WebTestClient
+				.bindToRouterFunction(new Application().router(longerChain, chainProperties, Schedulers.immediate(), eventPublisher))
+				.build();
+
+		blocksClient.get().uri("/blocks").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.blockHeight").isEqualTo(5)
+				.jsonPath("$.blocks.length()").isEqualTo(5)
+				.jsonPath("$.next").doesNotExist();
+		blocksClient.get().uri("/blocks?from=2&limit=2").exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("Link", "</blocks?from=4&to=5&limit=2>; rel=\"next\"")
+				.expectBody()
+				.jsonPath("$.blocks.length()").isEqualTo(2)
+				.jsonPath("$.blocks[0].index").isEqualTo(2)
+				.jsonPath("$.blocks[1].index").isEqualTo(3)
+				.jsonPath("$.next").isEqualTo("/blocks?from=4&to=5&limit=2");
+		// The next page stays within the range of the first one
+		longerChain.mine().block();
+		blocksClient.get().uri("/blocks?from=4&to=5&limit=2").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.blocks.length()").isEqualTo(2)
+				.jsonPath("$.blocks[0].index").isEqualTo(4)
+				.jsonPath("$.blockHeight").isEqualTo(6)
+				.jsonPath("$.next").doesNotExist();
+		blocksClient.get().uri("/blocks?from=5").accept(MediaType.APPLICATION_STREAM_JSON).exchange()
+				.expectStatus().isOk()
+				.returnResult(String.class).getResponseBody()
+				.as(StepVerifier::create)
+				.expectNextCount(2)
+				.verifyComplete();
+		blocksClient.get().uri("/blocks/3").exchange()
+				.expectStatus().isOk()
+				.expectBody().jsonPath("$.index").isEqualTo(3);
+		blocksClient.get().uri("/blocks/7").exchange().expectStatus().isNotFound();
+		blocksClient.get().uri("/blocks?limit=11").exchange().expectStatus().isBadRequest();
+		blocksClient.get().uri("/blocks?from=0").exchange().expectStatus().isBadRequest();
+	}
+
+	@Test
+	public void shouldRegisterNodes() {
+		// Peers need to agree on the difficulty
+		var thisChain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).build();
+		var otherChain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).build();
+		otherChain.mine().block();
+		var application = new Application();
+		var thisEventPublisher = application.eventPublisher(thisChain, new ChainProperties(), new SimpleMeterRegistry());
+		var nodeRegistry = new NodeRegistry("this", Map.of("http://other", NodeClient.of("other", otherChain))::get);
+		var nodeClient = WebTestClient
+				.bindToRouterFunction(application.nodeRouter(thisChain, nodeRegistry, new BlockSync(thisChain, nodeRegistry, 10, 1, new SimpleMeterRegistry()),
+						thisEventPublisher))
+				.build();
+
+		nodeClient.get().uri("/").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.nodeId").isEqualTo("this")
+				.jsonPath("$.currentBlockHeight").isEqualTo(1);
+		nodeClient.post().uri("/nodes/register").syncBody("http://other").exchange()
+				.expectStatus().isOk()
+				.expectBody()
+				.jsonPath("$.id").isEqualTo("other")
+				.jsonPath("$.host").isEqualTo("http://other");
+		nodeClient.post().uri("/nodes/register").syncBody("http://unknown").exchange()
+				.expectStatus().isEqualTo(HttpStatus.BAD_GATEWAY);
+		nodeClient.get().uri("/nodes").exchange()
+				.expectStatus().isOk()
+				.expectBody().jsonPath("$[0].id").isEqualTo("other");
+		// Registering a node syncs with it, the blocks are validated in the background
+		assertThat(Flux.interval(Duration.ofMillis(10)).map(tick -> thisChain.getLength()).filter(length -> length == 2)
+				.blockFirst(Duration.ofSeconds(5))).isEqualTo(2);
+		assertThat(thisEventPublisher.getLastId()).isEqualTo(2);
+	}
+}
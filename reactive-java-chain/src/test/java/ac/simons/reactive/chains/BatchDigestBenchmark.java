@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares hashing {@link MultiBufferSha256#LANES} proofs of the genesis block at once, the way mining workers do.
+ * Scores are hashes per microsecond. The numbers below are from a single core machine with SHA extensions and
+ * AVX-512 on JDK 17 ({@code -f 1 -wi 3 -i 5}), higher is better. C2 doesn't vectorize the lanes of
+ * {@link MultiBufferSha256} (the numbers stay the same with {@code -XX:-UseSuperWord}, on JDK 21 as well), so it
+ * doesn't get ahead of the scalar plain Java implementation, let alone the intrinsified JDK digest.
+ *
+ * <pre>
+ * Benchmark                          Mode  Cnt  Score   Error   Units
+ * BatchDigestBenchmark.jdk          thrpt    5  3.821 ± 0.209  ops/us
+ * BatchDigestBenchmark.multiBuffer  thrpt    5  0.442 ± 0.176  ops/us
+ * BatchDigestBenchmark.plainJava    thrpt    5  0.597 ± 0.047  ops/us
+ * </pre>
+ */
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@OperationsPerInvocation(MultiBufferSha256.LANES)
+@Fork(3)
+public class BatchDigestBenchmark {
+	public static void main(String[] args) throws Exception {
+		final Options opt = new OptionsBuilder()
+				.include(BatchDigestBenchmark.class.getSimpleName())
+				.build();
+		new Runner(opt).run();
+	}
+
+	@State(Scope.Thread)
+	public static class WorkerState {
+		public byte[] prefix = "{\"index\":1,\"timestamp\":0,\"proof\":".getBytes(UTF_8);
+
+		public byte[] suffix = ",\"transactions\":[{\"id\":\"b3c973e2-db05-4eb5-9668-3e81c7389a6d\",\"timestamp\":0,\"payload\":\"I am Heribert Innoq\"}],\"previousBlockHash\":\"0\"}".getBytes(UTF_8);
+
+		public byte[][] proofs = new byte[MultiBufferSha256.LANES][];
+
+		public int[] offsets = new int[MultiBufferSha256.LANES];
+
+		public int[] lengths = new int[MultiBufferSha256.LANES];
+
+		public byte[][] out = new byte[MultiBufferSha256.LANES][32];
+
+		public DigestProvider.PrefixedDigest jdk = DigestProvider.threadLocal(null).newPrefixedDigest(prefix);
+
+		public DigestProvider.PrefixedDigest plainJava = DigestProvider.plainJava().newPrefixedDigest(prefix);
+
+		public DigestProvider.PrefixedDigest multiBuffer = DigestProvider.multiBuffer().newPrefixedDigest(prefix);
+
+		public WorkerState() {
+			for (int i = 0; i < proofs.length; ++i) {
+				proofs[i] = Integer.toString(1917336 + i).getBytes(UTF_8);
+				lengths[i] = proofs[i].length;
+			}
+		}
+	}
+
+	@Benchmark
+	public byte[][] jdk(WorkerState state) {
+		state.jdk.digest(MultiBufferSha256.LANES, state.proofs, state.offsets, state.lengths, state.suffix, state.out);
+		return state.out;
+	}
+
+	@Benchmark
+	public byte[][] plainJava(WorkerState state) {
+		state.plainJava.digest(MultiBufferSha256.LANES, state.proofs, state.offsets, state.lengths, state.suffix, state.out);
+		return state.out;
+	}
+
+	@Benchmark
+	public byte[][] multiBuffer(WorkerState state) {
+		state.multiBuffer.digest(MultiBufferSha256.LANES, state.proofs, state.offsets, state.lengths, state.suffix, state.out);
+		return state.out;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+public class BinaryBlockEncodingTest {
+	private final BinaryBlockEncoding encoding = new BinaryBlockEncoding();
+
+	@Test
+	public void shouldRoundTrip() {
+		var block = new Block(42, 1_534_000_000_000L, Long.MIN_VALUE, List.of(
+				new Transaction("b3c973e2-db05-4eb5-9668-3e81c7389a6d", 0, "I am Heribert Innoq"),
+				new Transaction("4711", -1, "Grüße, 😀"),
+				new Transaction("null", 1, null),
+				new Transaction("fee", 2, "With fee", 4711)
+		), "000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e", 17);
+
+		var decoded = encoding.decode(encoding.encode(block));
+
+		assertThat(decoded).isEqualToComparingOnlyGivenFields(block, "index", "timestamp", "proof", "previousBlockHash", "difficulty");
+		assertThat(decoded.getTransactions()).hasSize(4);
+		for (int i = 0; i < 4; ++i) {
+			assertThat(decoded.getTransactions().get(i)).isEqualToComparingFieldByField(block.getTransactions().get(i));
+		}
+	}
+
+	@Test
+	public void shouldReplaceUnpairedSurrogatesLikeTheJdk() {
+		var payload = "\uD800 alone \uDC00";
+		var block = new Block(1, 0, 0, List.of(new Transaction("x", 0, payload)), "0");
+
+		assertThat(encoding.decode(encoding.encode(block)).getTransactions().get(0).getPayload())
+				.isEqualTo(new String(payload.getBytes(UTF_8), UTF_8));
+	}
+
+	@Test
+	public void shouldBeDeterministic() throws Exception {
+		var small = Chain.DEFAULT_GENESIS_BLOCK.get();
+		var transactions = new ArrayList<Transaction>();
+		for (int i = 0; i < 1000; ++i) {
+			transactions.add(new Transaction(Integer.toString(i), i, "Payload " + i));
+		}
+		var large = new Block(2, 1, 2, transactions, "0");
+
+		var expected = encoding.encode(small);
+		// Growing the buffer for a large block must not affect encoding a small one
+		assertThat(encoding.encode(large).length).isGreaterThan(4096);
+		assertThat(encoding.encode(small)).isEqualTo(expected);
+		assertThat(new BinaryBlockEncoding().encode(small)).isEqualTo(expected);
+		assertThat(CompletableFuture.supplyAsync(() -> encoding.encode(small)).get()).isEqualTo(expected);
+	}
+
+	@Test
+	public void shouldWriteVersionFirst() {
+		var encoded = encoding.encode(Chain.DEFAULT_GENESIS_BLOCK.get());
+
+		assertThat(encoded[0]).isEqualTo(BinaryBlockEncoding.VERSION);
+		encoded[0] = BinaryBlockEncoding.VERSION + 1;
+		assertThatIllegalArgumentException().isThrownBy(() -> encoding.decode(encoded));
+	}
+
+	@Test
+	public void shouldDecodeOlderVersions() {
+		var genesis = Chain.DEFAULT_GENESIS_BLOCK.get();
+		var transaction = genesis.getTransactions().get(0);
+		for (byte version : new byte[] { 1, 2 }) {
+			var buffer = ByteBuffer.allocate(256)
+					.put(version)
+					.putInt(genesis.getIndex())
+					.putLong(genesis.getTimestamp())
+					.putLong(genesis.getProof());
+			if (version == 2) {
+				buffer.putInt(-1);
+			}
+			buffer.putInt(1);
+			putString(buffer, transaction.getId());
+			buffer.putLong(transaction.getTimestamp());
+			putString(buffer, transaction.getPayload());
+			putString(buffer, genesis.getPreviousBlockHash());
+
+			var decoded = encoding.decode(buffer.flip());
+			assertThat(decoded).isEqualToComparingOnlyGivenFields(genesis, "index", "timestamp", "proof", "previousBlockHash", "difficulty");
+			assertThat(decoded.getTransactions().get(0)).isEqualToComparingFieldByField(transaction);
+			assertThat(encoding.encode(decoded)).isEqualTo(encoding.encode(genesis));
+		}
+	}
+
+	private static void putString(final ByteBuffer buffer, final String value) {
+		var bytes = value.getBytes(UTF_8);
+		buffer.putInt(bytes.length).put(bytes);
+	}
+
+	@Test
+	public void shouldRejectTruncatedBlocks() {
+		var encoded = encoding.encode(Chain.DEFAULT_GENESIS_BLOCK.get());
+
+		assertThatIllegalArgumentException().isThrownBy(() -> encoding.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+	}
+}
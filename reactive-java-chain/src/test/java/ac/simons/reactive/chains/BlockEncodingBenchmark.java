@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares Jackson and the canonical binary encoding for a block with five transactions, the number of
+ * transactions the chain puts into a block. Single core machine, JDK 17 ({@code -f 1 -wi 3 -i 5}), higher is better:
+ *
+ * <pre>
+ * Benchmark                                         Mode  Cnt  Score   Error   Units
+ * BlockEncodingBenchmark.binary                    thrpt    5  1.339 ± 0.484  ops/us
+ * BlockEncodingBenchmark.binaryIntoReusableBuffer  thrpt    5  1.442 ± 0.373  ops/us
+ * BlockEncodingBenchmark.json                      thrpt    5  0.475 ± 0.257  ops/us
+ * </pre>
+ */
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(3)
+public class BlockEncodingBenchmark {
+	public static void main(String[] args) throws Exception {
+		final Options opt = new OptionsBuilder()
+				.include(BlockEncodingBenchmark.class.getSimpleName())
+				.build();
+		new Runner(opt).run();
+	}
+
+	@State(Scope.Benchmark)
+	public static class BlockState {
+		public Block value;
+
+		public BlockEncoding json = BlockEncoding.json();
+
+		public BinaryBlockEncoding binary = new BinaryBlockEncoding();
+
+		public BlockState() {
+			final List<Transaction> transactions = new ArrayList<>();
+			for (int i = 0; i < 5; ++i) {
+				transactions.add(new Transaction("b3c973e2-db05-4eb5-9668-3e81c7389a6" + i, 1534000000000L + i, "I am Heribert Innoq " + i));
+			}
+			value = new Block(2, 1534000000000L, 4711, transactions, "000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e");
+		}
+	}
+
+	@Benchmark
+	public byte[] json(BlockState state) {
+		return state.json.encode(state.value);
+	}
+
+	@Benchmark
+	public byte[] binary(BlockState state) {
+		return state.binary.encode(state.value);
+	}
+
+	@Benchmark
+	public ByteBuffer binaryIntoReusableBuffer(BlockState state) {
+		return state.binary.encodeIntoReusableBuffer(state.value);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static ac.simons.reactive.chains.TestBlocks.block;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class BlockLogTest {
+	@Test
+	public void snapshotsShouldNotChange() {
+		var log = new BlockLog(4);
+		for (int i = 0; i < 10; ++i) {
+			log.append(block(i));
+		}
+		var snapshot = log.snapshot();
+		for (int i = 10; i < 100; ++i) {
+			log.append(block(i));
+		}
+
+		assertThat(snapshot).hasSize(10).extracting(Block::getIndex).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+		assertThat(log.size()).isEqualTo(100);
+		assertThat(log.last().getIndex()).isEqualTo(99);
+		assertThat(log.snapshot().subList(63, 66)).extracting(Block::getIndex).containsExactly(63, 64, 65);
+		assertThatExceptionOfType(IndexOutOfBoundsException.class).isThrownBy(() -> snapshot.get(10));
+		assertThatExceptionOfType(IndexOutOfBoundsException.class).isThrownBy(() -> log.get(100));
+		assertThatExceptionOfType(UnsupportedOperationException.class).isThrownBy(() -> snapshot.add(block(10)));
+	}
+
+	@Test
+	public void truncatingShouldNotChangeSnapshots() {
+		var log = new BlockLog(4);
+		for (int i = 0; i < 10; ++i) {
+			log.append(block(i));
+		}
+		var snapshot = log.snapshot();
+
+		log.truncate(6);
+		var fork = new Block(6, 42, 0, List.of(), "0");
+		log.append(fork);
+
+		assertThat(log.size()).isEqualTo(7);
+		assertThat(log.last()).isSameAs(fork);
+		assertThat(snapshot).hasSize(10).extracting(Block::getTimestamp).containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+		assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> log.truncate(0));
+		assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> log.truncate(8));
+	}
+
+	@Test
+	public void snapshotsShouldNeverMixForks() {
+		var log = new BlockLog(4);
+		for (int i = 0; i < 95; ++i) {
+			log.append(block(i));
+		}
+		var done = new AtomicBoolean();
+		var readers = CompletableFuture.allOf(IntStream.range(0, 3).mapToObj(i -> CompletableFuture.runAsync(() -> {
+			while (!done.get()) {
+				var snapshot = log.snapshot();
+				// All blocks after the common ancestor stem from the same fork
+				for (int position = 96; position < snapshot.size(); ++position) {
+					assertThat(snapshot.get(position).getTimestamp()).isEqualTo(snapshot.get(95).getTimestamp());
+				}
+			}
+		})).toArray(CompletableFuture<?>[]::new));
+		for (int fork = 0; fork < 1_000_000; ++fork) {
+			log.truncate(95);
+			for (int i = 95; i < 100; ++i) {
+				log.append(new Block(i, fork, 0, List.of(), "0"));
+			}
+		}
+		done.set(true);
+
+		readers.join();
+		assertThat(log.snapshot().subList(95, 100)).extracting(Block::getTimestamp).containsOnly(999_999L);
+	}
+
+	@Test
+	public void readersShouldSeeAllPublishedBlocks() {
+		var log = new BlockLog(8);
+		log.append(block(0));
+		var done = new AtomicBoolean();
+		var reader = CompletableFuture.runAsync(() -> {
+			while (!done.get()) {
+				var snapshot = log.snapshot();
+				var last = snapshot.get(snapshot.size() - 1);
+				assertThat(last.getIndex()).isEqualTo(snapshot.size() - 1);
+			}
+		});
+		for (int i = 1; i < 100_000; ++i) {
+			log.append(block(i));
+		}
+		done.set(true);
+
+		reader.join();
+		assertThat(log.size()).isEqualTo(100_000);
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+public class BlockSyncTest {
+
+	private static Chain newChain() {
+		return Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).build();
+	}
+
+	private static void mine(final Chain chain, final int numberOfBlocks) {
+		for (int i = 0; i < numberOfBlocks; ++i) {
+			chain.mine().block();
+		}
+	}
+
+	private static List<String> hashesOf(final Chain chain) {
+		return chain.streamBlocks(1, Integer.MAX_VALUE).map(Block::getHash).collectList().block();
+	}
+
+	/**
+	 * A node in the same process, whose blocks pass through the given function.
+	 */
+	private static NodeClient node(final String id, final Chain chain, final UnaryOperator<Block> transfer) {
+		var client = NodeClient.of(id, chain);
+		return new NodeClient() {
+			@Override
+			public Mono<Status> getStatus() {
+				return client.getStatus();
+			}
+
+			@Override
+			public Flux<Block> getBlocks(final int fromIndex, final int toIndex) {
+				return client.getBlocks(fromIndex, toIndex).map(transfer);
+			}
+		};
+	}
+
+	private static BlockSync syncWith(final Chain chain, final NodeClient other) {
+		var nodeRegistry = new NodeRegistry("a", Map.of("http://b", other)::get);
+		StepVerifier.create(nodeRegistry.register("http://b"))
+				.expectNext(new Node("b", "http://b"))
+				.verifyComplete();
+		return new BlockSync(chain, nodeRegistry, 2, 2, new SimpleMeterRegistry());
+	}
+
+	@Test
+	public void shouldCatchUpWithLongerChains() {
+		var a = newChain();
+		var b = newChain();
+		mine(b, 5);
+
+		StepVerifier.create(syncWith(a, NodeClient.of("b", b)).syncAll()).expectNext(true).verifyComplete();
+
+		assertThat(hashesOf(a)).hasSize(6).isEqualTo(hashesOf(b));
+		var block = a.mine().block();
+		assertThat(block.getIndex()).isEqualTo(7);
+		assertThat(block.getPreviousBlockHash()).isEqualTo(b.getBlockAt(6).get().getHash());
+	}
+
+	@Test
+	public void shouldSwitchToShorterForksWithMoreWork() throws InterruptedException {
+		// Blocks found faster than every 50 ms make the following blocks harder
+		var adjustment = DifficultyAdjustment.towards(Duration.ofMillis(50), 1)
+				.withBounds(Difficulty.ofLeadingZeroBits(4), Difficulty.ofLeadingZeroBits(12));
+		var a = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).withDifficultyAdjustment(adjustment).build();
+		var b = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).withDifficultyAdjustment(adjustment).build();
+		for (int i = 0; i < 6; ++i) {
+			a.mine().block();
+			Thread.sleep(200);
+		}
+		mine(b, 5);
+		var blocksOfA = a.getBlocks().block();
+		var blocksOfB = b.getBlocks().block();
+		assertThat(DifficultyAdjustment.work(blocksOfB, Difficulty.ofLeadingZeroBits(4)))
+				.isGreaterThan(DifficultyAdjustment.work(blocksOfA, Difficulty.ofLeadingZeroBits(4)));
+
+		StepVerifier.create(syncWith(a, NodeClient.of("b", b)).syncAll()).expectNext(true).verifyComplete();
+		assertThat(hashesOf(a)).hasSize(6).isEqualTo(hashesOf(b));
+
+		// But not to the longer chain
+		StepVerifier.create(b.switchTo(blocksOfA.subList(1, blocksOfA.size()))).expectNext(false).verifyComplete();
+		assertThat(hashesOf(b)).hasSize(6);
+	}
+
+	@Test
+	public void shouldSwitchToLongerForks() {
+		var a = newChain();
+		var b = newChain();
+		var transaction = a.queue("Only on a").block();
+		mine(a, 2);
+		var removedHash = a.getBlockAt(2).get().getHash();
+		var blocksBefore = a.getBlocks(1, Integer.MAX_VALUE);
+		mine(b, 4);
+
+		StepVerifier.create(syncWith(a, NodeClient.of("b", b)).syncAll()).expectNext(true).verifyComplete();
+
+		assertThat(hashesOf(a)).hasSize(5).isEqualTo(hashesOf(b));
+		// Readers keep what they have read before
+		assertThat(blocksBefore).hasSize(3).extracting(Block::getHash).contains(removedHash);
+		assertThat(a.getBlock(removedHash)).isEmpty();
+		assertThat(a.getTransactionStatus(transaction.getId()))
+				.hasValueSatisfying(status -> assertThat(status.getState()).isEqualTo(TransactionStatus.State.PENDING));
+	}
+
+	@Test
+	public void shouldKeepLongerChains() {
+		var a = newChain();
+		var b = newChain();
+		mine(a, 3);
+		mine(b, 1);
+		var hashes = hashesOf(a);
+
+		StepVerifier.create(syncWith(a, NodeClient.of("b", b)).syncAll()).expectNext(false).verifyComplete();
+
+		assertThat(hashesOf(a)).isEqualTo(hashes);
+	}
+
+	@Test
+	public void shouldHashBlocksOfNodesNotSendingHashes() {
+		var a = newChain();
+		var b = newChain();
+		mine(b, 3);
+		var withoutHashes = node("b", b, block -> new Block(block.getIndex(), block.getTimestamp(), block.getProof(),
+				block.getTransactions(), block.getPreviousBlockHash(), block.getDifficulty()));
+
+		StepVerifier.create(syncWith(a, withoutHashes).syncAll()).expectNext(true).verifyComplete();
+
+		assertThat(hashesOf(a)).isEqualTo(hashesOf(b));
+	}
+
+	@Test
+	public void shouldRejectInvalidForks() {
+		var a = newChain();
+		var b = newChain();
+		mine(a, 1);
+		mine(b, 3);
+		var hashes = hashesOf(a);
+		var tampered = node("b", b, block -> block.getIndex() != 3 ? block :
+				block.newCandidateOf(block.getProof() + 1).withHash(block.getHash()));
+
+		StepVerifier.create(syncWith(a, tampered).sync(new Node("b", "http://b")))
+				.expectErrorSatisfies(e -> assertThat(e)
+						.isInstanceOf(IllegalArgumentException.class)
+						.hasMessageStartingWith("The fork is invalid at block 3"))
+				.verify();
+
+		assertThat(hashesOf(a)).isEqualTo(hashes);
+	}
+
+	@Test
+	public void shouldUnregisterNodesFailingToSync() {
+		var a = newChain();
+		var b = newChain();
+		mine(b, 3);
+		var unreachable = node("b", b, block -> {
+			throw new IllegalStateException("Connection refused");
+		});
+		var nodeRegistry = new NodeRegistry("a", Map.of("http://b", unreachable)::get);
+		nodeRegistry.register("http://b").block();
+		var blockSync = new BlockSync(a, nodeRegistry, 2, 2, new SimpleMeterRegistry());
+
+		StepVerifier.create(blockSync.syncAll()).expectNext(false).verifyComplete();
+
+		assertThat(nodeRegistry.getNodes()).isEmpty();
+		StepVerifier.create(nodeRegistry.register("http://b")).expectNext(new Node("b", "http://b")).verifyComplete();
+	}
+
+	@Test
+	public void shouldRegisterNodesOnce() {
+		var b = newChain();
+		var nodeRegistry = new NodeRegistry("a", Map.of("http://a", NodeClient.of("a", b), "http://b", NodeClient.of("b", b))::get);
+
+		StepVerifier.create(nodeRegistry.register("http://a")).verifyComplete();
+		StepVerifier.create(nodeRegistry.register("http://b")).expectNextCount(1).verifyComplete();
+		StepVerifier.create(nodeRegistry.register("http://b")).verifyComplete();
+
+		assertThat(nodeRegistry.getNodes()).containsExactly(new Node("b", "http://b"));
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static ac.simons.reactive.chains.TestBlocks.block;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChainSnapshotTest {
+	private Path directory;
+
+	private FileBlockStore store;
+
+	@BeforeEach
+	public void createStore() throws IOException {
+		directory = TestDirectories.create("snapshots");
+		store = FileBlockStore.open(directory, 64 * 1024, 8, 0, null);
+		for (int i = 0; i < 100; ++i) {
+			store.append(block(i));
+		}
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		store.close();
+		TestDirectories.deleteRecursively(directory);
+	}
+
+	private Map<String, Integer> blockPositions(final int from, final int to) {
+		var positions = new HashMap<String, Integer>();
+		for (int i = from; i < to; ++i) {
+			positions.put("hash-" + i, i);
+		}
+		return positions;
+	}
+
+	private Map<String, Integer> transactionPositions(final int from, final int to) {
+		var positions = new HashMap<String, Integer>();
+		for (int i = from; i < to; ++i) {
+			positions.put("tx-" + i, i);
+		}
+		return positions;
+	}
+
+	private int findBlock(final ChainSnapshot snapshot, final String hash) {
+		return snapshot.findBlock(hash, position -> store.get(position).getHash().equals(hash));
+	}
+
+	@Test
+	public void shouldFindIndexedBlocksAndTransactions() {
+		var pending = List.of(new Transaction("pending", 4711, "Pending", 3));
+		// Entries after the position are not covered
+		ChainSnapshot.write(directory, 60, "hash-59", pending, null, blockPositions(0, 100), transactionPositions(0, 100));
+
+		var snapshot = ChainSnapshot.latest(directory, store);
+		assertThat(snapshot.getPosition()).isEqualTo(60);
+		assertThat(snapshot.getTipHash()).isEqualTo("hash-59");
+		assertThat(snapshot.getPendingTransactions()).hasSize(1)
+				.first().isEqualToComparingFieldByField(pending.get(0));
+		for (int i = 0; i < 60; ++i) {
+			assertThat(findBlock(snapshot, "hash-" + i)).isEqualTo(i);
+			final String id = "tx-" + i;
+			assertThat(snapshot.findTransaction(id, position -> store.get(position).getTransactions().get(0).getId().equals(id)))
+					.isEqualTo(i);
+		}
+		assertThat(findBlock(snapshot, "hash-60")).isEqualTo(-1);
+		assertThat(findBlock(snapshot, "unknown")).isEqualTo(-1);
+	}
+
+	@Test
+	public void shouldExtendPreviousSnapshots() {
+		ChainSnapshot.write(directory, 30, "hash-29", List.of(), null, blockPositions(0, 30), transactionPositions(0, 30));
+		var previous = ChainSnapshot.latest(directory, store);
+		ChainSnapshot.write(directory, 80, "hash-79", List.of(), previous, blockPositions(30, 100), transactionPositions(30, 100));
+		ChainSnapshot.write(directory, 90, "hash-89", List.of(), previous, blockPositions(30, 100), transactionPositions(30, 100));
+
+		var snapshot = ChainSnapshot.latest(directory, store);
+		assertThat(snapshot.getPosition()).isEqualTo(90);
+		for (int i = 0; i < 90; ++i) {
+			assertThat(findBlock(snapshot, "hash-" + i)).isEqualTo(i);
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			assertThat(files.filter(file -> file.toString().endsWith(".snapshot")).count()).isEqualTo(2);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Test
+	public void shouldSkipSnapshotsNotMatchingTheBlocks() {
+		ChainSnapshot.write(directory, 50, "hash-49", List.of(), null, blockPositions(0, 50), transactionPositions(0, 50));
+		ChainSnapshot.write(directory, 70, "another hash", List.of(), null, blockPositions(0, 70), transactionPositions(0, 70));
+		assertThat(ChainSnapshot.latest(directory, store).getPosition()).isEqualTo(50);
+
+		// Beyond the stored blocks
+		ChainSnapshot.write(directory, 200, "hash-199", List.of(), null, blockPositions(0, 100), transactionPositions(0, 100));
+		assertThat(ChainSnapshot.latest(directory, store)).isNull();
+	}
+}
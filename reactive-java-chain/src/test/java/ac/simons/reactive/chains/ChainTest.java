@@ -15,11 +15,20 @@
  */
 package ac.simons.reactive.chains;
 
+import static ac.simons.reactive.chains.TestBlocks.block;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 
 import reactor.core.publisher.Flux;
@@ -46,4 +55,327 @@ public class ChainTest {
          assertThat(chain.selectTransactions(2)).hasSize(0);
       });
    }
-}
\ No newline at end of file
+
+   @Test
+   public void minedBlocksShouldMeetTheDifficulty() {
+      var chain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(8)).build();
+
+      var block = chain.mine().block();
+
+      assertThat(block.getIndex()).isEqualTo(2);
+      assertThat(block.getDifficulty()).isEqualTo(8);
+      assertThat(chain.hash(block)).startsWith("00");
+      assertThat(chain.getLength()).isEqualTo(2);
+   }
+
+   @Test
+   public void difficultyShouldBeRetargeted() {
+      var chain = Chain.builder()
+            .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+            .withDifficultyAdjustment(DifficultyAdjustment.towards(Duration.ofHours(1), 4)
+                  .withBounds(Difficulty.ofLeadingZeroBits(1), Difficulty.ofLeadingZeroBits(8)))
+            .build();
+
+      var blocks = Flux.range(0, 4).concatMap(i -> chain.mine()).collectList().block();
+
+      // Blocks are found way too fast, so every block is one bit harder than its parent, but the first
+      assertThat(blocks).extracting(Block::getDifficulty).containsExactly(4, 4, 5, 6);
+      assertThat(chain.getDifficulty()).isEqualTo(Difficulty.ofLeadingZeroBits(6));
+      for (Block block : blocks) {
+         assertThat(Difficulty.ofLeadingZeroBits(block.getDifficulty()).isMetBy(chain.digest(block))).isTrue();
+      }
+   }
+
+   @Test
+   public void blocksScheduledAtOnceShouldBeStampedWhenTheirParentHasBeenFound() {
+      var adjustment = DifficultyAdjustment.towards(Duration.ofHours(1), 4)
+            .withBounds(Difficulty.ofLeadingZeroBits(1), Difficulty.ofLeadingZeroBits(10));
+      var chain = Chain.builder()
+            .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+            .withDifficultyAdjustment(adjustment)
+            .build();
+      var appendedAt = new ConcurrentHashMap<Integer, Long>();
+      chain.onNewBlock(block -> appendedAt.put(block.getIndex(), System.currentTimeMillis()));
+
+      var scheduled = Flux.range(0, 6).map(i -> chain.scheduleBlock().getBlock()).collectList().block();
+      Flux.concat(scheduled).blockLast();
+
+      var blocks = chain.getBlocks().block();
+      for (int position = 2; position < blocks.size(); ++position) {
+         var parent = blocks.get(position - 1);
+         var block = blocks.get(position);
+         assertThat(block.getTimestamp()).isGreaterThanOrEqualTo(appendedAt.get(parent.getIndex()));
+         assertThat(block.getDifficulty())
+               .isEqualTo(adjustment.nextAt(blocks, position, Difficulty.ofLeadingZeroBits(4)).getLeadingZeroBits());
+      }
+   }
+
+   @Test
+   public void pipelinedBlocksShouldBeMinedFromTheirPreparedEncoding() {
+      var encodings = new AtomicInteger();
+      var chain = Chain.builder()
+            .withBlockEncoding(new CountingBlockEncoding(BlockEncoding.json(), encodings))
+            .withDifficulty(Difficulty.ofLeadingZeroBits(8))
+            .withMiningPipelineDepth(2)
+            .build();
+
+      var scheduled = Stream.of("a", "b")
+            .map(payload -> {
+               chain.queue(payload).block();
+               return chain.scheduleBlock().getBlock();
+            })
+            .collect(Collectors.toList());
+      encodings.set(0);
+      var blocks = Flux.concat(scheduled).collectList().block();
+
+      // Stamping the second block once the first has been found only patches its encoded template
+      assertThat(encodings).hasValue(0);
+      assertThat(blocks.get(1).getPreviousBlockHash()).isEqualTo(blocks.get(0).getHash());
+      assertThat(blocks.get(1).getHash()).isEqualTo(chain.hash(blocks.get(1)));
+   }
+
+   @Test
+   public void idempotencyKeysOfEvictedTransactionsShouldBeForgotten() {
+      var chain = Chain.builder().withMempoolCapacity(1, Long.MAX_VALUE, OverflowPolicy.EVICT_OLDEST).build();
+      var evicted = chain.queue("a", 0, "key").block();
+      chain.queue("b").block();
+
+      var retried = chain.queue("a", 0, "key").block();
+      assertThat(retried.getId()).isNotEqualTo(evicted.getId());
+      assertThat(chain.queue("a", 0, "key").block()).isSameAs(retried);
+   }
+
+   @Test
+   public void acceptedBlocksShouldCarryTheirHash() {
+      var chain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(8)).build();
+
+      var block = chain.mine().block();
+      var nextBlock = chain.mine().block();
+
+      assertThat(block.getHash()).isEqualTo(chain.hash(block));
+      assertThat(nextBlock.getPreviousBlockHash()).isEqualTo(block.getHash());
+      assertThat(chain.getBlock(block.getHash())).containsSame(block);
+      assertThat(chain.getBlock("000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e"))
+            .hasValueSatisfying(genesisBlock -> assertThat(genesisBlock.getIndex()).isEqualTo(1));
+      assertThat(chain.getBlock("0")).isEmpty();
+      assertThat(chain.getBlockOfTransaction("b3c973e2-db05-4eb5-9668-3e81c7389a6d"))
+            .hasValueSatisfying(genesisBlock -> assertThat(genesisBlock.getIndex()).isEqualTo(1));
+   }
+
+   @Test
+   public void transactionsShouldBeTrackedUntilConfirmed() {
+      var chain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(8)).build();
+      var transaction = chain.queue("tracked").block();
+
+      assertThat(chain.getTransactionStatus(transaction.getId()))
+            .hasValueSatisfying(status -> assertThat(status.getState()).isEqualTo(TransactionStatus.State.PENDING));
+      var block = chain.mine().block();
+      assertThat(chain.getTransactionStatus(transaction.getId())).hasValueSatisfying(status -> {
+         assertThat(status.getState()).isEqualTo(TransactionStatus.State.CONFIRMED);
+         assertThat(status.getBlockIndex()).isEqualTo(block.getIndex());
+         assertThat(status.getBlockHash()).isEqualTo(block.getHash());
+         assertThat(status.getTransaction()).isSameAs(transaction);
+      });
+      assertThat(chain.getTransactionStatus("unknown")).isEmpty();
+   }
+
+   @Test
+   public void blocksShouldBeStreamedFromASnapshot() {
+      var chain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).build();
+      chain.mine().block();
+
+      var blocks = chain.streamBlocks(1, Integer.MAX_VALUE);
+      chain.mine().block();
+
+      // The range is cut on subscription
+      assertThat(blocks.map(Block::getIndex).collectList().block()).containsExactly(1, 2, 3);
+      assertThat(chain.getBlocks(2, 2)).extracting(Block::getIndex).containsExactly(2);
+      assertThat(chain.getBlocks(4, 10)).isEmpty();
+      assertThat(chain.getBlockAt(3)).hasValueSatisfying(block -> assertThat(block.getIndex()).isEqualTo(3));
+      assertThat(chain.getBlockAt(0)).isEmpty();
+   }
+
+   @Test
+   public void scheduledBlocksShouldBeMinedInOrder() {
+      var chain = Chain.builder()
+            .withDifficulty(Difficulty.ofLeadingZeroBits(8))
+            .withMiningPipelineDepth(2)
+            .build();
+
+      var futureBlocks = Stream.of("a", "b", "c")
+            .map(payload -> {
+               chain.queue(payload).block();
+               return chain.scheduleBlock();
+            })
+            .collect(Collectors.toList());
+
+      assertThat(futureBlocks).extracting(FutureBlock::getIndex).containsExactly(2, 3, 4);
+      var blocks = Flux.concat(futureBlocks.stream().map(FutureBlock::getBlock).collect(Collectors.toList()))
+            .collectList().block();
+      assertThat(blocks).extracting(Block::getIndex).containsExactly(2, 3, 4);
+      for (int i = 1; i < blocks.size(); ++i) {
+         assertThat(blocks.get(i).getPreviousBlockHash()).isEqualTo(blocks.get(i - 1).getHash());
+         assertThat(chain.hash(blocks.get(i))).isEqualTo(blocks.get(i).getHash());
+      }
+      assertThat(chain.getLength()).isEqualTo(4);
+      assertThat(chain.getNumberOfPendingBlocks()).isZero();
+   }
+
+   @Test
+   public void closingShouldStopMining() throws InterruptedException {
+      var meterRegistry = new SimpleMeterRegistry();
+      var chain = Chain.builder()
+            .withDifficulty(Difficulty.ofLeadingZeroBits(64))
+            .withNumberOfMiningThreads(1)
+            .withMeterRegistry(meterRegistry)
+            .build();
+      var hashes = meterRegistry.get("chain.miner.hashes").functionCounter();
+
+      chain.queue("a").block();
+      chain.scheduleBlock();
+      while (hashes.count() == 0) {
+         Thread.sleep(10);
+      }
+      chain.close();
+      // The worker stops after its current chunk
+      Thread.sleep(200);
+      var count = hashes.count();
+      Thread.sleep(200);
+
+      assertThat(hashes.count()).isEqualTo(count);
+   }
+
+   @Test
+   public void storedChainsShouldContinueAfterRestart() throws IOException {
+      var directory = TestDirectories.create("chain");
+      try {
+         var chain = Chain.builder()
+               .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+               .withBlockStorage(directory, 1024, 1, 1, null)
+               .build();
+         var transaction = chain.queue("stored").block();
+         var block = chain.mine().block();
+         chain.mine().block();
+         chain.close();
+
+         var restarted = Chain.builder()
+               .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+               .withBlockStorage(directory, 1024, 1, 1, null)
+               .build();
+         assertThat(restarted.getLength()).isEqualTo(3);
+         assertThat(restarted.getBlock(block.getHash()))
+               .hasValueSatisfying(b -> assertThat(b.getIndex()).isEqualTo(block.getIndex()));
+         assertThat(restarted.getBlockOfTransaction(transaction.getId()))
+               .hasValueSatisfying(b -> assertThat(b.getHash()).isEqualTo(block.getHash()));
+
+         var next = restarted.mine().block();
+         assertThat(next.getIndex()).isEqualTo(4);
+         assertThat(next.getPreviousBlockHash()).isEqualTo(restarted.getBlockAt(3).get().getHash());
+         restarted.close();
+      } finally {
+         TestDirectories.deleteRecursively(directory);
+      }
+   }
+
+   @Test
+   public void queuedTransactionsShouldSurviveARestart() throws IOException {
+      var directory = TestDirectories.create("chain");
+      try {
+         var chain = Chain.builder()
+               .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+               .withBlockCapacity(1, Long.MAX_VALUE)
+               .withBlockStorage(directory.resolve("blocks"), 1024, 1, 1, null)
+               .withTransactionLog(directory.resolve("transactions.wal"), 16)
+               .build();
+         var confirmed = chain.queue("confirmed", 10).block();
+         var pending = chain.queue("pending", 0).block();
+         assertThat(chain.mine().block().getTransactions()).extracting(Transaction::getId).containsExactly(confirmed.getId());
+         chain.close();
+
+         var restarted = Chain.builder()
+               .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+               .withBlockStorage(directory.resolve("blocks"), 1024, 1, 1, null)
+               .withTransactionLog(directory.resolve("transactions.wal"), 16)
+               .build();
+         assertThat(restarted.getNumberOfPendingTransactions()).isEqualTo(1);
+         assertThat(restarted.getTransactionStatus(pending.getId()))
+               .hasValueSatisfying(status -> assertThat(status.getState()).isEqualTo(TransactionStatus.State.PENDING));
+         assertThat(restarted.getTransactionStatus(confirmed.getId()))
+               .hasValueSatisfying(status -> assertThat(status.getState()).isEqualTo(TransactionStatus.State.CONFIRMED));
+         restarted.close();
+      } finally {
+         TestDirectories.deleteRecursively(directory);
+      }
+   }
+
+   @Test
+   public void snapshotsShouldCompactTheTransactionLog() throws IOException {
+      var directory = TestDirectories.create("chain");
+      try {
+         var log = directory.resolve("transactions.wal");
+         var chain = Chain.builder()
+               .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+               .withBlockCapacity(1, Long.MAX_VALUE)
+               .withBlockStorage(directory, 1024, 1, 1, null)
+               .withTransactionLog(log, 16)
+               .withSnapshots(directory, 1)
+               .build();
+         Flux.range(0, 3).concatMap(i -> chain.queue("payload " + i, 10 - i)).blockLast();
+         var sizeOfThree = Files.size(log);
+         chain.mine().block();
+
+         // Snapshots are written in the background
+         assertThat(Flux.interval(Duration.ofMillis(10)).map(tick -> sizeOf(log)).filter(size -> size < sizeOfThree)
+               .blockFirst(Duration.ofSeconds(5))).isEqualTo(sizeOfThree / 3 * 2);
+         chain.close();
+      } finally {
+         TestDirectories.deleteRecursively(directory);
+      }
+   }
+
+   private static long sizeOf(final Path file) {
+      try {
+         return Files.size(file);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   @Test
+   public void restartsShouldContinueFromTheLatestSnapshot() throws IOException {
+      var directory = TestDirectories.create("chain");
+      try {
+         var chain = Chain.builder()
+               .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+               .withBlockCapacity(1, Long.MAX_VALUE)
+               .withBlockStorage(directory, 1024, 1, 1, null)
+               .withSnapshots(directory, 2)
+               .build();
+         var transactions = Flux.range(0, 4).concatMap(i -> chain.queue("payload " + i, 10 - i)).collectList().block();
+         var blocks = Flux.range(0, 3).concatMap(i -> chain.mine()).collectList().block();
+         chain.close();
+
+         var restarted = Chain.builder()
+               .withDifficulty(Difficulty.ofLeadingZeroBits(4))
+               .withBlockStorage(directory, 1024, 1, 1, null)
+               .withSnapshots(directory, 2)
+               .build();
+         assertThat(restarted.getLength()).isEqualTo(4);
+         for (int i = 0; i < 3; ++i) {
+            var block = blocks.get(i);
+            assertThat(restarted.getBlock(block.getHash()))
+                  .hasValueSatisfying(b -> assertThat(b.getIndex()).isEqualTo(block.getIndex()));
+            assertThat(restarted.getBlockOfTransaction(transactions.get(i).getId()))
+                  .hasValueSatisfying(b -> assertThat(b.getIndex()).isEqualTo(block.getIndex()));
+         }
+         assertThat(restarted.getBlock("unknown")).isEmpty();
+         // Not durable without a transaction log, but part of the snapshot written on closing
+         assertThat(restarted.getTransactionStatus(transactions.get(3).getId()))
+               .hasValueSatisfying(status -> assertThat(status.getState()).isEqualTo(TransactionStatus.State.PENDING));
+         assertThat(restarted.mine().block().getPreviousBlockHash()).isEqualTo(blocks.get(2).getHash());
+         restarted.close();
+      } finally {
+         TestDirectories.deleteRecursively(directory);
+      }
+   }
+}
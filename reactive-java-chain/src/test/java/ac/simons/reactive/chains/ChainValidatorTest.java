@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ChainValidatorTest {
+	private static final int GENESIS_INDEX = 1;
+
+	private final Chain chain = Chain.defaultChain();
+
+	private final ChainValidator validator = validator(Difficulty.ofLeadingZeroBits(0), Difficulty.ofLeadingZeroBits(0));
+
+	private ChainValidator validator(final Difficulty defaultDifficulty, final Difficulty minimumDifficulty) {
+		return new ChainValidator(chain::digest, HashUtils.ENCODE_WITH_GUAVA_ALGORITHM, defaultDifficulty,
+				DifficultyAdjustment.fixed(), minimumDifficulty, 4);
+	}
+
+	/**
+	 * @return A chain of blocks with a difficulty of 0 bits, which every proof meets
+	 */
+	private List<Block> blocks(final int numberOfBlocks) {
+		var blocks = new ArrayList<Block>();
+		blocks.add(Chain.DEFAULT_GENESIS_BLOCK.get().withHash(chain.hash(Chain.DEFAULT_GENESIS_BLOCK.get())));
+		for (int i = 1; i < numberOfBlocks; ++i) {
+			var block = new Block(GENESIS_INDEX + i, i, i, List.of(), blocks.get(i - 1).getHash());
+			blocks.add(block.withHash(chain.hash(block)));
+		}
+		return blocks;
+	}
+
+	private ValidationProgress validate(final List<Block> blocks) {
+		return validator.start(blocks, GENESIS_INDEX).getResult().join();
+	}
+
+	@Test
+	public void validChainsShouldBeValid() {
+		var result = validate(blocks(10 * ChainValidator.CHUNK_SIZE + 1));
+
+		assertThat(result.getState()).isEqualTo(ValidationProgress.State.VALID);
+		assertThat(result.getValidatedBlocks()).isEqualTo(10 * ChainValidator.CHUNK_SIZE + 1);
+		assertThat(result.getFirstInvalidIndex()).isNull();
+	}
+
+	@Test
+	public void shouldFindTheFirstInvalidBlock() {
+		var blocks = blocks(10 * ChainValidator.CHUNK_SIZE);
+		// Linked to the wrong block, but with a matching hash
+		var unlinked = new Block(blocks.get(2000).getIndex(), 0, 0, List.of(), "0");
+		blocks.set(2000, unlinked.withHash(chain.hash(unlinked)));
+		var tampered = blocks.get(700);
+		blocks.set(700, new Block(tampered.getIndex(), tampered.getTimestamp(), tampered.getProof() + 1, List.of(),
+				tampered.getPreviousBlockHash()).withHash(tampered.getHash()));
+
+		var result = validate(blocks);
+		assertThat(result.getState()).isEqualTo(ValidationProgress.State.INVALID);
+		assertThat(result.getFirstInvalidIndex()).isEqualTo(GENESIS_INDEX + 700);
+		assertThat(result.getReason()).contains("hash doesn't match");
+		assertThat(result.getValidatedBlocks()).isLessThan(blocks.size());
+
+		blocks.set(700, tampered);
+		result = validate(blocks);
+		assertThat(result.getFirstInvalidIndex()).isEqualTo(GENESIS_INDEX + 2000);
+		assertThat(result.getReason()).contains("previous block hash");
+	}
+
+	@Test
+	public void shouldCheckProofsAgainstTheDifficultyOfTheirBlock() {
+		var result = validator(Difficulty.ofLeadingZeroBits(256), Difficulty.ofLeadingZeroBits(0))
+				.start(blocks(100), GENESIS_INDEX).getResult().join();
+
+		assertThat(result.getFirstInvalidIndex()).isEqualTo(GENESIS_INDEX + 1);
+		assertThat(result.getReason()).contains("difficulty of 256 bits");
+	}
+
+	@Test
+	public void shouldRecomputeTheDifficultyOfEveryBlock() {
+		var blocks = blocks(100);
+		var previous = blocks.get(49);
+		var block = new Block(previous.getIndex() + 1, 0, 0, List.of(), previous.getHash(), 256);
+		blocks.set(50, block.withHash(chain.hash(block)));
+
+		var result = validate(blocks);
+		assertThat(result.getFirstInvalidIndex()).isEqualTo(GENESIS_INDEX + 50);
+		assertThat(result.getReason()).isEqualTo("Expected a difficulty of 0 bits but got 256 bits.");
+	}
+
+	@Test
+	public void blocksWithoutWorkShouldBeInvalid() {
+		var minedChain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(8)).build();
+		var blocks = new ArrayList<>(minedChain.getBlocks().block());
+		var easyBlock = new Block(GENESIS_INDEX + 1, 1, 0, List.of(), blocks.get(0).getHash(), 0);
+		blocks.add(easyBlock.withHash(minedChain.hash(easyBlock)));
+
+		var result = validator(Difficulty.ofLeadingZeroBits(8), Difficulty.ofLeadingZeroBits(8))
+				.start(blocks, GENESIS_INDEX).getResult().join();
+		assertThat(result.getFirstInvalidIndex()).isEqualTo(GENESIS_INDEX + 1);
+		assertThat(result.getReason()).isEqualTo("Expected a difficulty of 8 bits but got 0 bits.");
+
+		// Even if the chain was configured without a difficulty
+		result = validator(Difficulty.ofLeadingZeroBits(0), Difficulty.ofLeadingZeroBits(8))
+				.start(blocks, GENESIS_INDEX).getResult().join();
+		assertThat(result.getFirstInvalidIndex()).isEqualTo(GENESIS_INDEX + 1);
+		assertThat(result.getReason()).isEqualTo("The difficulty of 0 bits is below the minimum of 8 bits.");
+	}
+
+	@Test
+	public void minedChainsShouldBeValid() {
+		var minedChain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(8)).build();
+		minedChain.queue("a").block();
+		minedChain.mine().block();
+		minedChain.mine().block();
+
+		var progress = minedChain.validate(Duration.ofMillis(10)).collectList().block();
+		var result = progress.get(progress.size() - 1);
+		assertThat(result.getState()).isEqualTo(ValidationProgress.State.VALID);
+		assertThat(result.getNumberOfBlocks()).isEqualTo(3);
+		assertThat(result.getValidatedBlocks()).isEqualTo(3);
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the blocks encoded by another encoding.
+ */
+final class CountingBlockEncoding implements BlockEncoding {
+	private final BlockEncoding delegate;
+
+	private final AtomicInteger encodings;
+
+	CountingBlockEncoding(final BlockEncoding delegate, final AtomicInteger encodings) {
+		this.delegate = delegate;
+		this.encodings = encodings;
+	}
+
+	@Override
+	public byte[] encode(final Block block) {
+		encodings.incrementAndGet();
+		return delegate.encode(block);
+	}
+
+	@Override
+	public int writeProof(final long proof, final byte[] buffer) {
+		return delegate.writeProof(proof, buffer);
+	}
+
+	@Override
+	public int writeTimestamp(final long timestamp, final byte[] buffer) {
+		return delegate.writeTimestamp(timestamp, buffer);
+	}
+
+	@Override
+	public int writeDifficulty(final int difficulty, final byte[] buffer) {
+		return delegate.writeDifficulty(difficulty, buffer);
+	}
+}
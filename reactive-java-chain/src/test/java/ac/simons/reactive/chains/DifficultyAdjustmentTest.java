@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class DifficultyAdjustmentTest {
+	private static final Difficulty FALLBACK = Difficulty.ofLeadingZeroBits(12);
+
+	@Test
+	public void shouldKeepFixedDifficulty() {
+		var blocks = blocks(10, 1, 20);
+
+		assertThat(DifficultyAdjustment.fixed().next(blocks, FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(20));
+		assertThat(DifficultyAdjustment.fixed().next(List.of(), FALLBACK)).isEqualTo(FALLBACK);
+	}
+
+	@Test
+	public void shouldIncreaseDifficultyOfFastBlocks() {
+		var adjustment = DifficultyAdjustment.towards(Duration.ofSeconds(1), 4);
+
+		assertThat(adjustment.next(blocks(5, 250, 10), FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(11));
+		assertThat(adjustment.withMaxStep(4).next(blocks(5, 250, 10), FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(12));
+	}
+
+	@Test
+	public void shouldDecreaseDifficultyOfSlowBlocks() {
+		var adjustment = DifficultyAdjustment.towards(Duration.ofSeconds(1), 4).withMaxStep(4);
+
+		assertThat(adjustment.next(blocks(5, 8_000, 10), FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(7));
+	}
+
+	@Test
+	public void shouldKeepDifficultyOnTarget() {
+		var adjustment = DifficultyAdjustment.towards(Duration.ofSeconds(1), 4);
+
+		assertThat(adjustment.next(blocks(5, 1_000, 10), FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(10));
+		assertThat(adjustment.next(blocks(1, 1_000, 10), FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(10));
+	}
+
+	@Test
+	public void shouldOnlyConsiderWindow() {
+		var adjustment = DifficultyAdjustment.towards(Duration.ofSeconds(1), 2);
+		var blocks = new ArrayList<>(blocks(3, 100_000, 10));
+		var last = blocks.get(blocks.size() - 1);
+		for (int i = 1; i <= 2; ++i) {
+			blocks.add(new Block(last.getIndex() + i, last.getTimestamp() + 1_000 * i, 0, List.of(), "0", 10));
+		}
+
+		assertThat(adjustment.next(blocks, FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(10));
+	}
+
+	@Test
+	public void shouldStayWithinBounds() {
+		var adjustment = DifficultyAdjustment.towards(Duration.ofSeconds(1), 4)
+				.withMaxStep(8)
+				.withBounds(Difficulty.ofLeadingZeroBits(8), Difficulty.ofLeadingZeroBits(11));
+
+		assertThat(adjustment.next(blocks(5, 1, 10), FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(11));
+		assertThat(adjustment.next(blocks(5, 1_000_000, 10), FALLBACK)).isEqualTo(Difficulty.ofLeadingZeroBits(8));
+	}
+
+	@Test
+	public void shouldUseFallbackForBlocksWithoutDifficulty() {
+		var adjustment = DifficultyAdjustment.towards(Duration.ofSeconds(1), 4);
+		var blocks = List.of(new Block(2, 0, 0, List.of(), "0"), new Block(3, 1_000, 0, List.of(), "0"));
+
+		assertThat(adjustment.next(blocks, FALLBACK)).isEqualTo(FALLBACK);
+	}
+
+	@Test
+	public void shouldRejectInvalidConfiguration() {
+		assertThatIllegalArgumentException().isThrownBy(() -> DifficultyAdjustment.towards(Duration.ZERO, 4));
+		assertThatIllegalArgumentException().isThrownBy(() -> DifficultyAdjustment.towards(Duration.ofSeconds(1), 0));
+		assertThatIllegalArgumentException().isThrownBy(() -> DifficultyAdjustment.fixed().withMaxStep(0));
+	}
+
+	private static List<Block> blocks(final int count, final long interval, final int difficultyBits) {
+		var blocks = new ArrayList<Block>();
+		for (int i = 0; i < count; ++i) {
+			blocks.add(new Block(2 + i, 1_534_000_000_000L + i * interval, 0, List.of(), "0", difficultyBits));
+		}
+		return blocks;
+	}
+}
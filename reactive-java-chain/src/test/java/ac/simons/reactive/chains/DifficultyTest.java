@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import org.junit.jupiter.api.Test;
+
+public class DifficultyTest {
+	@Test
+	public void shouldCheckLeadingZeroBits() {
+		var digest = new byte[32];
+		digest[2] = 0b0001_0000;
+
+		assertThat(Difficulty.ofLeadingZeroBits(0).isMetBy(digest)).isTrue();
+		assertThat(Difficulty.ofLeadingZeroBits(16).isMetBy(digest)).isTrue();
+		assertThat(Difficulty.ofLeadingZeroBits(19).isMetBy(digest)).isTrue();
+		assertThat(Difficulty.ofLeadingZeroBits(20).isMetBy(digest)).isFalse();
+		assertThat(Difficulty.DEFAULT.isMetBy(digest)).isFalse();
+		assertThat(Difficulty.ofLeadingZeroBits(256).isMetBy(new byte[32])).isTrue();
+	}
+
+	@Test
+	public void defaultShouldMatchSixLeadingHexZeros() {
+		var chain = Chain.defaultChain();
+		var genesisBlock = Chain.DEFAULT_GENESIS_BLOCK.get();
+
+		assertThat(Difficulty.DEFAULT.isMetBy(chain.digest(genesisBlock))).isTrue();
+		assertThat(Difficulty.DEFAULT.isMetBy(chain.digest(genesisBlock.newCandidateOf(1)))).isFalse();
+	}
+
+	@Test
+	public void shouldValidateRange() {
+		assertThatIllegalArgumentException().isThrownBy(() -> Difficulty.ofLeadingZeroBits(-1));
+		assertThatIllegalArgumentException().isThrownBy(() -> Difficulty.ofLeadingZeroBits(257));
+	}
+}
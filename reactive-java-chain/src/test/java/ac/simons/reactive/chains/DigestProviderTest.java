@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class DigestProviderTest {
+	@Test
+	public void prefixedDigestsShouldMatchMessageDigestForPrefixesOfAnyLength() throws Exception {
+		var random = new Random(4711);
+		var variable = "4711".getBytes();
+		var suffix = ",\"transactions\":[],\"previousBlockHash\":\"0\"}".getBytes();
+		var providers = List.of(DigestProvider.perCall(null), DigestProvider.threadLocal(null), DigestProvider.plainJava(),
+				DigestProvider.multiBuffer());
+		// Prefixes within the first block are fed again, longer ones are restored
+		for (int length = 0; length < 200; ++length) {
+			var prefix = new byte[length];
+			random.nextBytes(prefix);
+			var expected = MessageDigest.getInstance("SHA-256");
+			expected.update(prefix);
+			expected.update(variable);
+			expected.update(suffix);
+			var expectedDigest = expected.digest();
+
+			for (var provider : providers) {
+				var prefixedDigest = provider.newPrefixedDigest(prefix);
+				var out = new byte[Sha256.DIGEST_LENGTH];
+				prefixedDigest.digest(variable, 0, variable.length, suffix, out);
+				assertThat(out).isEqualTo(expectedDigest);
+				// Digesting must not alter the state after the prefix
+				prefixedDigest.digest(variable, 0, variable.length, suffix, out);
+				assertThat(out).isEqualTo(expectedDigest);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+public class EventPublisherTest {
+	private static Transaction transaction(final int i) {
+		return new Transaction(Integer.toString(i), i, "Transaction " + i);
+	}
+
+	@Test
+	public void shouldResumeFromTheRingBuffer() {
+		var publisher = new EventPublisher(3, 16, BufferOverflowStrategy.ERROR, Schedulers.immediate(), new SimpleMeterRegistry());
+		for (int i = 1; i <= 5; ++i) {
+			publisher.publish(transaction(i));
+		}
+
+		StepVerifier.create(publisher.events(3L))
+				.assertNext(event -> assertThat(event.getId()).isEqualTo(4))
+				.assertNext(event -> assertThat(event.getId()).isEqualTo(5))
+				.then(() -> publisher.publish(transaction(6)))
+				.assertNext(event -> assertThat(event.getId()).isEqualTo(6))
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+		// Only the last three events are retained
+		StepVerifier.create(publisher.events(0L).map(Event::getId).take(3))
+				.expectNext(4L, 5L, 6L)
+				.verifyComplete();
+		// Ids of a node that restarted
+		StepVerifier.create(publisher.events(4711L).map(Event::getId).take(3))
+				.expectNext(4L, 5L, 6L)
+				.verifyComplete();
+		assertThat(publisher.getNumberOfSubscribers()).isZero();
+	}
+
+	@Test
+	public void slowSubscribersShouldNotHoldBackOthers() {
+		var publisher = new EventPublisher(0, 2, BufferOverflowStrategy.DROP_OLDEST, Schedulers.immediate(), new SimpleMeterRegistry());
+
+		StepVerifier.create(publisher.events().map(Event::getId), 0)
+				.then(() -> List.of(1, 2, 3, 4).forEach(i -> publisher.publish(transaction(i))))
+				.thenRequest(2)
+				.expectNext(3L, 4L)
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+
+		var failing = new EventPublisher(0, 2, BufferOverflowStrategy.ERROR, Schedulers.immediate(), new SimpleMeterRegistry());
+		StepVerifier.create(failing.events(), 0)
+				.then(() -> List.of(1, 2, 3).forEach(i -> failing.publish(transaction(i))))
+				.thenRequest(3)
+				.expectNextCount(2)
+				.expectError()
+				.verify(Duration.ofSeconds(5));
+		assertThat(failing.getNumberOfSubscribers()).isZero();
+	}
+
+	@Test
+	public void eventsShouldBeEncodedLikeTheKotlinNode() throws Exception {
+		var objectMapper = new ObjectMapper();
+		var json = "{\"event\":\"new_node\",\"id\":7,\"data\":{\"id\":\"n1\",\"host\":\"http://localhost:8080\"}}";
+
+		var event = objectMapper.readValue(json, Event.class);
+		assertThat(event).isInstanceOf(Event.NewNodeEvent.class);
+		assertThat(event.getData()).isEqualTo(new Node("n1", "http://localhost:8080"));
+		assertThat(objectMapper.readTree(objectMapper.writeValueAsString(event))).isEqualTo(objectMapper.readTree(json));
+
+		var block = Chain.defaultChain().getBlocks().block().get(0);
+		var blockEvent = objectMapper.readValue(objectMapper.writeValueAsString(Event.of(1, block)), Event.class);
+		assertThat(blockEvent).isInstanceOf(Event.NewBlockEvent.class);
+		assertThat((Block) blockEvent.getData()).isEqualToComparingOnlyGivenFields(block, "index", "timestamp", "proof", "previousBlockHash", "hash");
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static ac.simons.reactive.chains.TestBlocks.block;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FileBlockStoreTest {
+	private Path directory;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		directory = TestDirectories.create("blocks");
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		TestDirectories.deleteRecursively(directory);
+	}
+
+	private static Block forkBlock(final int index) {
+		return new Block(index, index, index, List.of(), "0").withHash("fork-" + index);
+	}
+
+	@Test
+	public void shouldTruncateForOtherForks() {
+		try (var store = FileBlockStore.open(directory, 512, 4, 1, null)) {
+			for (int i = 0; i < 50; ++i) {
+				store.append(block(i));
+			}
+			store.truncate(20);
+			assertThat(store.size()).isEqualTo(20);
+			assertThat(store.last().getHash()).isEqualTo("hash-19");
+			// Shorter than the removed blocks, which must not come back
+			store.append(forkBlock(20));
+			store.append(forkBlock(21));
+			assertThat(store.get(21).getHash()).isEqualTo("fork-21");
+		}
+
+		try (var store = FileBlockStore.open(directory, 512, 4, 1, null)) {
+			assertThat(store.size()).isEqualTo(22);
+			assertThat(store.get(19).getHash()).isEqualTo("hash-19");
+			assertThat(store.get(20).getHash()).isEqualTo("fork-20");
+			assertThat(store.last().getHash()).isEqualTo("fork-21");
+			for (int i = 22; i < 60; ++i) {
+				store.append(forkBlock(i));
+			}
+		}
+
+		try (var store = FileBlockStore.open(directory, 512, 4, 1, null)) {
+			assertThat(store.size()).isEqualTo(60);
+			assertThat(store.snapshot()).extracting(Block::getIndex).containsExactlyElementsOf(
+					Stream.iterate(0, i -> i + 1).limit(60).collect(Collectors.toList()));
+			assertThat(store.get(30).getHash()).isEqualTo("fork-30");
+		}
+	}
+
+	@Test
+	public void snapshotsShouldKeepTheirBlocksWhenTruncated() {
+		try (var store = FileBlockStore.open(directory, 512, 4, 1, null)) {
+			for (int i = 0; i < 50; ++i) {
+				store.append(block(i));
+			}
+			var beforeFirstFork = store.snapshot();
+			store.truncate(20);
+			for (int i = 20; i < 30; ++i) {
+				store.append(forkBlock(i));
+			}
+			var beforeSecondFork = store.snapshot();
+			store.truncate(10);
+			for (int i = 10; i < 60; ++i) {
+				store.append(new Block(i, i, i, List.of(), "1").withHash("other-fork-" + i));
+			}
+
+			assertThat(beforeFirstFork).extracting(Block::getHash).containsExactlyElementsOf(
+					Stream.iterate(0, i -> i + 1).limit(50).map(i -> "hash-" + i).collect(Collectors.toList()));
+			assertThat(beforeSecondFork).hasSize(30).extracting(Block::getHash)
+					.startsWith("hash-0").contains("hash-19", "fork-20").endsWith("fork-29");
+			assertThat(store.snapshot()).hasSize(60).extracting(Block::getHash).contains("hash-9", "other-fork-10");
+		}
+	}
+
+	@Test
+	public void shouldReadSegmentsLargerThanAMappingWindow() {
+		var payload = String.join("", Collections.nCopies(1000, "x"));
+		var numberOfBlocks = 3 * FileBlockStore.MAPPING_WINDOW_SIZE / payload.length();
+		try (var store = FileBlockStore.open(directory, 16 * FileBlockStore.MAPPING_WINDOW_SIZE, 1, 0, null)) {
+			for (int i = 0; i < numberOfBlocks; ++i) {
+				store.append(new Block(i, i, i, List.of(new Transaction("tx-" + i, i, payload)), "0").withHash("hash-" + i));
+				// Reading the growing segment while appending
+				if (i % 100 == 99) {
+					assertThat(store.get(i - 1).getHash()).isEqualTo("hash-" + (i - 1));
+				}
+			}
+
+			assertThat(store.snapshot()).extracting(Block::getIndex).containsExactlyElementsOf(
+					Stream.iterate(0, i -> i + 1).limit(numberOfBlocks).collect(Collectors.toList()));
+			assertThat(store.get(numberOfBlocks / 2).getTransactions()).extracting(Transaction::getPayload).containsExactly(payload);
+		}
+	}
+
+	@Test
+	public void shouldReopenStoredBlocks() {
+		try (var store = FileBlockStore.open(directory, 1024, 4, 1, null)) {
+			for (int i = 0; i < 100; ++i) {
+				store.append(block(i));
+			}
+		}
+
+		try (var store = FileBlockStore.open(directory, 1024, 4, 1, null)) {
+			assertThat(store.size()).isEqualTo(100);
+			assertThat(store.last().getHash()).isEqualTo("hash-99");
+			// Far outside the blocks kept in memory
+			var block = store.get(42);
+			assertThat(block.getIndex()).isEqualTo(42);
+			assertThat(block.getHash()).isEqualTo("hash-42");
+			assertThat(block.getProof()).isEqualTo(42);
+			assertThat(block.getTransactions()).extracting(Transaction::getPayload).containsExactly("Payload 42");
+			assertThat(store.snapshot()).extracting(Block::getIndex).startsWith(0, 1, 2).endsWith(98, 99);
+
+			store.append(block(100));
+			assertThat(store.get(100).getHash()).isEqualTo("hash-100");
+		}
+	}
+
+	@Test
+	public void shouldRollSegments() throws IOException {
+		try (var store = FileBlockStore.open(directory, 512, 2, 0, Duration.ofMillis(1))) {
+			for (int i = 0; i < 50; ++i) {
+				store.append(block(i));
+			}
+			assertThat(store.snapshot()).extracting(Block::getHash).containsSequence("hash-0", "hash-1", "hash-2");
+		}
+
+		try (Stream<Path> files = Files.list(directory)) {
+			assertThat(files.filter(file -> file.toString().endsWith(".log")).count()).isGreaterThan(2);
+		}
+		try (var store = FileBlockStore.open(directory, 512, 2, 0, null)) {
+			for (int i = 0; i < 50; ++i) {
+				assertThat(store.get(i).getHash()).isEqualTo("hash-" + i);
+			}
+		}
+	}
+
+	@Test
+	public void shouldTruncateATornTail() throws IOException {
+		try (var store = FileBlockStore.open(directory, 1024 * 1024, 4, 1, null)) {
+			for (int i = 0; i < 10; ++i) {
+				store.append(block(i));
+			}
+		}
+		var log = directory.resolve(String.format("%020d.log", 0));
+		var size = Files.size(log);
+		try (var channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+			// Cuts the last record in half
+			channel.truncate(size - 10);
+		}
+
+		try (var store = FileBlockStore.open(directory, 1024 * 1024, 4, 1, null)) {
+			assertThat(store.size()).isEqualTo(9);
+			assertThat(store.last().getHash()).isEqualTo("hash-8");
+			store.append(block(9));
+		}
+		try (var store = FileBlockStore.open(directory, 1024 * 1024, 4, 1, null)) {
+			assertThat(store.size()).isEqualTo(10);
+			assertThat(store.last().getHash()).isEqualTo("hash-9");
+		}
+	}
+
+	@Test
+	public void shouldDetectCorruptRecords() throws IOException {
+		try (var store = FileBlockStore.open(directory, 1024 * 1024, 4, 1, null)) {
+			for (int i = 0; i < 10; ++i) {
+				store.append(block(i));
+			}
+		}
+		var log = directory.resolve(String.format("%020d.log", 0));
+		var bytes = Files.readAllBytes(log);
+		bytes[bytes.length - 5] ^= 1;
+		Files.write(log, bytes);
+
+		try (var store = FileBlockStore.open(directory, 1024 * 1024, 4, 1, null)) {
+			assertThat(store.size()).isEqualTo(9);
+		}
+	}
+
+	@Test
+	public void shouldOnlyAppendFollowingBlocks() {
+		try (var store = FileBlockStore.open(directory, 1024, 4, 1, null)) {
+			store.append(block(1));
+			assertThatIllegalArgumentException().isThrownBy(() -> store.append(block(3)));
+		}
+	}
+}
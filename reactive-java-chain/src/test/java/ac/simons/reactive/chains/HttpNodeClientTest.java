@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import reactor.core.publisher.Mono;
+
+public class HttpNodeClientTest {
+
+	private final List<Block> blocks;
+
+	private final List<String> requests = new ArrayList<>();
+
+	public HttpNodeClientTest() {
+		var chain = Chain.builder().withDifficulty(Difficulty.ofLeadingZeroBits(4)).build();
+		for (int i = 0; i < 5; ++i) {
+			chain.mine().block();
+		}
+		this.blocks = chain.getBlocks().block();
+	}
+
+	/**
+	 * @return A client of a node answering every request for blocks with all of them, like the Kotlin node
+	 */
+	private NodeClient nodeIgnoringRanges() {
+		return NodeClient.of(WebClient.builder().baseUrl("http://other").exchangeFunction(request -> {
+			requests.add(request.url().getQuery());
+			try {
+				return Mono.just(ClientResponse.create(HttpStatus.OK)
+						.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+						.body(new ObjectMapper().writeValueAsString(Map.of("blocks", blocks)))
+						.build());
+			} catch (JsonProcessingException e) {
+				return Mono.error(e);
+			}
+		}).build());
+	}
+
+	private static List<Integer> indexes(final List<Block> blocks) {
+		return blocks.stream().map(Block::getIndex).collect(Collectors.toList());
+	}
+
+	@Test
+	public void shouldCutRanges() {
+		var client = nodeIgnoringRanges();
+
+		assertThat(indexes(client.getBlocks(3, 4).collectList().block())).containsExactly(3, 4);
+		assertThat(indexes(client.getBlocks(5, 9).collectList().block())).containsExactly(5, 6);
+		assertThat(requests).hasSize(2);
+	}
+
+	@Test
+	public void syncsShouldTransferAllBlocksOnlyOnce() {
+		var client = nodeIgnoringRanges().forSync();
+
+		assertThat(indexes(client.getBlocks(1, 1).collectList().block())).containsExactly(1);
+		assertThat(indexes(client.getBlocks(6, 6).collectList().block())).containsExactly(6);
+		assertThat(indexes(client.getBlocks(2, 3).collectList().block())).containsExactly(2, 3);
+		assertThat(indexes(client.getBlocks(4, 9).collectList().block())).containsExactly(4, 5, 6);
+		assertThat(requests).containsExactly("from=1&to=1&limit=1", "from=6&to=6&limit=1");
+
+		// Every sync starts over
+		nodeIgnoringRanges().forSync().getBlocks(6, 6).blockLast();
+		assertThat(requests).hasSize(3);
+	}
+}
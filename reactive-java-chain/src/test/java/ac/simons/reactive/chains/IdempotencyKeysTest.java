@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+public class IdempotencyKeysTest {
+	static final class MutableClock extends Clock {
+		long millis;
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(final ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long millis() {
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis);
+		}
+	}
+
+	@Test
+	public void shouldRememberKeysWithinTheWindow() {
+		var clock = new MutableClock();
+		var keys = new IdempotencyKeys(10, Duration.ofSeconds(10), clock);
+		var transaction = new Transaction("1", 0, "a");
+
+		assertThat(keys.get("k")).isNull();
+		assertThat(keys.putIfAbsent("k", transaction)).isNull();
+		assertThat(keys.putIfAbsent("k", new Transaction("2", 0, "a"))).isSameAs(transaction);
+		clock.millis = 9_999;
+		assertThat(keys.get("k")).isSameAs(transaction);
+		clock.millis = 10_000;
+		assertThat(keys.get("k")).isNull();
+		assertThat(keys.putIfAbsent("k", new Transaction("3", 0, "a"))).isNull();
+	}
+
+	@Test
+	public void shouldForgetLeastRecentlyUsedKeys() {
+		var keys = new IdempotencyKeys(2, Duration.ofMinutes(1), new MutableClock());
+		var a = new Transaction("a", 0, "a");
+		keys.putIfAbsent("a", a);
+		keys.putIfAbsent("b", new Transaction("b", 0, "b"));
+		keys.get("a");
+		keys.putIfAbsent("c", new Transaction("c", 0, "c"));
+
+		assertThat(keys.size()).isEqualTo(2);
+		assertThat(keys.get("a")).isSameAs(a);
+		assertThat(keys.get("b")).isNull();
+
+		keys.remove("a", new Transaction("a", 0, "a"));
+		assertThat(keys.get("a")).isSameAs(a);
+		keys.remove("a", a);
+		assertThat(keys.get("a")).isNull();
+	}
+
+	@Test
+	public void shouldForgetKeysOfRemovedTransactions() {
+		var keys = new IdempotencyKeys(10, Duration.ofMinutes(1), new MutableClock());
+		var a = new Transaction("a", 0, "a");
+		keys.putIfAbsent("k", a);
+
+		keys.remove(new Transaction("b", 0, "b"));
+		assertThat(keys.get("k")).isSameAs(a);
+		keys.remove(a);
+		assertThat(keys.get("k")).isNull();
+		assertThat(keys.size()).isZero();
+	}
+
+	@Test
+	public void bloomFilterShouldNotForgetValues() {
+		var bloomFilter = new BloomFilter(10_000, 0.01);
+		for (int i = 0; i < 10_000; ++i) {
+			bloomFilter.add("key-" + i);
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10_000; ++i) {
+			assertThat(bloomFilter.mightContain("key-" + i)).isTrue();
+			if (bloomFilter.mightContain("other-" + i)) {
+				++falsePositives;
+			}
+		}
+
+		assertThat(bloomFilter.getNumberOfHashes()).isEqualTo(7);
+		assertThat(falsePositives).isLessThan(200);
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class IndexedHeapTest {
+	static final class Value extends IndexedHeap.Element {
+		final int value;
+
+		Value(final int value) {
+			this.value = value;
+		}
+	}
+
+	@Test
+	public void shouldPollInOrderAfterRemovals() {
+		var random = new Random(4711);
+		var ascending = new IndexedHeap<Value>(Comparator.comparingInt(v -> v.value), 0);
+		var descending = new IndexedHeap<Value>(Comparator.comparingInt((Value v) -> v.value).reversed(), 1);
+		var values = new ArrayList<Value>();
+		for (int i = 0; i < 1000; ++i) {
+			var value = new Value(random.nextInt(100));
+			values.add(value);
+			ascending.add(value);
+			descending.add(value);
+		}
+		// Remove every third value from the first heap only
+		var remaining = new ArrayList<Integer>();
+		for (int i = 0; i < values.size(); ++i) {
+			if (i % 3 == 0) {
+				assertThat(ascending.remove(values.get(i))).isTrue();
+				assertThat(ascending.remove(values.get(i))).isFalse();
+			} else {
+				remaining.add(values.get(i).value);
+			}
+		}
+
+		assertThat(ascending.size()).isEqualTo(remaining.size());
+		assertThat(pollAll(ascending)).isSorted().containsExactlyInAnyOrderElementsOf(remaining);
+		assertThat(descending.size()).isEqualTo(1000);
+		assertThat(pollAll(descending)).isSortedAccordingTo(Comparator.reverseOrder());
+		assertThat(ascending.isEmpty()).isTrue();
+		assertThat(ascending.poll()).isNull();
+	}
+
+	private static List<Integer> pollAll(final IndexedHeap<Value> heap) {
+		var result = new ArrayList<Integer>();
+		Value value;
+		while ((value = heap.poll()) != null) {
+			result.add(value.value);
+		}
+		return result;
+	}
+}
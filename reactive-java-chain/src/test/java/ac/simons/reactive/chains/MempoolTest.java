@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+public class MempoolTest {
+	@Test
+	public void shouldTakeOutOldestTransactionsAcrossShards() throws Exception {
+		var mempool = new Mempool(4, new SimpleMeterRegistry());
+		var executor = Executors.newFixedThreadPool(4);
+		try {
+			// Each thread adds its transactions in order, the threads interleave
+			var futures = new ArrayList<CompletableFuture<Void>>();
+			for (int thread = 0; thread < 4; ++thread) {
+				final int offset = thread;
+				futures.add(CompletableFuture.runAsync(() -> {
+					for (int i = 0; i < 250; ++i) {
+						var timestamp = 4 * i + offset;
+						mempool.offer(new Transaction(Integer.toString(timestamp), timestamp, null));
+					}
+				}, executor));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(mempool.size()).isEqualTo(1000);
+		var transactions = mempool.poll(600);
+		transactions.addAll(mempool.poll(600));
+		assertThat(transactions).extracting(Transaction::getTimestamp)
+				.containsExactlyElementsOf(LongStream.range(0, 1000).boxed().collect(Collectors.toList()));
+		assertThat(mempool.size()).isZero();
+	}
+
+	@Test
+	public void shouldTakeOutAtMostTheRequestedNumber() {
+		var mempool = new Mempool(1, new SimpleMeterRegistry());
+		mempool.offer(new Transaction("a", 1, null));
+		mempool.offer(new Transaction("b", 2, null));
+
+		assertThat(mempool.poll(1)).extracting(Transaction::getId).containsExactly("a");
+		assertThat(mempool.poll(0)).isEmpty();
+		assertThat(mempool.poll(5)).extracting(Transaction::getId).containsExactly("b");
+		assertThat(mempool.poll(5)).isEmpty();
+	}
+
+	@Test
+	public void shouldRejectWhenFull() {
+		var mempool = new Mempool(2, 3, 10, OverflowPolicy.REJECT, 0.0, new SimpleMeterRegistry());
+
+		assertThat(mempool.offer(new Transaction("a", 1, "12345"))).isTrue();
+		assertThat(mempool.offer(new Transaction("b", 2, "123456"))).isFalse();
+		assertThat(mempool.offerAll(List.of(new Transaction("c", 3, "1"), new Transaction("d", 3, "1"), new Transaction("e", 3, "1")))).isFalse();
+		assertThat(mempool.offerAll(List.of(new Transaction("c", 3, "1"), new Transaction("d", 3, "1")))).isTrue();
+		assertThat(mempool.size()).isEqualTo(3);
+		assertThat(mempool.getPayloadBytes()).isEqualTo(7);
+
+		assertThat(mempool.poll(1)).extracting(Transaction::getId).containsExactly("a");
+		assertThat(mempool.offer(new Transaction("b", 2, "123456"))).isTrue();
+	}
+
+	@Test
+	public void decisionsShouldBeCountedPerRegistry() {
+		var meterRegistry = new SimpleMeterRegistry();
+		var otherMeterRegistry = new SimpleMeterRegistry();
+		var mempool = new Mempool(1, 1, Long.MAX_VALUE, OverflowPolicy.REJECT, 0.0, meterRegistry);
+		new Mempool(1, 1, Long.MAX_VALUE, OverflowPolicy.REJECT, 0.0, otherMeterRegistry);
+
+		mempool.offer(new Transaction("a", 1, "a"));
+		mempool.offer(new Transaction("b", 2, "b"));
+
+		assertThat(meterRegistry.get("chain.mempool.decisions").tag("decision", "accepted").counter().count()).isEqualTo(1.0);
+		assertThat(meterRegistry.get("chain.mempool.decisions").tag("decision", "rejected").counter().count()).isEqualTo(1.0);
+		assertThat(otherMeterRegistry.get("chain.mempool.decisions").counters()).allSatisfy(
+				counter -> assertThat(counter.count()).isZero());
+	}
+
+	@Test
+	public void shouldEvictOldestWhenFull() {
+		var mempool = new Mempool(1, 3, Long.MAX_VALUE, OverflowPolicy.EVICT_OLDEST, 0.0, new SimpleMeterRegistry());
+		var evicted = new ArrayList<Transaction>();
+		mempool.onEvicted(evicted::add);
+		for (int i = 0; i < 5; ++i) {
+			assertThat(mempool.offer(new Transaction(Integer.toString(i), i, null))).isTrue();
+		}
+
+		assertThat(mempool.size()).isEqualTo(3);
+		assertThat(evicted).extracting(Transaction::getId).containsExactly("0", "1");
+		assertThat(mempool.poll(5)).extracting(Transaction::getId).containsExactly("2", "3", "4");
+	}
+
+	@Test
+	public void shouldEvictLargestWhenFull() {
+		var mempool = new Mempool(1, 10, 10, OverflowPolicy.EVICT_LARGEST, 0.0, new SimpleMeterRegistry());
+		mempool.offer(new Transaction("a", 1, "12"));
+		mempool.offer(new Transaction("b", 2, "12345"));
+		mempool.offer(new Transaction("c", 3, "123"));
+
+		assertThat(mempool.offer(new Transaction("d", 4, "1234"))).isTrue();
+		assertThat(mempool.getPayloadBytes()).isEqualTo(9);
+		// Too large, even for an empty mempool
+		assertThat(mempool.offer(new Transaction("e", 5, "12345678901"))).isFalse();
+		assertThat(mempool.poll(5)).extracting(Transaction::getId).containsExactly("a", "c", "d");
+		assertThat(mempool.getPayloadBytes()).isZero();
+	}
+
+	@Test
+	public void shouldCountUtf8Bytes() {
+		for (String value : List.of("", "abc", "Grüße", "€", "😀", "\uD800 alone \uDC00")) {
+			assertThat(Mempool.utf8Length(value)).isEqualTo(value.getBytes(UTF_8).length);
+		}
+	}
+
+	@Test
+	public void shouldTakeOutHighestFeesFirst() {
+		var mempool = new Mempool(1, new SimpleMeterRegistry());
+		mempool.offer(new Transaction("a", 1, null, 0));
+		mempool.offer(new Transaction("b", 2, null, 10));
+		mempool.offer(new Transaction("c", 3, null, 5));
+		mempool.offer(new Transaction("d", 4, null, 10));
+
+		assertThat(mempool.poll(3)).extracting(Transaction::getId).containsExactly("b", "d", "c");
+		assertThat(mempool.poll(3)).extracting(Transaction::getId).containsExactly("a");
+	}
+
+	@Test
+	public void agingShouldPreventStarvation() {
+		var mempool = new Mempool(1, Long.MAX_VALUE, Long.MAX_VALUE, OverflowPolicy.REJECT, 1.0, new SimpleMeterRegistry());
+		// Waiting for 20 seconds is worth more than a fee of 10
+		mempool.offer(new Transaction("old", 0, null, 0));
+		mempool.offer(new Transaction("expensive", 20_000, null, 10));
+		mempool.offer(new Transaction("new", 20_000, null, 0));
+
+		assertThat(mempool.poll(3)).extracting(Transaction::getId).containsExactly("old", "expensive", "new");
+	}
+
+	@Test
+	public void shouldFillTheByteBudget() {
+		var mempool = new Mempool(1, new SimpleMeterRegistry());
+		mempool.offer(new Transaction("a", 1, "1234", 3));
+		mempool.offer(new Transaction("b", 2, "123456789", 2));
+		mempool.offer(new Transaction("c", 3, "12345", 1));
+
+		// b doesn't fit after a, but c does
+		assertThat(mempool.poll(5, 10)).extracting(Transaction::getId).containsExactly("a", "c");
+		assertThat(mempool.poll(5, 10)).extracting(Transaction::getId).containsExactly("b");
+	}
+}
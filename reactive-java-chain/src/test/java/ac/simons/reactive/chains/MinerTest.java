@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+public class MinerTest {
+	@Test
+	public void shouldFindAProofMeetingTheDifficulty() {
+		var chain = Chain.defaultChain();
+		var template = new Block(2, 4711, -1, List.of(), chain.hash(Chain.DEFAULT_GENESIS_BLOCK.get()));
+		var difficulty = Difficulty.ofLeadingZeroBits(16);
+		var miner = new Miner(2, new SimpleMeterRegistry());
+
+		var block = miner.mine(NonceSearch.of(template, BlockEncoding.json(), DigestProvider.threadLocal(null)), difficulty).block();
+
+		assertThat(block.getProof()).isNotNegative();
+		assertThat(difficulty.isMetBy(chain.digest(block))).isTrue();
+		assertThat(chain.hash(block)).startsWith("0000");
+		assertThat(miner.getHashRate(0) + miner.getHashRate(1)).isPositive();
+	}
+
+	@Test
+	public void shouldFindTheSameProofHashingSeveralAtOnce() {
+		var chain = Chain.defaultChain();
+		var template = new Block(2, 4711, -1, List.of(), chain.hash(Chain.DEFAULT_GENESIS_BLOCK.get()));
+		var difficulty = Difficulty.ofLeadingZeroBits(12);
+		var miner = new Miner(1, new SimpleMeterRegistry());
+
+		var block = miner.mine(NonceSearch.of(template, BlockEncoding.json(), DigestProvider.threadLocal(null)), difficulty).block();
+		var batchedBlock = miner.mine(NonceSearch.of(template, BlockEncoding.json(), DigestProvider.multiBuffer()), difficulty).block();
+
+		// A single worker tries all proofs in order
+		assertThat(batchedBlock.getProof()).isEqualTo(block.getProof());
+		assertThat(batchedBlock.getHash()).isEqualTo(chain.hash(block));
+	}
+
+	@Test
+	public void minersShouldReportTheirHashesSeparately() {
+		var chain = Chain.defaultChain();
+		var template = new Block(2, 4711, -1, List.of(), chain.hash(Chain.DEFAULT_GENESIS_BLOCK.get()));
+		var meterRegistry = new SimpleMeterRegistry();
+		var miner = new Miner(1, meterRegistry);
+		var otherMiner = new Miner(1, meterRegistry);
+
+		miner.mine(NonceSearch.of(template, BlockEncoding.json(), DigestProvider.threadLocal(null)), Difficulty.ofLeadingZeroBits(8)).block();
+
+		var hashes = meterRegistry.find("chain.miner.hashes").functionCounters();
+		assertThat(hashes).hasSize(2);
+		assertThat(hashes).filteredOn(counter -> counter.count() > 0).hasSize(1);
+		assertThat(meterRegistry.find("chain.miner.hashrate").gauges()).hasSize(2);
+		otherMiner.shutdown();
+	}
+
+	@Test
+	public void searchesShouldFailAfterShutdown() {
+		var chain = Chain.defaultChain();
+		var template = new Block(2, 4711, -1, List.of(), chain.hash(Chain.DEFAULT_GENESIS_BLOCK.get()));
+		var miner = new Miner(1, new SimpleMeterRegistry());
+
+		miner.shutdown();
+
+		assertThatThrownBy(() -> miner.mine(NonceSearch.of(template, BlockEncoding.json(), DigestProvider.threadLocal(null)),
+				Difficulty.ofLeadingZeroBits(8)).block()).isInstanceOf(RejectedExecutionException.class);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class MultiBufferSha256Test {
+	@Test
+	public void shouldMatchMessageDigest() throws Exception {
+		var random = new Random(4711);
+		var lanes = MultiBufferSha256.LANES;
+		// Cover prefixes ending inside and at the end of a block, and paddings spilling into an additional block
+		for (int prefixLength : new int[] { 0, 1, 55, 63, 64, 65, 130 }) {
+			var prefix = randomBytes(random, prefixLength);
+			var multiBuffer = new MultiBufferSha256(prefix);
+			for (int suffixLength = 0; suffixLength < 150; ++suffixLength) {
+				var suffix = randomBytes(random, suffixLength);
+				var variables = new byte[lanes][];
+				var offsets = new int[lanes];
+				var lengths = new int[lanes];
+				var out = new byte[lanes][32];
+				// Either all lanes have the same length or they differ by one byte
+				var mixed = suffixLength % 2 == 0;
+				for (int lane = 0; lane < lanes; ++lane) {
+					lengths[lane] = mixed ? 8 + lane % 2 : 8;
+					offsets[lane] = lane;
+					variables[lane] = randomBytes(random, offsets[lane] + lengths[lane]);
+				}
+
+				var count = 1 + suffixLength % lanes;
+				multiBuffer.digest(count, variables, offsets, lengths, suffix, out);
+				for (int lane = 0; lane < count; ++lane) {
+					var expected = MessageDigest.getInstance("SHA-256");
+					expected.update(prefix);
+					expected.update(variables[lane], offsets[lane], lengths[lane]);
+					expected.update(suffix);
+					assertThat(out[lane]).isEqualTo(expected.digest());
+				}
+			}
+		}
+	}
+
+	private static byte[] randomBytes(final Random random, final int length) {
+		var bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+}
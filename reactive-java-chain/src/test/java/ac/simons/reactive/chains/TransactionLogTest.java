@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 michael-simons.eu.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ac.simons.reactive.chains;
+
+import static ac.simons.reactive.chains.TestBlocks.block;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+public class TransactionLogTest {
+	private Path directory;
+
+	private Path file;
+
+	private static Transaction transaction(final int i) {
+		return new Transaction("tx-" + i, i, "Payload " + i, i % 3);
+	}
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		directory = TestDirectories.create("transactions");
+		file = directory.resolve("transactions.wal");
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		TestDirectories.deleteRecursively(directory);
+	}
+
+	@Test
+	public void concurrentAppendsShouldShareSyncs() {
+		try (var log = TransactionLog.open(file, 64, new SimpleMeterRegistry())) {
+			Flux.range(0, 1000)
+					.parallel(8)
+					.runOn(Schedulers.parallel())
+					.flatMap(i -> log.append(List.of(transaction(i))).then(Mono.just(i)))
+					.sequential()
+					.blockLast();
+
+			assertThat(log.getNumberOfSyncs()).isBetween(1L, 1000L);
+		}
+
+		try (var log = TransactionLog.open(file, 64, new SimpleMeterRegistry())) {
+			assertThat(log.getRecoveredTransactions()).hasSize(1000)
+					.extracting(Transaction::getId).doesNotHaveDuplicates().contains("tx-0", "tx-999");
+		}
+	}
+
+	@Test
+	public void subscribersShouldNotContinueOnTheWriter() {
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			var thread = log.append(List.of(transaction(0)))
+					.then(Mono.fromCallable(() -> Thread.currentThread().getName()))
+					.block();
+
+			assertThat(thread).isNotEqualTo("transaction-log-writer");
+		}
+	}
+
+	@Test
+	public void shouldRecoverTransactionsInOrder() {
+		var transactions = IntStream.range(0, 10).mapToObj(TransactionLogTest::transaction).collect(Collectors.toList());
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			log.append(transactions.subList(0, 5)).block();
+			log.append(transactions.subList(5, 10)).block();
+		}
+
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			var recovered = log.getRecoveredTransactions();
+			assertThat(recovered).hasSize(10);
+			for (int i = 0; i < 10; ++i) {
+				assertThat(recovered.get(i)).isEqualToComparingFieldByField(transactions.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void shouldTruncateATornTail() throws IOException {
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			log.append(List.of(transaction(1), transaction(2))).block();
+		}
+		try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			assertThat(log.getRecoveredTransactions()).extracting(Transaction::getId).containsExactly("tx-1");
+			log.append(List.of(transaction(3))).block();
+		}
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			assertThat(log.getRecoveredTransactions()).extracting(Transaction::getId).containsExactly("tx-1", "tx-3");
+		}
+	}
+
+	@Test
+	public void compactingShouldKeepOnlyTheGivenTransactions() {
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			log.append(List.of(transaction(1), transaction(2), transaction(3))).block();
+			log.compact(List.of(transaction(2)));
+			log.append(List.of(transaction(4))).block();
+		}
+
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			assertThat(log.getRecoveredTransactions()).extracting(Transaction::getId).containsExactly("tx-2", "tx-4");
+		}
+	}
+
+	@Test
+	public void compactingShouldKeepRecordsAfterTheMark() {
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			log.append(List.of(transaction(1), transaction(2))).block();
+			var mark = log.getMark();
+			// Appended after the transactions to keep have been collected
+			log.append(List.of(transaction(3))).block();
+			log.compact(List.of(transaction(2)), mark);
+			log.append(List.of(transaction(4))).block();
+		}
+
+		try (var log = TransactionLog.open(file, 16, new SimpleMeterRegistry())) {
+			assertThat(log.getRecoveredTransactions()).extracting(Transaction::getId).containsExactly("tx-2", "tx-3", "tx-4");
+		}
+	}
+
+	@Test
+	public void shouldRejectAppendsAfterClosing() {
+		var log = TransactionLog.open(file, 16, new SimpleMeterRegistry());
+		log.close();
+
+		assertThatIllegalStateException().isThrownBy(() -> log.append(List.of(transaction(1))).block());
+	}
+}